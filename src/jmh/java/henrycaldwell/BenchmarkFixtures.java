@@ -0,0 +1,94 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.security.Security;
+
+/**
+ * Builds blockchain state shared by the benchmarks.
+ */
+public class BenchmarkFixtures {
+
+    public static Blockchain chain = new Blockchain(); // The chain the benchmarks run against, replaced by resetChain.
+
+    /**
+     * Registers the Bouncy Castle provider.
+     */
+    public static void setUp() {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * Creates a list of signed transactions with distinct inputs, each spending one output of its own wallet.
+     * @param count The number of transactions.
+     * @return The transactions.
+     */
+    public static ArrayList<Transaction> createTransactions(int count) {
+        resetChain(1);
+        Wallet recipient = new Wallet(chain);
+        ArrayList<Transaction> transactions = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            Wallet sender = new Wallet(chain);
+            TransactionOutput funding = new TransactionOutput(sender.getAddress(), 100 * Blockchain.COIN, new Digest(0, 0, 0, i), 0);
+            chain.getUTXOs().put(funding.getId(), funding);
+            transactions.add(sender.sendFunds(recipient.getAddress(), Blockchain.COIN));
+        }
+
+        return transactions;
+    }
+
+    /**
+     * Builds and mines a chain of blocks, each carrying the given number of transactions.
+     * The first blocks fund one sender wallet per transaction slot, the remaining blocks spend those wallets' change.
+     * @param blocks The number of blocks after the funding blocks.
+     * @param transactionsPerBlock The number of transactions in each of those blocks.
+     * @param difficulty The mining difficulty.
+     */
+    public static void buildChain(int blocks, int transactionsPerBlock, int difficulty) {
+        resetChain(difficulty);
+        Wallet treasury = new Wallet(chain);
+        List<Wallet> senders = new ArrayList<>();
+        chain.mineGenesis(new Wallet(chain), treasury.getAddress(), 500000 * Blockchain.COIN);
+
+        for (int i = 0; i < transactionsPerBlock; i++) {
+            Wallet sender = new Wallet(chain);
+            Block block = new Block(tipHash());
+            block.addTransaction(treasury.sendFunds(sender.getAddress(), 1000 * Blockchain.COIN));
+            chain.addBlock(block);
+            senders.add(sender);
+        }
+
+        for (int b = 0; b < blocks; b++) {
+            Block block = new Block(tipHash());
+
+            for (Wallet sender : senders) {
+                block.addTransaction(sender.sendFunds(treasury.getAddress(), Blockchain.COIN));
+            }
+
+            chain.addBlock(block);
+        }
+    }
+
+    /**
+     * Replaces the chain with an empty one and fixes the target so results do not depend on retargeting.
+     * @param difficulty The mining difficulty to use, as a number of leading hexadecimal zeroes.
+     */
+    public static void resetChain(int difficulty) {
+        setUp();
+        chain = new Blockchain();
+        Blockchain.genesisBits = Target.fromLeadingZeroBits(difficulty * 4);
+        Blockchain.retargetInterval = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the hash of the last block in the chain.
+     * @return The tip hash.
+     */
+    private static Digest tipHash() {
+        return chain.getChainIndex().getTip().getHash();
+    }
+}
@@ -0,0 +1,26 @@
+package henrycaldwell;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar that always attaches the GC profiler so allocation rates are reported.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Runs the benchmarks selected by the standard JMH command line options.
+     * @param args JMH command line arguments, such as a benchmark regex or -rf json.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,55 @@
+package henrycaldwell;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Blockchain.verifyBlockchain across chain lengths and block sizes.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockchainBenchmark {
+
+    @Param({"8", "32"})
+    public int chainLength; // The number of spending blocks in the chain.
+
+    @Param({"1", "16"})
+    public int transactionsPerBlock; // The number of transactions in each spending block.
+
+    /**
+     * Builds and mines the chain at a low difficulty.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkFixtures.buildChain(chainLength, transactionsPerBlock, 1);
+    }
+
+    /**
+     * Empties the signature cache so every invocation verifies all signatures in full.
+     */
+    @Setup(Level.Invocation)
+    public void clearSignatureCache() {
+        Blockchain.signatureVerifier.clear();
+    }
+
+    @Benchmark
+    public Boolean verifyBlockchain() {
+        return BenchmarkFixtures.chain.verifyBlockchain();
+    }
+}
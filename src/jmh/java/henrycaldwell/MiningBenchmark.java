@@ -0,0 +1,56 @@
+package henrycaldwell;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Block.mineBlock across difficulty levels.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MiningBenchmark {
+
+    @Param({"2", "3", "4"})
+    public int difficulty; // The number of leading hexadecimal zeroes required.
+
+    private Block block; // The block mined by the next invocation.
+    private int sequence; // Counter giving every block a distinct previous hash.
+
+    /**
+     * Registers the security provider.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        BenchmarkFixtures.resetChain(difficulty);
+    }
+
+    /**
+     * Creates a fresh unmined block so every invocation searches a new nonce space.
+     */
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        block = new Block(new Digest(0, 0, 0, sequence++));
+    }
+
+    @Benchmark
+    public Digest mineBlock() {
+        block.mineBlock(Target.fromLeadingZeroBits(difficulty * 4));
+        return block.getHash();
+    }
+}
@@ -0,0 +1,99 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import java.security.PublicKey;
+import java.security.PrivateKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the hashing, signing and Merkle root functions of SecurityUtil.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityUtilBenchmark {
+
+    @Benchmark
+    public String applySha256(InputState state) {
+        return SecurityUtil.applySha256(state.input);
+    }
+
+    @Benchmark
+    public byte[] applyECDSASig(InputState state) {
+        return SecurityUtil.applyECDSASig(state.privateKey, state.input);
+    }
+
+    @Benchmark
+    public boolean verifyECDSASig(InputState state) {
+        return SecurityUtil.verifyECDSASig(state.publicKey, state.input, state.signature);
+    }
+
+    @Benchmark
+    public Digest getMerkleRoot(MerkleState state) {
+        return SecurityUtil.getMerkleRoot(state.transactionList);
+    }
+
+    /**
+     * The hashed and signed input, parameterized by its length only.
+     */
+    @State(Scope.Benchmark)
+    public static class InputState {
+
+        @Param({"64", "1024", "16384"})
+        public int inputSize; // The length of the hashed and signed input in characters.
+
+        private String input; // The hashed and signed input.
+        private PublicKey publicKey; // The verifying key.
+        private PrivateKey privateKey; // The signing key.
+        private byte[] signature; // A valid signature over the input.
+
+        /**
+         * Creates the input and keys.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            BenchmarkFixtures.setUp();
+            input = "a".repeat(inputSize);
+            Wallet wallet = new Wallet(BenchmarkFixtures.chain);
+            publicKey = wallet.getPublicKey();
+            privateKey = wallet.getPrivateKey();
+            signature = SecurityUtil.applyECDSASig(privateKey, input);
+        }
+    }
+
+    /**
+     * The Merkle tree leaves, parameterized by their count only.
+     */
+    @State(Scope.Benchmark)
+    public static class MerkleState {
+
+        @Param({"16", "128", "512"})
+        public int transactions; // The number of transactions in the Merkle tree.
+
+        private ArrayList<Transaction> transactionList; // The Merkle tree leaves.
+
+        /**
+         * Creates the transactions.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            transactionList = BenchmarkFixtures.createTransactions(transactions);
+        }
+    }
+}
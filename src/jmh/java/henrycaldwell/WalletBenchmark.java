@@ -0,0 +1,75 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks Wallet.sendFunds and Wallet.sendBatch from a wallet holding many small UTXOs, for each coin selection strategy.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalletBenchmark {
+
+    private static final int BATCH_SIZE = 100; // The number of recipients paid by sendBatch.
+
+    @Param({"100", "1000", "10000"})
+    public int utxos; // The number of UTXOs the sender owns.
+
+    @Param({"LARGEST_FIRST", "BRANCH_AND_BOUND", "CONSOLIDATION"})
+    public CoinSelector.Strategy strategy; // The coin selection strategy.
+
+    private Wallet sender; // The wallet paying.
+    private Wallet recipient; // The wallet paid.
+    private long value; // The payment, half of the sender's balance.
+    private List<Transaction.Payment> payments; // The batch payments, splitting the same value across BATCH_SIZE recipients.
+
+    /**
+     * Funds the sender with UTXOs of varied small values.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkFixtures.resetChain(1);
+        sender = new Wallet(BenchmarkFixtures.chain);
+        recipient = new Wallet(BenchmarkFixtures.chain);
+
+        for (int i = 0; i < utxos; i++) {
+            TransactionOutput funding = new TransactionOutput(sender.getAddress(), Blockchain.COIN * (1 + i % 7), new Digest(0, 0, 0, i), 0);
+            BenchmarkFixtures.chain.getUTXOs().put(funding.getId(), funding);
+        }
+
+        value = sender.getBalance() / 2;
+        payments = new ArrayList<>(BATCH_SIZE);
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            payments.add(new Transaction.Payment(new Wallet(BenchmarkFixtures.chain).getAddress(), value / BATCH_SIZE));
+        }
+    }
+
+    @Benchmark
+    public Transaction sendFunds() {
+        return sender.sendFunds(recipient.getAddress(), value, strategy);
+    }
+
+    @Benchmark
+    public Transaction sendBatch() {
+        return sender.sendBatch(payments, strategy);
+    }
+}
@@ -0,0 +1,72 @@
+package henrycaldwell;
+
+import java.security.PublicKey;
+
+/**
+ * Immutable address that outputs are paid to: the SHA-256 hash of a public key's X.509 encoding.
+ * An address is a fixed 32 bytes instead of a variable-length key, encodes without touching the key, and compares
+ * equal for equal keys whichever instance they were decoded into, so ownership checks are four long comparisons.
+ */
+public final class Address {
+
+    public static final int SIZE = Digest.SIZE; // The size of an address in bytes.
+
+    private final Digest hash; // The hash of the encoded public key.
+
+    /**
+     * Constructs an Address from the hash of an encoded public key.
+     * @param hash The hash of the encoded public key.
+     */
+    public Address(Digest hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * Returns the address of a public key, computed once per key instance and cached by the KeyRegistry.
+     * @param key The public key.
+     * @return The address.
+     */
+    public static Address of(PublicKey key) {
+        return KeyRegistry.getAddress(key);
+    }
+
+    /**
+     * Checks if a public key hashes to this address.
+     * @param key The public key.
+     * @return True if the key owns this address, false otherwise.
+     */
+    public boolean matches(PublicKey key) {
+        return hash.equals(of(key).hash);
+    }
+
+    /**
+     * Returns the hash the address consists of.
+     * @return The hash of the encoded public key.
+     */
+    public Digest getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof Address)) {
+            return false;
+        }
+
+        return hash.equals(((Address) other).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return hash.toHex();
+    }
+}
@@ -11,23 +11,50 @@ import java.util.Date;
  */
 public class Block {
 
-    private String hash, previousBlockHash; // The hash and previous hash of the previous block.
-    private String merkleRoot; // The merkle root hash of all the transactions in the block.
+    private static final Metrics.Counter mined = Metrics.counter("blocks_mined_total"); // The blocks mined by this node.
+    private static final Metrics.Counter accepted = Metrics.counter("transactions_accepted_total{stage=\"block\"}"); // The transactions added to blocks.
+
+    private Digest hash, previousBlockHash; // The hash and previous hash of the previous block.
+    private Digest merkleRoot; // The merkle root hash of all the transactions in the block.
+    private MerkleTree merkleTree; // The incremental merkle tree over the block's transaction IDs.
     private long timestamp; // The time of the blocks creation in miliseconds.
+    private int bits; // The compact target the block hash must meet.
     private int nonce; // The nonce value used for mining the block.
 
     private ArrayList<Transaction> transactions; // The list of transactions in the block.
-    private Set<TransactionOutput> usedUTXOs; // A set to track used UTXOs within this block.
+    private Set<Digest> usedOutputIds; // The IDs of the outputs spent within this block.
 
     /**
      * Constructs a Block by initializing hashes and timeStamp.
      * @param previousHash The hash of the previous block.
      */
-    public Block(String previousBlockHash) {
+    public Block(Digest previousBlockHash) {
         this.previousBlockHash = previousBlockHash;
         this.timestamp = new Date().getTime();
         this.transactions = new ArrayList<>();
-        this.usedUTXOs = new HashSet<>();
+        this.merkleTree = new MerkleTree();
+        this.usedOutputIds = new HashSet<>();
+    }
+
+    /**
+     * Constructs an already mined Block from stored fields without recomputing any hash.
+     * @param hash The hash of the block.
+     * @param previousBlockHash The hash of the previous block.
+     * @param merkleRoot The merkle root of the block's transactions.
+     * @param timestamp The time of the blocks creation in miliseconds.
+     * @param bits The compact target the block hash meets.
+     * @param nonce The nonce that solved the block.
+     * @param transactions The transactions in the block.
+     */
+    public Block(Digest hash, Digest previousBlockHash, Digest merkleRoot, long timestamp, int bits, int nonce, ArrayList<Transaction> transactions) {
+        this.hash = hash;
+        this.previousBlockHash = previousBlockHash;
+        this.merkleRoot = merkleRoot;
+        this.timestamp = timestamp;
+        this.bits = bits;
+        this.nonce = nonce;
+        this.transactions = transactions;
+        this.usedOutputIds = new HashSet<>();
     }
 
     /**
@@ -37,78 +64,101 @@ public class Block {
      */
     public boolean addTransaction(Transaction transaction) {
         if (transaction == null) {
-            System.out.println(StringUtil.formatText("BLK001: Null Transaction - Unable to Add to Block", StringUtil.ANSI_RED));
+            EventLog.error("BLK001: Null Transaction - Unable to Add to Block");
             return false;
         }
 
         if (!transaction.verifyTransaction()) {
-            System.out.println(StringUtil.formatText("BLK002: Transaction Verification Failed - Unable to Add to Block", StringUtil.ANSI_RED));
+            EventLog.error("BLK002: Transaction Verification Failed - Unable to Add to Block");
             return false;
         }
 
-        for (TransactionInput input : transaction.getInputs()) {
-            TransactionOutput UTXO = Blockchain.UTXOs.get(input.getTransactionOutputId());
+        for (int i = 0; i < transaction.getInputs().size(); i++) {
+            if (!usedOutputIds.add(transaction.getInputs().get(i).getTransactionOutputId())) {
+                for (int j = 0; j < i; j++) {
+                    usedOutputIds.remove(transaction.getInputs().get(j).getTransactionOutputId());
+                }
 
-            if (usedUTXOs.contains(UTXO)) {
-                System.out.println(StringUtil.formatText("BLK003: Referenced UTXO Already Used - Unable to Add to Block", StringUtil.ANSI_RED));
+                EventLog.error("BLK003: Referenced UTXO Already Used - Unable to Add to Block");
                 return false;
             }
-
-            usedUTXOs.add(UTXO);
         }
 
+        // Build the tree of a restored block before appending, so the new transaction is added to it exactly once.
+        MerkleTree tree = getMerkleTree();
         transactions.add(transaction);
-        merkleRoot = SecurityUtil.getMerkleRoot(transactions);
+        tree.add(transaction.getTransactionId());
+        merkleRoot = tree.getRoot();
+        accepted.increment();
         return true;
     }
 
     /**
-     * Mines the block by finding a hash that starts with a specific number of zeroes (the difficulty) and removes the used UTXOs from the blockchain.
-     * @param difficulty The difficulty level for mining, represented by the number of zeroes that must lead the hash.
+     * Mines the block by finding a hash that is at most the given target.
+     * The UTXO set is left untouched; Blockchain applies the block's changes when it connects the block.
+     * @param bits The compact target, as returned by Blockchain.getNextBits for the block's parent.
      */
-    public void mineBlock(int difficulty) {
-        String target = new String(new char[difficulty]).replace('\0', '0');
+    public void mineBlock(int bits) {
+        mineBlock(bits, Long.MIN_VALUE);
+    }
 
-        hash = calculateHash();
+    /**
+     * Mines the block by finding a hash that is at most the given target, with a timestamp of at least the given one.
+     * @param bits The compact target, as returned by Blockchain.getNextBits for the block's parent.
+     * @param minimumTimestamp The earliest valid timestamp, one past the median time of the previous blocks.
+     */
+    public void mineBlock(int bits, long minimumTimestamp) {
+        ChainEvents.BlockMined event = new ChainEvents.BlockMined();
+        event.begin();
+        this.bits = bits;
+        this.timestamp = Math.max(timestamp, minimumTimestamp);
+        MiningResult result = Blockchain.miner.mine(this);
+        long attempts = result == null ? Miner.NONCE_SPACE : result.getAttempts();
 
-        while (!hash.substring(0, difficulty).equals(target)) {
-            nonce++;
-            hash = calculateHash();
+        while (result == null) {
+            timestamp = Math.max(new Date().getTime(), minimumTimestamp); // The nonce space is exhausted, so refresh the header and search again.
+            result = Blockchain.miner.mine(this);
+            attempts += result == null ? Miner.NONCE_SPACE : result.getAttempts();
         }
 
-        for (Transaction transaction : transactions) {
-            for (TransactionInput input : transaction.getInputs()) {
-                Blockchain.UTXOs.remove(input.getTransactionOutputId());
-            }
+        nonce = result.getNonce();
+        hash = result.getHash();
+        event.end();
 
-            for (TransactionOutput output : transaction.getOutputs()) {
-                Blockchain.UTXOs.put(output.getId(), output);
-            }
+        if (event.shouldCommit()) {
+            event.hash = hash.toHex();
+            event.nonceCount = attempts;
+            event.bits = bits;
+            event.transactions = transactions.size();
+            event.commit();
         }
 
-        System.out.println(StringUtil.formatText("Block Mined Successfully, HASH: " + StringUtil.formatText(hash, StringUtil.ANSI_ITALIC), StringUtil.ANSI_GREEN));
+        mined.increment();
+        EventLog.info("Block Mined Successfully, HASH: " + hash);
     }
 
     /**
      * Calculates the hash of the block.
      * @return The calculated hash.
      */
-    public String calculateHash() {
-        StringBuilder data = new StringBuilder();
-
-        data.append(previousBlockHash)
-                .append(merkleRoot)
-                .append(Long.toString(timestamp))
-                .append(Integer.toString(nonce));
+    public Digest calculateHash() {
+        return calculateHash(nonce);
+    }
 
-        return SecurityUtil.applySha256(data.toString());
+    /**
+     * Calculates the hash of the block for a candidate nonce without modifying the block.
+     * @param nonce The candidate nonce.
+     * @return The calculated hash.
+     */
+    public Digest calculateHash(int nonce) {
+        return Digest.of(new HeaderHasher(this).hash(nonce));
     }
 
     /**
      * Returns the block hash.
      * @return The block hash.
      */
-    public String getHash() {
+    public Digest getHash() {
         return hash;
     }
 
@@ -116,7 +166,7 @@ public class Block {
      * Returns the previous block hash.
      * @return The previous block hash.
      */
-    public String getPreviousBlockHash() {
+    public Digest getPreviousBlockHash() {
         return previousBlockHash;
     }
 
@@ -124,7 +174,7 @@ public class Block {
      * Returns the Merkle root.
      * @return The Merkle root.
      */
-    public String getMerkleRoot() {
+    public Digest getMerkleRoot() {
         return merkleRoot;
     }
 
@@ -136,6 +186,39 @@ public class Block {
         return timestamp;
     }
 
+    /**
+     * Returns the compact target.
+     * @return The compact target.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns an inclusion proof for a transaction in the block.
+     * @param transactionId The ID of the transaction.
+     * @return The inclusion proof, or null if the transaction is not in the block.
+     */
+    public MerkleProof getMerkleProof(Digest transactionId) {
+        return getMerkleTree().getProof(transactionId);
+    }
+
+    /**
+     * Returns the merkle tree, building it on first use for blocks restored from storage.
+     * @return The merkle tree over the block's transaction IDs.
+     */
+    private MerkleTree getMerkleTree() {
+        if (merkleTree == null) {
+            merkleTree = new MerkleTree();
+
+            for (Transaction transaction : transactions) {
+                merkleTree.add(transaction.getTransactionId());
+            }
+        }
+
+        return merkleTree;
+    }
+
     /**
      * Returns the nonce.
      * @return The nonce.
@@ -153,19 +236,20 @@ public class Block {
     }
 
     /**
-     * Returns the set of used UTXOs.
-     * @return The set of used UTXOs.
+     * Returns the IDs of the outputs spent by the block's transactions.
+     * @return The set of spent output IDs.
      */
-    public Set<TransactionOutput> getUsedUTXOs() {
-        return usedUTXOs;
+    public Set<Digest> getUsedOutputIds() {
+        return usedOutputIds;
     }
 
     @Override
     public String toString() {
         return "Block{" +
-                "previousBlockHash='" + previousBlockHash + '\'' +
-                ", merkleRoot='" + merkleRoot + '\'' +
+                "previousBlockHash=" + previousBlockHash +
+                ", merkleRoot=" + merkleRoot +
                 ", timestamp=" + timestamp +
+                ", bits=" + Integer.toHexString(bits) +
                 ", nonce=" + nonce +
                 ", transactions=" + transactions +
                 '}';
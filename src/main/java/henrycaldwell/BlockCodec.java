@@ -0,0 +1,321 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+
+import java.security.PublicKey;
+
+/**
+ * Compact binary encoding of blocks, transactions, inputs and outputs.
+ * Hashes are written as 32 raw bytes, amounts as 8-byte counts of base units and keys as length-prefixed X.509 encodings.
+ * The same canonical encoding is what transaction IDs, output IDs and signatures are computed over.
+ */
+public class BlockCodec {
+
+    public static final int FORMAT_VERSION = 8; // The version byte leading every encoded block.
+
+    private static final int MIN_TRANSACTION_SIZE = 1 + 4 + 4 + 8 + 4 + 4 + 4; // The smallest encoded transaction: absent ID, empty key, payments, signature, inputs and outputs.
+    private static final int MIN_PAYMENT_SIZE = 1 + 8; // The smallest encoded payment: absent recipient hash and value.
+    private static final int MIN_INPUT_SIZE = 1 + 1; // The smallest encoded input: absent output ID and no spent output.
+    private static final int MIN_OUTPUT_SIZE = 1 + 1 + 8 + 1; // The smallest encoded output: absent hashes and value.
+
+    private static final ThreadLocal<ByteWriter> writers = ThreadLocal.withInitial(ByteWriter::new); // The per-thread reusable encoding buffer.
+
+    /**
+     * Encodes a block, including its transactions.
+     * @param block The block to encode.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeBlock(Block block, ByteWriter writer) {
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeHash(block.getHash());
+        writer.writeHash(block.getPreviousBlockHash());
+        writer.writeHash(block.getMerkleRoot());
+        writer.writeLong(block.getTimestamp());
+        writer.writeInt(block.getBits());
+        writer.writeInt(block.getNonce());
+        writer.writeInt(block.getTransactions().size());
+
+        for (Transaction transaction : block.getTransactions()) {
+            encodeTransaction(transaction, writer);
+        }
+    }
+
+    /**
+     * Encodes a header exactly as it leads an encoded block, so decodeHeader reads either.
+     * @param header The header to encode.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeHeader(BlockHeader header, ByteWriter writer) {
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeHash(header.getHash());
+        writer.writeHash(header.getPreviousBlockHash());
+        writer.writeHash(header.getMerkleRoot());
+        writer.writeLong(header.getTimestamp());
+        writer.writeInt(header.getBits());
+        writer.writeInt(header.getNonce());
+    }
+
+    /**
+     * Decodes a block, including its transactions, without recomputing any hash.
+     * Counts and lengths the remaining bytes cannot hold are rejected before allocating, with an IllegalStateException.
+     * @param reader The reader positioned at an encoded block.
+     * @return The decoded block.
+     */
+    public static Block decodeBlock(ByteReader reader) {
+        BlockHeader header = decodeHeader(reader);
+        int count = reader.readCount(MIN_TRANSACTION_SIZE);
+        ArrayList<Transaction> transactions = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            transactions.add(decodeTransaction(reader));
+        }
+
+        return new Block(header.getHash(), header.getPreviousBlockHash(), header.getMerkleRoot(), header.getTimestamp(), header.getBits(), header.getNonce(), transactions);
+    }
+
+    /**
+     * Decodes only the header at the start of an encoded block, leaving the reader at the transaction count.
+     * @param reader The reader positioned at an encoded block.
+     * @return The decoded header.
+     */
+    public static BlockHeader decodeHeader(ByteReader reader) {
+        int version = reader.readByte();
+
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported block format version " + version);
+        }
+
+        Digest hash = reader.readHash();
+        Digest previousBlockHash = reader.readHash();
+        Digest merkleRoot = reader.readHash();
+        long timestamp = reader.readLong();
+        int bits = reader.readInt();
+        int nonce = reader.readInt();
+        return new BlockHeader(hash, previousBlockHash, merkleRoot, timestamp, bits, nonce);
+    }
+
+    /**
+     * Encodes a transaction, including its signature, inputs and outputs.
+     * @param transaction The transaction to encode.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeTransaction(Transaction transaction, ByteWriter writer) {
+        writer.writeHash(transaction.getTransactionId());
+        encodePayments(transaction, writer);
+        writer.writeBytes(transaction.getSignature());
+        writer.writeInt(transaction.getInputs().size());
+
+        for (TransactionInput input : transaction.getInputs()) {
+            encodeInput(input, writer);
+        }
+
+        writer.writeInt(transaction.getOutputs().size());
+
+        for (TransactionOutput output : transaction.getOutputs()) {
+            encodeOutput(output, writer);
+        }
+    }
+
+    /**
+     * Encodes the fields covered by a transaction's signature: sender, payments, fee and the IDs of the spent outputs.
+     * Signing the input IDs keeps a signed transaction from being pointed at other outputs of the sender.
+     * @param transaction The transaction.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeSignatureData(Transaction transaction, ByteWriter writer) {
+        encodePayments(transaction, writer);
+        writer.writeInt(transaction.getInputs().size());
+
+        for (TransactionInput input : transaction.getInputs()) {
+            writer.writeHash(input.getTransactionOutputId());
+        }
+    }
+
+    /**
+     * Encodes a transaction's sender, payments and fee, as they lead both its encoding and its signed data.
+     * @param transaction The transaction.
+     * @param writer The writer receiving the encoding.
+     */
+    private static void encodePayments(Transaction transaction, ByteWriter writer) {
+        writer.writeBytes(KeyRegistry.getEncoded(transaction.getSender()));
+        writer.writeInt(transaction.getPayments().size());
+
+        for (Transaction.Payment payment : transaction.getPayments()) {
+            writer.writeHash(payment.getRecipient().getHash());
+            writer.writeLong(payment.getValue());
+        }
+
+        writer.writeLong(transaction.getFee());
+    }
+
+    /**
+     * Encodes the fields a transaction ID is computed over: the signed fields followed by the recipient and value of
+     * each output. Output IDs are derived from the transaction ID, so they are not included.
+     * @param transaction The transaction.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeHashData(Transaction transaction, ByteWriter writer) {
+        encodeSignatureData(transaction, writer);
+        writer.writeInt(transaction.getOutputs().size());
+
+        for (TransactionOutput output : transaction.getOutputs()) {
+            writer.writeHash(output.getRecipient().getHash());
+            writer.writeLong(output.getValue());
+        }
+    }
+
+    /**
+     * Encodes the same fields as encodeHashData for a transaction whose outputs are not created yet: one output per
+     * payment, followed by the change to the sender if there is any.
+     * @param transaction The transaction.
+     * @param change The change returned to the sender, or 0 for none.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeHashData(Transaction transaction, long change, ByteWriter writer) {
+        encodeSignatureData(transaction, writer);
+        writer.writeInt(transaction.getPayments().size() + (change > 0 ? 1 : 0));
+
+        for (Transaction.Payment payment : transaction.getPayments()) {
+            writer.writeHash(payment.getRecipient().getHash());
+            writer.writeLong(payment.getValue());
+        }
+
+        if (change > 0) {
+            writer.writeHash(Address.of(transaction.getSender()).getHash());
+            writer.writeLong(change);
+        }
+    }
+
+    /**
+     * Encodes the fields the ID of the coinbase that mints the supply is computed over: its one recipient and value.
+     * @param coinbase The address the supply is minted to.
+     * @param value The minted value.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeCoinbaseHashData(Address coinbase, long value, ByteWriter writer) {
+        writer.writeHash(coinbase.getHash());
+        writer.writeLong(value);
+    }
+
+    /**
+     * Encodes the fields an output ID is computed over: parent transaction ID and position in it.
+     * @param parentTransactionId The ID of the parent transaction.
+     * @param index The position of the output in its parent transaction.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeOutputHashData(Digest parentTransactionId, int index, ByteWriter writer) {
+        writer.writeHash(parentTransactionId);
+        writer.writeInt(index);
+    }
+
+    /**
+     * Returns the calling thread's encoding buffer, emptied for reuse.
+     * The buffer must not be held across calls that may themselves encode.
+     * @return The reset buffer.
+     */
+    public static ByteWriter writer() {
+        ByteWriter writer = writers.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * Decodes a transaction as it was encoded, without reprocessing it against the UTXO set.
+     * @param reader The reader positioned at an encoded transaction.
+     * @return The decoded transaction.
+     */
+    public static Transaction decodeTransaction(ByteReader reader) {
+        Digest transactionId = reader.readHash();
+        PublicKey sender = decodeKey(reader.readBytes());
+        int paymentCount = reader.readCount(MIN_PAYMENT_SIZE);
+        ArrayList<Transaction.Payment> payments = new ArrayList<>(paymentCount);
+
+        for (int i = 0; i < paymentCount; i++) {
+            payments.add(new Transaction.Payment(new Address(reader.readHash()), reader.readLong()));
+        }
+
+        long fee = reader.readLong();
+        byte[] signature = reader.readBytes();
+
+        int inputCount = reader.readCount(MIN_INPUT_SIZE);
+        ArrayList<TransactionInput> inputs = new ArrayList<>(inputCount);
+
+        for (int i = 0; i < inputCount; i++) {
+            inputs.add(decodeInput(reader));
+        }
+
+        int outputCount = reader.readCount(MIN_OUTPUT_SIZE);
+        ArrayList<TransactionOutput> outputs = new ArrayList<>(outputCount);
+
+        for (int i = 0; i < outputCount; i++) {
+            outputs.add(decodeOutput(reader));
+        }
+
+        return new Transaction(transactionId, sender, payments, fee, signature, inputs, outputs);
+    }
+
+    /**
+     * Encodes a transaction input together with the output it spends.
+     * @param input The input to encode.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeInput(TransactionInput input, ByteWriter writer) {
+        writer.writeHash(input.getTransactionOutputId());
+
+        if (input.getUTXO() == null) {
+            writer.writeByte(0);
+        } else {
+            writer.writeByte(1);
+            encodeOutput(input.getUTXO(), writer);
+        }
+    }
+
+    /**
+     * Decodes a transaction input together with the output it spends.
+     * @param reader The reader positioned at an encoded input.
+     * @return The decoded input.
+     */
+    public static TransactionInput decodeInput(ByteReader reader) {
+        TransactionInput input = new TransactionInput(reader.readHash());
+
+        if (reader.readByte() != 0) {
+            input.setUTXO(decodeOutput(reader));
+        }
+
+        return input;
+    }
+
+    /**
+     * Encodes a transaction output.
+     * @param output The output to encode.
+     * @param writer The writer receiving the encoding.
+     */
+    public static void encodeOutput(TransactionOutput output, ByteWriter writer) {
+        writer.writeHash(output.getId());
+        writer.writeHash(output.getRecipient().getHash());
+        writer.writeLong(output.getValue());
+        writer.writeHash(output.getParentTransactionId());
+    }
+
+    /**
+     * Decodes a transaction output without recomputing its ID.
+     * @param reader The reader positioned at an encoded output.
+     * @return The decoded output.
+     */
+    public static TransactionOutput decodeOutput(ByteReader reader) {
+        Digest id = reader.readHash();
+        Address recipient = new Address(reader.readHash());
+        long value = reader.readLong();
+        Digest parentTransactionId = reader.readHash();
+        return new TransactionOutput(id, recipient, value, parentTransactionId);
+    }
+
+    /**
+     * Decodes an X.509 encoded ECDSA public key through the KeyRegistry's bounded cache of recently decoded keys.
+     * @param encoded The encoded key.
+     * @return The public key.
+     */
+    public static PublicKey decodeKey(byte[] encoded) {
+        return KeyRegistry.getKey(encoded);
+    }
+}
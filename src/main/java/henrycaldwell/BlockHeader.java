@@ -0,0 +1,118 @@
+package henrycaldwell;
+
+import java.math.BigInteger;
+
+/**
+ * Represents the header of a block: everything proof of work commits to, without the transactions.
+ */
+public class BlockHeader {
+
+    private Digest hash; // The hash of the block.
+    private Digest previousBlockHash; // The hash of the previous block.
+    private Digest merkleRoot; // The merkle root of the block's transactions, or null for a block without transactions.
+    private long timestamp; // The time of the blocks creation in miliseconds.
+    private int bits; // The compact target the block hash meets.
+    private int nonce; // The nonce that solved the block.
+
+    /**
+     * Constructs a BlockHeader with the specified fields.
+     * @param hash The hash of the block.
+     * @param previousBlockHash The hash of the previous block.
+     * @param merkleRoot The merkle root of the block's transactions.
+     * @param timestamp The time of the blocks creation in miliseconds.
+     * @param bits The compact target the block hash meets.
+     * @param nonce The nonce that solved the block.
+     */
+    public BlockHeader(Digest hash, Digest previousBlockHash, Digest merkleRoot, long timestamp, int bits, int nonce) {
+        this.hash = hash;
+        this.previousBlockHash = previousBlockHash;
+        this.merkleRoot = merkleRoot;
+        this.timestamp = timestamp;
+        this.bits = bits;
+        this.nonce = nonce;
+    }
+
+    /**
+     * Constructs the BlockHeader of a mined block.
+     * @param block The block.
+     */
+    public BlockHeader(Block block) {
+        this(block.getHash(), block.getPreviousBlockHash(), block.getMerkleRoot(), block.getTimestamp(), block.getBits(), block.getNonce());
+    }
+
+    /**
+     * Recalculates the hash of the header from its fields.
+     * @return The calculated hash.
+     */
+    public Digest calculateHash() {
+        return Digest.of(new HeaderHasher(previousBlockHash, merkleRoot, timestamp, bits).hash(nonce));
+    }
+
+    /**
+     * Returns the expected number of hashes needed to mine a block at the header's target.
+     * @return The work of the block.
+     */
+    public BigInteger getWork() {
+        return Target.getWork(bits);
+    }
+
+    /**
+     * Returns the block hash.
+     * @return The block hash.
+     */
+    public Digest getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the previous block hash.
+     * @return The previous block hash.
+     */
+    public Digest getPreviousBlockHash() {
+        return previousBlockHash;
+    }
+
+    /**
+     * Returns the Merkle root.
+     * @return The Merkle root.
+     */
+    public Digest getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /**
+     * Returns the timestamp.
+     * @return The timestamp.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the compact target.
+     * @return The compact target.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns the nonce.
+     * @return The nonce.
+     */
+    public int getNonce() {
+        return nonce;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockHeader{" +
+                "hash=" + hash +
+                ", previousBlockHash=" + previousBlockHash +
+                ", merkleRoot=" + merkleRoot +
+                ", timestamp=" + timestamp +
+                ", bits=" + Integer.toHexString(bits) +
+                ", nonce=" + nonce +
+                '}';
+    }
+}
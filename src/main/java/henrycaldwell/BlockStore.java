@@ -0,0 +1,269 @@
+package henrycaldwell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only on-disk block store made of segment files and a fixed-width offset index.
+ * Blocks are encoded with BlockCodec and appended to the current segment file, rolling over to a new segment once it is full.
+ * The index file holds one 16-byte entry per block (segment number, offset, length), so a block is located by height in O(1).
+ * Reads go through read-only memory mappings of the segment files.
+ */
+public class BlockStore implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20; // The default maximum size of a segment file in bytes.
+
+    private static final int INDEX_ENTRY_SIZE = 16; // The size of an index entry in bytes.
+
+    private Path directory; // The directory holding the segment and index files.
+    private long segmentSize; // The maximum size of a segment file in bytes.
+    private FileChannel indexChannel; // The channel of the index file.
+    private FileChannel segmentChannel; // The channel of the segment currently appended to.
+    private int segment; // The number of the segment currently appended to.
+    private long segmentLength; // The number of bytes in the segment currently appended to.
+
+    private int size; // The number of stored blocks.
+    private int[] segments = new int[64]; // The segment number of each block, by height.
+    private long[] offsets = new long[64]; // The offset of each block within its segment, by height.
+    private int[] lengths = new int[64]; // The encoded length of each block, by height.
+
+    private HashMap<Integer, MappedByteBuffer> mappings = new HashMap<>(); // The read-only mapping of each segment.
+    private ByteWriter writer = new ByteWriter(); // The reused encoding buffer.
+
+    /**
+     * Opens or creates a block store in a directory with the default segment size.
+     * @param directory The directory holding the store.
+     */
+    public BlockStore(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens or creates a block store in a directory, discarding any partially written trailing block.
+     * @param directory The directory holding the store.
+     * @param segmentSize The maximum size of a segment file in bytes.
+     */
+    public BlockStore(Path directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(directory);
+            indexChannel = FileChannel.open(directory.resolve("blocks.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            loadIndex();
+            segmentChannel = openSegment(segment);
+            segmentChannel.truncate(segmentLength);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Appends a block to the end of the store and forces it to disk.
+     * @param block The block to append.
+     * @return The height of the stored block.
+     */
+    public synchronized int append(Block block) {
+        writer.reset();
+        BlockCodec.encodeBlock(block, writer);
+
+        try {
+            if (segmentLength > 0 && segmentLength + writer.size() > segmentSize) {
+                segmentChannel.close();
+                segment++;
+                segmentLength = 0;
+                segmentChannel = openSegment(segment);
+            }
+
+            long offset = segmentLength;
+            writeFully(segmentChannel, ByteBuffer.wrap(writer.getBuffer(), 0, writer.size()), offset);
+            segmentChannel.force(false);
+            segmentLength += writer.size();
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putInt(segment).putLong(offset).putInt(writer.size()).flip();
+            writeFully(indexChannel, entry, (long) size * INDEX_ENTRY_SIZE);
+            indexChannel.force(false);
+
+            addEntry(segment, offset, writer.size());
+            return size - 1;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the encoded bytes of the block at a height, read through the segment's memory mapping.
+     * @param height The height of the block.
+     * @return A read-only buffer holding the encoded block.
+     */
+    public synchronized ByteBuffer read(int height) {
+        if (height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("No block at height " + height);
+        }
+
+        try {
+            MappedByteBuffer mapping = mappings.get(segments[height]);
+            long end = offsets[height] + lengths[height];
+
+            if (mapping == null || mapping.capacity() < end) {
+                try (FileChannel channel = FileChannel.open(segmentPath(segments[height]), StandardOpenOption.READ)) {
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+
+                mappings.put(segments[height], mapping);
+            }
+
+            return mapping.slice((int) offsets[height], lengths[height]).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the block at a height, decoded without recomputing any hash.
+     * @param height The height of the block.
+     * @return The decoded block.
+     */
+    public Block get(int height) {
+        return BlockCodec.decodeBlock(new ByteReader(read(height)));
+    }
+
+    /**
+     * Returns the header of the block at a height without decoding its transactions.
+     * @param height The height of the block.
+     * @return The decoded header.
+     */
+    public BlockHeader getHeader(int height) {
+        return BlockCodec.decodeHeader(new ByteReader(read(height)));
+    }
+
+    /**
+     * Returns the last stored block.
+     * @return The tip block, or null if the store is empty.
+     */
+    public Block getTip() {
+        int height = size() - 1;
+        return height < 0 ? null : get(height);
+    }
+
+    /**
+     * Returns the number of stored blocks.
+     * @return The number of stored blocks.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the directory holding the store.
+     * @return The store directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            segmentChannel.close();
+            indexChannel.close();
+            mappings.clear();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the index file, keeping only entries whose blocks are fully present in their segments.
+     */
+    private void loadIndex() throws IOException {
+        long entries = indexChannel.size() / INDEX_ENTRY_SIZE;
+        ByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, entries * INDEX_ENTRY_SIZE);
+        HashMap<Integer, Long> segmentSizes = new HashMap<>();
+
+        for (long i = 0; i < entries; i++) {
+            int entrySegment = index.getInt();
+            long offset = index.getLong();
+            int length = index.getInt();
+            Path path = segmentPath(entrySegment);
+            long available = segmentSizes.computeIfAbsent(entrySegment, s -> {
+                try {
+                    return Files.exists(path) ? Files.size(path) : 0L;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            if (offset + length > available) {
+                break;
+            }
+
+            addEntry(entrySegment, offset, length);
+        }
+
+        indexChannel.truncate((long) size * INDEX_ENTRY_SIZE);
+
+        if (size > 0) {
+            segment = segments[size - 1];
+            segmentLength = offsets[size - 1] + lengths[size - 1];
+        }
+    }
+
+    /**
+     * Records an index entry in memory.
+     * @param entrySegment The segment number of the block.
+     * @param offset The offset of the block within the segment.
+     * @param length The encoded length of the block.
+     */
+    private void addEntry(int entrySegment, long offset, int length) {
+        if (size == segments.length) {
+            segments = Arrays.copyOf(segments, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+
+        segments[size] = entrySegment;
+        offsets[size] = offset;
+        lengths[size] = length;
+        size++;
+    }
+
+    /**
+     * Opens a segment file for appending, creating it if needed.
+     * @param number The segment number.
+     * @return The segment's channel.
+     */
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the path of a segment file.
+     * @param number The segment number.
+     * @return The segment path.
+     */
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("blocks-%05d.dat", number));
+    }
+
+    /**
+     * Writes a whole buffer at a position of a channel.
+     * @param channel The channel to write to.
+     * @param buffer The bytes to write.
+     * @param position The file position of the first byte.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package henrycaldwell;
+
+import java.util.HashMap;
+import java.math.BigInteger;
+
+/**
+ * Tree of every accepted block, including blocks on side branches, keyed by hash.
+ * Each node records its parent, height and the cumulative work of the branch ending at it, so the branch with the most
+ * work can be found without walking the chain. The tree is safe for concurrent use.
+ */
+public class BlockTree {
+
+    private HashMap<Digest, Node> nodes = new HashMap<>(); // The known blocks by hash.
+
+    /**
+     * Adds a block to the tree.
+     * @param header The header of the block.
+     * @param parent The node of the previous block, or null for the genesis block.
+     * @param location The position of the block in the block store, or -1 if it is not stored.
+     * @param body The full block to keep in memory until it is stored, or null if it can be loaded from the store.
+     * @return The new node.
+     */
+    public synchronized Node add(BlockHeader header, Node parent, int location, Block body) {
+        Node node = new Node(header, parent, location, body);
+        nodes.put(header.getHash(), node);
+        return node;
+    }
+
+    /**
+     * Returns the node of a block by hash.
+     * @param hash The hash of the block.
+     * @return The node, or null if the block is unknown.
+     */
+    public synchronized Node get(Digest hash) {
+        return nodes.get(hash);
+    }
+
+    /**
+     * Checks if a block is known.
+     * @param hash The hash of the block.
+     * @return True if the block is in the tree, false otherwise.
+     */
+    public synchronized boolean contains(Digest hash) {
+        return nodes.containsKey(hash);
+    }
+
+    /**
+     * Checks if a block is known with a body that may still connect, so it need not be downloaded again.
+     * @param hash The hash of the block.
+     * @return True if the block is in the tree and its body was not discarded, false otherwise.
+     */
+    public synchronized boolean hasBody(Digest hash) {
+        Node node = nodes.get(hash);
+        return node != null && node.hasBody();
+    }
+
+    /**
+     * Returns the number of known blocks.
+     * @return The number of blocks.
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Removes all blocks.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Represents a block in the tree.
+     */
+    public static class Node {
+
+        private BlockHeader header; // The header of the block.
+        private Node parent; // The node of the previous block, or null for the genesis block.
+        private int height; // The number of blocks before this one.
+        private BigInteger cumulativeWork; // The total work of the branch ending at this block.
+        private volatile int location; // The position of the block in the block store, or -1 if it is not stored.
+        private volatile Block body; // The full block kept in memory, or null if it is loaded from the store; set after location.
+        private UTXOBatch undo; // The batch reverting this block's UTXO changes while it is connected, or null.
+        private boolean invalid; // Whether the block breaks a rule its header commits to.
+
+        /**
+         * Constructs a Node below a parent.
+         * @param header The header of the block.
+         * @param parent The node of the previous block, or null for the genesis block.
+         * @param location The position of the block in the block store, or -1 if it is not stored.
+         * @param body The full block to keep in memory, or null.
+         */
+        private Node(BlockHeader header, Node parent, int location, Block body) {
+            this.header = header;
+            this.parent = parent;
+            this.height = parent == null ? 0 : parent.height + 1;
+            this.cumulativeWork = parent == null ? header.getWork() : parent.cumulativeWork.add(header.getWork());
+            this.location = location;
+            this.body = body;
+        }
+
+        /**
+         * Returns the header of the block.
+         * @return The header.
+         */
+        public BlockHeader getHeader() {
+            return header;
+        }
+
+        /**
+         * Returns the hash of the block.
+         * @return The block hash.
+         */
+        public Digest getHash() {
+            return header.getHash();
+        }
+
+        /**
+         * Returns the node of the previous block.
+         * @return The parent node, or null for the genesis block.
+         */
+        public Node getParent() {
+            return parent;
+        }
+
+        /**
+         * Returns the height of the block.
+         * @return The height.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns the total work of the branch ending at this block.
+         * @return The cumulative work.
+         */
+        public BigInteger getCumulativeWork() {
+            return cumulativeWork;
+        }
+
+        /**
+         * Returns the position of the block in the block store.
+         * @return The store position, or -1 if the block is not stored.
+         */
+        public int getLocation() {
+            return location;
+        }
+
+        /**
+         * Records that the block was appended to the block store, releasing its in-memory body.
+         * @param location The position of the block in the block store.
+         */
+        public void setStored(int location) {
+            this.location = location;
+            this.body = null;
+        }
+
+        /**
+         * Returns the full block kept in memory.
+         * @return The block, or null if it is loaded from the store.
+         */
+        public Block getBody() {
+            return body;
+        }
+
+        /**
+         * Checks if the block's body is held in memory or in the block store.
+         * @return True if the body can be loaded, false if it was discarded.
+         */
+        public boolean hasBody() {
+            return body != null || location >= 0;
+        }
+
+        /**
+         * Sets the body of a block whose body was discarded.
+         * @param body The full block.
+         */
+        public void setBody(Block body) {
+            this.body = body;
+        }
+
+        /**
+         * Discards a body that does not match the block's header, keeping the header so another body can be accepted.
+         */
+        public void discardBody() {
+            this.body = null;
+        }
+
+        /**
+         * Returns the batch reverting this block's UTXO changes.
+         * @return The undo batch, or null if the block is not connected or its undo batch was pruned.
+         */
+        public UTXOBatch getUndo() {
+            return undo;
+        }
+
+        /**
+         * Sets the batch reverting this block's UTXO changes.
+         * @param undo The undo batch, or null to drop it.
+         */
+        public void setUndo(UTXOBatch undo) {
+            this.undo = undo;
+        }
+
+        /**
+         * Checks if connecting the block failed on data its header commits to, so no body can make it valid.
+         * @return True if the block is invalid, false otherwise.
+         */
+        public boolean isInvalid() {
+            return invalid;
+        }
+
+        /**
+         * Marks the block as invalid.
+         */
+        public void markInvalid() {
+            this.invalid = true;
+        }
+
+        @Override
+        public String toString() {
+            return "Node{" +
+                    "hash=" + header.getHash() +
+                    ", height=" + height +
+                    ", cumulativeWork=" + cumulativeWork +
+                    ", location=" + location +
+                    '}';
+        }
+    }
+}
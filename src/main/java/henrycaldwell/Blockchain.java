@@ -1,173 +1,921 @@
 package henrycaldwell;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.security.Security;
 
 /**
  * Represents a blockchain consisting of blocks.
+ * Each instance holds its own chain, block tree, UTXO set and mempool, so several nodes can run in one JVM.
+ * The consensus parameters, the signature cache and the miner are shared by every instance.
+ * Chain state is only changed while holding the instance's lock.
  */
 public class Blockchain {
 
-    public static ArrayList<Block> blockchain = new ArrayList<Block>(); // The list of blocks in the blockchain.
-    public static HashMap<String, TransactionOutput> UTXOs = new HashMap<String, TransactionOutput>(); // The list of all unspent transaction outputs (UTXOs).
+    public static final long COIN = 100000000L; // The number of base units in one coin.
 
-    public static double minimumTransaction = 0.01; // The minimum transaction value.
-    public static double feeRate = 0.0001; // Fee rate in satoshis per byte
-    public static int difficulty = 5; // The difficulty level for mining new blocks.
-    public static Transaction genesisTransaction; // The genesis transaction, which acts as the initialize total currency.
-    public static Block genesisBlock; // The genesis block, which initializes the blockchain.
+    public static long minimumTransaction = COIN / 100; // The minimum transaction value in base units.
+    public static long feeRate = 10000; // Fee rate in base units per byte.
+    public static int genesisBits = Target.fromLeadingZeroBits(20); // The compact target of the genesis block, five leading hexadecimal zeroes.
+    public static int powLimitBits = Target.fromLeadingZeroBits(8); // The compact target of the easiest difficulty retargeting may reach.
+    public static int retargetInterval = 10; // The number of blocks between difficulty retargets, at least 1.
+    public static long targetBlockTime = 10000; // The desired time between blocks in miliseconds.
+    public static long maxFutureDrift = 2 * 60 * 60 * 1000; // How far past the local clock a block timestamp may be, in miliseconds.
+    public static SignatureVerifier signatureVerifier = new SignatureVerifier(100000); // The batch signature verifier, caching verified transactions.
+    public static Miner miner = new Miner(Runtime.getRuntime().availableProcessors()); // The proof-of-work engine used to mine new blocks, shared by every chain so concurrent mining is serialized.
+    public static int snapshotInterval = 100; // The number of blocks between UTXO snapshots written to the block store directory.
+    public static int snapshotsKept = 2; // The number of latest UTXO snapshots kept on disk.
+    public static int utxoCacheSize = 100000; // The number of hot UTXOs kept on the heap when the UTXO set is off-heap.
+    public static int undoDepth = 100; // The number of most recent blocks whose undo batches are kept, bounding the reorganization depth.
+
+    public static final long GENESIS_SUPPLY = 1000000 * COIN; // The total currency, minted to the coinbase of the genesis block.
+    public static final int MEDIAN_TIME_SPAN = 11; // The number of previous blocks whose median timestamp a block must exceed.
+
+    private static final String SIGNATURE_ERROR = "BLC004"; // The code of the only block rule on data the header does not commit to.
+    private static final int VERIFY_WINDOW = 256; // The number of blocks whose bodies are held at once while verifying.
+    private static final Metrics.Histogram applyTime = Metrics.histogram("block_apply_nanos"); // The time to check and connect each block.
+
+    private ChainIndex chainIndex = new ChainIndex(); // The headers of the blocks in the active chain, indexed by height and hash.
+    private BlockTree blockTree = new BlockTree(); // Every accepted block, including side branches.
+    private UTXOSet UTXOs = new UTXOSet(); // The set of all unspent transaction outputs (UTXOs), indexed by recipient.
+    private Mempool mempool = new Mempool(this); // The pool of pending transactions.
+    private Transaction genesisTransaction; // The genesis transaction, which acts as the initialize total currency.
+    private Block genesisBlock; // The genesis block, which initializes the blockchain.
+    private BlockStore blockStore; // The on-disk block store, or null to keep the blockchain in memory only.
+
+    /**
+     * Registers this blockchain's height, UTXO set size and mempool size as gauges, with the miner's hash rate.
+     * Gauges of an instance registered earlier are replaced.
+     */
+    public void registerGauges() {
+        Metrics.gauge("chain_height", () -> chainIndex.size() - 1);
+        Metrics.gauge("utxo_set_size", () -> UTXOs.size());
+        Metrics.gauge("mempool_size", () -> mempool.size());
+        Metrics.gauge("mining_hash_rate", () -> miner.getHashRate());
+    }
 
     /**
      * Adds a new block to the blockchain after having it mined.
+     * The target is read under the lock, but the block is mined without holding it, so blocks from peers are still
+     * accepted meanwhile. If the parent stopped being the tip, the mined block joins a side branch.
      * @param newBlock The new block to be added.
+     * @return True if the block was accepted, false otherwise.
      */
-    public static void addBlock(Block newBlock) {
-        newBlock.mineBlock(difficulty);
-        blockchain.add(newBlock);
+    public boolean addBlock(Block newBlock) {
+        int bits;
+        long medianTimePast;
+
+        synchronized (this) {
+            BlockTree.Node parent = blockTree.get(newBlock.getPreviousBlockHash());
+            bits = getNextBits(parent);
+            medianTimePast = getMedianTimePast(parent);
+        }
+
+        newBlock.mineBlock(bits, medianTimePast + 1);
+        return acceptBlock(newBlock);
     }
 
     /**
-     * Verifies the entire blockchain, ensuring all blocks and transactions are valid.
-     * @return True if the blockchain is verified, false otherwise.
+     * Creates, mines and accepts the genesis block of an empty chain.
+     * The whole supply is minted to the coinbase wallet as an output no transaction created, and the genesis
+     * transaction spends it, paying a recipient and returning the rest to the coinbase as change.
+     * @param coinbase The wallet the supply is minted to.
+     * @param recipient The address paid by the genesis transaction.
+     * @param value The value paid in base units.
+     * @return The genesis block.
      */
-    public static Boolean verifyBlockchain() {
-        Block currentBlock;
-        Block previousBlock;
-        String hashTarget = new String(new char[difficulty]).replace('\0', '0');
-        HashMap<String, TransactionOutput> tempUTXOs = new HashMap<String, TransactionOutput>();
-        tempUTXOs.put(genesisTransaction.getOutputs().get(0).getId(), genesisTransaction.getOutputs().get(0));
-
-        // Loop through the blockchain to check hashes and transactions.
-        for (int i = 1; i < blockchain.size(); i++) {
-            currentBlock = blockchain.get(i);
-            previousBlock = blockchain.get(i - 1);
-
-            // Check if current block hash is correct.
-            if (!currentBlock.getHash().equals(currentBlock.calculateHash())) {
-                System.out.println(StringUtil.formatText("BLC001: Invalid Current Block Hash - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                return false;
+    public Block mineGenesis(Wallet coinbase, Address recipient, long value) {
+        TransactionOutput genesisUTXO = mint(coinbase.getAddress());
+        UTXOs.put(genesisUTXO.getId(), genesisUTXO);
+        Block block = new Block(Digest.ZERO);
+        block.addTransaction(coinbase.sendFunds(recipient, value));
+        addBlock(block);
+        return block;
+    }
+
+    /**
+     * Returns the output minting the whole supply to a coinbase address, which the genesis transaction spends.
+     * No transaction creates it, so a node syncing the genesis block rebuilds it from the genesis sender.
+     * Its parent is the coinbase, whose ID is the hash of its one recipient and value, so each coinbase address mints
+     * an output with its own ID.
+     * @param coinbase The address the supply is minted to.
+     * @return The minted output.
+     */
+    public static TransactionOutput mint(Address coinbase) {
+        ByteWriter data = BlockCodec.writer();
+        BlockCodec.encodeCoinbaseHashData(coinbase, GENESIS_SUPPLY, data);
+        Digest coinbaseId = SecurityUtil.hash(data.getBuffer(), 0, data.size());
+        return new TransactionOutput(coinbase, GENESIS_SUPPLY, coinbaseId, 0);
+    }
+
+    /**
+     * Returns the compact target a block built on a parent must meet.
+     * Every retargetInterval blocks the target is scaled by the measured time of the last interval over the expected time,
+     * clamped to a factor of four either way so a burst of odd timestamps cannot swing the difficulty too far.
+     * Between retargets the parent's target carries over.
+     * @param parent The node of the previous block, or null for the genesis block.
+     * @return The compact target.
+     */
+    public static int getNextBits(BlockTree.Node parent) {
+        if (parent == null) {
+            return genesisBits;
+        }
+
+        int bits = parent.getHeader().getBits();
+        int height = parent.getHeight() + 1;
+
+        if (height % retargetInterval != 0) {
+            return bits;
+        }
+
+        BlockTree.Node first = parent;
+
+        for (int i = 0; i < retargetInterval && first.getParent() != null; i++) {
+            first = first.getParent();
+        }
+
+        return retarget(parent.getHeader(), parent.getHeight(), first.getHeader(), first.getHeight());
+    }
+
+    /**
+     * Returns the compact target of a block at a retarget height, from its parent and the block retargetInterval before it.
+     * The parent's target is scaled by the measured time between the two blocks over the expected time, clamped to a
+     * factor of four either way and to powLimitBits.
+     * @param parent The header of the previous block.
+     * @param parentHeight The height of the previous block.
+     * @param first The header of the first block of the interval.
+     * @param firstHeight The height of the first block of the interval.
+     * @return The compact target, or the parent's if the interval is empty, as at height 1 with a retargetInterval of 1.
+     */
+    public static int retarget(BlockHeader parent, int parentHeight, BlockHeader first, int firstHeight) {
+        long expected = (parentHeight - firstHeight) * targetBlockTime;
+
+        if (expected <= 0) {
+            return parent.getBits();
+        }
+
+        long actual = parent.getTimestamp() - first.getTimestamp();
+        actual = Math.max(expected / 4, Math.min(expected * 4, actual));
+
+        BigInteger target = Target.decode(parent.getBits()).multiply(BigInteger.valueOf(actual)).divide(BigInteger.valueOf(expected));
+        BigInteger limit = Target.decode(powLimitBits);
+        return Target.encode(target.min(limit));
+    }
+
+    /**
+     * Returns the median timestamp of a block and the blocks before it, up to MEDIAN_TIME_SPAN blocks.
+     * @param parent The node of the previous block, or null for the genesis block.
+     * @return The median timestamp, or Long.MIN_VALUE for the genesis block.
+     */
+    public static long getMedianTimePast(BlockTree.Node parent) {
+        long[] timestamps = new long[MEDIAN_TIME_SPAN];
+        int count = 0;
+
+        for (BlockTree.Node node = parent; node != null && count < MEDIAN_TIME_SPAN; node = node.getParent()) {
+            timestamps[count++] = node.getHeader().getTimestamp();
+        }
+
+        return median(timestamps, count);
+    }
+
+    /**
+     * Returns the median of the first timestamps of an array.
+     * @param timestamps The timestamps, which are reordered.
+     * @param count The number of timestamps.
+     * @return The median, or Long.MIN_VALUE if there are none.
+     */
+    public static long median(long[] timestamps, int count) {
+        if (count == 0) {
+            return Long.MIN_VALUE;
+        }
+
+        Arrays.sort(timestamps, 0, count);
+        return timestamps[count / 2];
+    }
+
+    /**
+     * Checks a header timestamp against the median timestamp of the blocks before it and the local clock.
+     * Miners choose the timestamps that retargeting measures, so without both bounds they could report slow intervals
+     * and lower the difficulty fourfold every interval.
+     * @param timestamp The header's timestamp.
+     * @param medianTimePast The median timestamp of the previous MEDIAN_TIME_SPAN blocks.
+     * @return True if the timestamp is after the median and at most maxFutureDrift ahead of now, false otherwise.
+     */
+    public static boolean isTimestampValid(long timestamp, long medianTimePast) {
+        return timestamp > medianTimePast && timestamp <= System.currentTimeMillis() + maxFutureDrift;
+    }
+
+    /**
+     * Accepts a mined block into the block tree, on the active chain or on a side branch.
+     * If the block's branch then has more cumulative work than the active chain, the active chain switches to it.
+     * A body that does not match its header's Merkle root or transaction IDs is rejected without recording the header.
+     * A known block whose body was discarded, because it failed only on signatures, accepts a new body.
+     * @param block The mined block.
+     * @return True if the block was accepted, false otherwise.
+     */
+    public synchronized boolean acceptBlock(Block block) {
+        BlockTree.Node known = blockTree.get(block.getHash());
+
+        if (known != null && (known.hasBody() || known.isInvalid())) {
+            EventLog.error("CHN001: Duplicate Block - Block Ignored");
+            return false;
+        }
+
+        if ((known != null && !Objects.equals(block.getMerkleRoot(), known.getHeader().getMerkleRoot())) || !SyncPipeline.isWellFormed(block)) {
+            EventLog.error("CHN007: Block Body Does Not Match Header - Body Discarded");
+            return false;
+        }
+
+        // A block whose earlier body was discarded gets this one and becomes a candidate tip again.
+        if (known != null) {
+            known.setBody(block);
+            BlockTree.Node tip = chainIndex.getTipNode();
+
+            if (tip == null || known.getCumulativeWork().compareTo(tip.getCumulativeWork()) > 0) {
+                return reorganize(known);
             }
 
-            // Check if previous block hash is correct.
-            if (!previousBlock.getHash().equals(currentBlock.getPreviousBlockHash())) {
-                System.out.println(StringUtil.formatText("BLC002: Invalid Previous Block Hash - Blockchain Failed to Verify", StringUtil.ANSI_RED));
+            return true;
+        }
+
+        BlockTree.Node parent = blockTree.get(block.getPreviousBlockHash());
+
+        if ((parent == null && blockTree.size() > 0) || (parent != null && parent.isInvalid())) {
+            EventLog.error("CHN002: Unknown or Invalid Previous Block - Block Rejected");
+            return false;
+        }
+
+        BlockHeader header = new BlockHeader(block);
+
+        if (header.getBits() != getNextBits(parent) || !header.getHash().equals(header.calculateHash()) || !Target.meets(header.getHash(), header.getBits())) {
+            EventLog.error("CHN003: Invalid Block Header - Block Rejected");
+            return false;
+        }
+
+        if (!isTimestampValid(header.getTimestamp(), getMedianTimePast(parent))) {
+            EventLog.error("CHN006: Invalid Block Timestamp - Block Rejected");
+            return false;
+        }
+
+        BlockTree.Node node = blockTree.add(header, parent, -1, block);
+        BlockTree.Node tip = chainIndex.getTipNode();
+
+        if (tip == null || node.getCumulativeWork().compareTo(tip.getCumulativeWork()) > 0) {
+            return reorganize(node);
+        }
+
+        return true;
+    }
+
+    /**
+     * Switches the active chain to the branch ending at a node.
+     * Blocks above the fork point are disconnected with their undo batches and the new branch is connected in order,
+     * so the cost is proportional to the depth of the reorganization. If a block of the new branch fails to connect,
+     * the previous active chain is restored.
+     * @param newTip The node of the new tip.
+     * @return True if the new branch became active, false otherwise.
+     */
+    private boolean reorganize(BlockTree.Node newTip) {
+        ArrayList<BlockTree.Node> branch = new ArrayList<>();
+        BlockTree.Node fork = newTip;
+
+        while (fork != null && !chainIndex.contains(fork)) {
+            branch.add(fork);
+            fork = fork.getParent();
+        }
+
+        Collections.reverse(branch);
+        int forkHeight = fork == null ? -1 : fork.getHeight();
+
+        for (int height = chainIndex.size() - 1; height > forkHeight; height--) {
+            if (chainIndex.getNode(height).getUndo() == null) {
+                EventLog.error("CHN004: Fork Deeper Than Undo History - Reorganization Aborted");
                 return false;
             }
+        }
+
+        ArrayList<BlockTree.Node> disconnected = new ArrayList<>();
+
+        while (chainIndex.size() - 1 > forkHeight) {
+            BlockTree.Node node = chainIndex.getTipNode();
+            disconnectBlock(node);
+            disconnected.add(node);
+        }
+
+        for (BlockTree.Node node : branch) {
+            if (!connectBlock(node)) {
+                EventLog.error("CHN005: Invalid Block on Branch - Reorganization Aborted");
+
+                while (chainIndex.size() - 1 > forkHeight) {
+                    disconnectBlock(chainIndex.getTipNode());
+                }
+
+                for (int i = disconnected.size() - 1; i >= 0; i--) {
+                    connectBlock(disconnected.get(i));
+                }
 
-            // Check if hash is solved.
-            if (!currentBlock.getHash().substring(0, difficulty).equals(hashTarget)) {
-                System.out.println(StringUtil.formatText("BLC003: Block Not Mined - Blockchain Failed to Verify", StringUtil.ANSI_RED));
                 return false;
             }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks a block against the UTXO set and makes it the new tip, keeping its undo batch.
+     * A block connected for the first time is appended to the block store if one is open.
+     * A block breaking a rule on data its header commits to is marked invalid for good. Signatures are the one part of
+     * a body the header does not commit to, since transaction IDs leave them out, so a block failing only a signature
+     * check has its body discarded instead and may connect later with another body.
+     * @param node The node of the block, whose parent must be the current tip.
+     * @return True if the block was connected, false if it is invalid or has no body.
+     */
+    private boolean connectBlock(BlockTree.Node node) {
+        if (node.isInvalid() || !node.hasBody()) {
+            return false;
+        }
+
+        Block block = loadBlock(node);
+        long start = System.nanoTime();
+        String error = checkBlock(block);
+
+        if (error != null) {
+            if (error.startsWith(SIGNATURE_ERROR)) {
+                node.discardBody();
+                EventLog.error("CHN007: Block Body Does Not Match Header - Body Discarded");
+            } else {
+                node.markInvalid();
+            }
+
+            return false;
+        }
+
+        node.setUndo(UTXOs.apply(new UTXOBatch(block)));
+        int height = chainIndex.add(node);
+        mempool.removeConfirmed(block);
+
+        if (height == 0) {
+            genesisBlock = block;
+            genesisTransaction = block.getTransactions().isEmpty() ? null : block.getTransactions().get(0);
+        }
+        applyTime.recordSince(start);
+
+        if (height >= undoDepth) {
+            chainIndex.getNode(height - undoDepth).setUndo(null);
+        }
+
+        if (blockStore != null) {
+            if (node.getLocation() < 0) {
+                node.setStored(blockStore.append(block));
+            }
+
+            if ((height + 1) % snapshotInterval == 0) {
+                UTXOSnapshot.write(blockStore.getDirectory(), block.getHash(), height, UTXOs.values());
+                UTXOSnapshot.prune(blockStore.getDirectory(), snapshotsKept);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the tip from the active chain, reverting its UTXO changes with its undo batch.
+     * Pending transactions spending the block's outputs are evicted, as those outputs no longer exist.
+     * @param node The node of the tip.
+     */
+    private void disconnectBlock(BlockTree.Node node) {
+        mempool.removeDependents(loadBlock(node));
+        UTXOs.apply(node.getUndo());
+        node.setUndo(null);
+        chainIndex.truncate(node.getHeight() - 1);
+    }
+
+    /**
+     * Checks that a block's transactions follow the rules of findTransactionError against the current UTXO set.
+     * @param block The block to check.
+     * @return The logged error code and message of the failed check, or null if the block can be connected to the current tip.
+     */
+    private String checkBlock(Block block) {
+        ChainEvents.BlockVerified event = new ChainEvents.BlockVerified();
+        event.begin();
+        String error = findBlockError(block);
+
+        if (error != null) {
+            rejectBlock(event, block, error);
+            return error;
+        }
+
+        event.end();
+        commitVerified(event, block, null);
+        return null;
+    }
+
+    /**
+     * Finds the first transaction check a block fails against the current UTXO set.
+     * Outputs created by the block cannot be spent within it, as the block is applied as one batch.
+     * @param block The block to check.
+     * @return The error code and message of the failed check, or null if the block can be connected.
+     */
+    private String findBlockError(Block block) {
+        boolean[] validSignatures = signatureVerifier.verifyBatch(block.getTransactions());
+        HashSet<Digest> spent = new HashSet<>();
+        HashSet<Digest> created = new HashSet<>();
+
+        for (int i = 0; i < block.getTransactions().size(); i++) {
+            String error = findTransactionError(block.getTransactions().get(i), validSignatures[i], UTXOs::get, spent, created);
+
+            if (error != null) {
+                return error;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the first rule a transaction of a block breaks.
+     * connectBlock, verifyBlockchain and the Mempool check transactions here, so accepting a block, verifying the chain
+     * and admitting a pending transaction cannot disagree on what is valid. Inputs must spend distinct unspent outputs owned by the sender, with the values
+     * they claim; outputs must be positive, pay the payments in order, return at most one change output to the sender
+     * and have IDs no other unspent output has.
+     * @param transaction The transaction to check.
+     * @param validSignature True if the transaction's signature was verified.
+     * @param unspent Looks up an output unspent before the block by ID, returning null if there is none.
+     * @param spent The IDs of the outputs spent earlier in the block, to which the transaction's inputs are added.
+     * @param created The IDs of the outputs created earlier in the block, to which the transaction's outputs are added.
+     * @return The error code and message of the failed check, or null if the transaction is valid.
+     */
+    public static String findTransactionError(Transaction transaction, boolean validSignature, Function<Digest, TransactionOutput> unspent, Set<Digest> spent, Set<Digest> created) {
+        // Check if the transaction's signature is valid.
+        if (!validSignature) {
+            return "BLC004: Invalid Transaction Signature in Transaction - Blockchain Failed to Verify";
+        }
+
+        // Check if inputs' value equals the sum of the transaction's outputs and fee.
+        if (!isBalanced(transaction)) {
+            return "BLC005: Mismatched Transaction Inputs and Outputs in Transaction - Blockchain Failed to Verify";
+        }
+
+        for (TransactionInput input : transaction.getInputs()) {
+            TransactionOutput output = unspent.apply(input.getTransactionOutputId());
+
+            // Check if the referenced output exists and is not spent twice.
+            if (output == null || !spent.add(output.getId())) {
+                return "BLC006: Missing Referenced Output in Transaction Input - Blockchain Failed to Verify";
+            }
+
+            // Check if the input's value matches the referenced output's value.
+            if (input.getUTXO() == null || input.getUTXO().getValue() != output.getValue()) {
+                return "BLC007: Invalid Value for Referenced Input in Transaction Input - Blockchain Failed to Verify";
+            }
+
+            // Check if the referenced output is paid to the sender.
+            if (!output.getRecipient().matches(transaction.getSender())) {
+                return "BLC011: Referenced Output Not Owned by Sender in Transaction Input - Blockchain Failed to Verify";
+            }
+        }
+
+        List<Transaction.Payment> payments = transaction.getPayments();
+        List<TransactionOutput> outputs = transaction.getOutputs();
+
+        // Check if each payment has a matching output, in order.
+        for (int k = 0; k < payments.size(); k++) {
+            if (k >= outputs.size() || !outputs.get(k).getRecipient().equals(payments.get(k).getRecipient()) || outputs.get(k).getValue() != payments.get(k).getValue()) {
+                return "BLC008: Incorrect Output Recipient in Transaction - Blockchain Failed to Verify";
+            }
+        }
+
+        // Check if the only output after the payments is the 'change' returned to the sender, carrying value.
+        if (outputs.size() > payments.size() + 1 || (outputs.size() > payments.size() && (!outputs.get(payments.size()).getRecipient().matches(transaction.getSender()) || outputs.get(payments.size()).getValue() <= 0))) {
+            return "BLC009: Incorrect Change Output in Transaction - Blockchain Failed to Verify";
+        }
+
+        // Check if every output carries value, so no negative output can offset an inflated one.
+        for (TransactionOutput output : outputs) {
+            if (output.getValue() <= 0) {
+                return "BLC012: Non-Positive Output Value in Transaction - Blockchain Failed to Verify";
+            }
+
+            // Check if the output's ID is new, so applying the block cannot overwrite another output.
+            if (unspent.apply(output.getId()) != null || !created.add(output.getId())) {
+                return "BLC013: Duplicate Output ID in Transaction - Blockchain Failed to Verify";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fills in and commits a BlockVerified event if a recording is taking it.
+     * @param event The ended event.
+     * @param block The verified block.
+     * @param error The error code of the failed check, or null if the block passed.
+     */
+    private static void commitVerified(ChainEvents.BlockVerified event, Block block, String error) {
+        if (event.shouldCommit()) {
+            event.hash = block.getHash().toHex();
+            event.transactions = block.getTransactions().size();
+            event.valid = error == null;
+            event.error = error;
+            event.commit();
+        }
+    }
+
+    /**
+     * Logs the error that failed a block during chain verification and records it on the block's event.
+     * @param event The started event of the block.
+     * @param block The failed block.
+     * @param error The error code and message.
+     * @return False, so callers can return the result directly.
+     */
+    private static boolean rejectBlock(ChainEvents.BlockVerified event, Block block, String error) {
+        event.end();
+        commitVerified(event, block, error.substring(0, error.indexOf(':')));
+        EventLog.error(error);
+        return false;
+    }
+
+    /**
+     * Returns the block of a node, loading its body from the block store if it is not held in memory.
+     * @param node The node of the block.
+     * @return The block.
+     */
+    private Block loadBlock(BlockTree.Node node) {
+        return node.getBody() != null ? node.getBody() : blockStore.get(node.getLocation());
+    }
+
+    /**
+     * Returns the active block at a height, loading its body from the block store if it is not held in memory.
+     * @param height The height of the block.
+     * @return The block.
+     */
+    public synchronized Block getBlock(int height) {
+        return loadBlock(chainIndex.getNode(height));
+    }
+
+    /**
+     * Returns an active block by hash, loading its body from the block store if it is not held in memory.
+     * @param hash The hash of the block.
+     * @return The block, or null if it is not in the active chain.
+     */
+    public synchronized Block getBlock(Digest hash) {
+        int height = chainIndex.getHeight(hash);
+        return height < 0 ? null : getBlock(height);
+    }
+
+    /**
+     * Opens a block store and loads the block tree, the active chain and the UTXO set from it.
+     * Only block headers are indexed, and the stored branch with the most work becomes the active chain.
+     * Bodies are decoded, with their hashes and transaction IDs as written, just for the replay.
+     * The UTXO set is moved off-heap into memory-mapped files under the directory, starts from the latest valid snapshot
+     * and only the blocks after it are replayed.
+     * @param directory The directory holding the block store.
+     */
+    public synchronized void open(Path directory) {
+        blockStore = new BlockStore(directory);
+        blockTree.clear();
+        chainIndex.clear();
+        UTXOs = new UTXOSet(new OffHeapUTXOStore(directory.resolve("utxo"), 1 << 16), utxoCacheSize);
+        BlockTree.Node best = null;
+
+        for (int location = 0; location < blockStore.size(); location++) {
+            BlockHeader header = blockStore.getHeader(location);
+            BlockTree.Node parent = blockTree.get(header.getPreviousBlockHash());
+
+            if (parent == null && blockTree.size() > 0) {
+                continue; // Blocks are stored after their parents, so an unknown parent means the block belongs to no branch.
+            }
+
+            BlockTree.Node node = blockTree.add(header, parent, location, null);
+
+            if (best == null || node.getCumulativeWork().compareTo(best.getCumulativeWork()) > 0) {
+                best = node;
+            }
+        }
+
+        ArrayList<BlockTree.Node> active = new ArrayList<>();
+
+        for (BlockTree.Node node = best; node != null; node = node.getParent()) {
+            active.add(node);
+        }
+
+        Collections.reverse(active);
+
+        for (BlockTree.Node node : active) {
+            chainIndex.add(node);
+        }
+
+        UTXOSnapshot snapshot = loadSnapshot(directory);
+        int replayFrom = 0;
+
+        if (snapshot != null) {
+            UTXOBatch batch = new UTXOBatch();
+
+            for (TransactionOutput output : snapshot.getOutputs()) {
+                batch.create(output);
+            }
+
+            UTXOs.apply(batch);
+            replayFrom = snapshot.getHeight() + 1;
+        }
+
+        for (int height = replayFrom; height < chainIndex.size(); height++) {
+            BlockTree.Node node = chainIndex.getNode(height);
+            UTXOBatch undo = UTXOs.apply(new UTXOBatch(loadBlock(node)));
+
+            if (height >= chainIndex.size() - undoDepth) {
+                node.setUndo(undo);
+            }
+        }
+
+        if (!chainIndex.isEmpty()) {
+            genesisBlock = getBlock(0);
+            genesisTransaction = genesisBlock.getTransactions().get(0);
+        }
+    }
+
+    /**
+     * Finds the latest UTXO snapshot that is intact and taken at a block of the loaded blockchain.
+     * @param directory The directory holding the snapshots.
+     * @return The snapshot, or null if there is no usable snapshot.
+     */
+    private UTXOSnapshot loadSnapshot(Path directory) {
+        for (Path file : UTXOSnapshot.list(directory)) {
+            UTXOSnapshot snapshot = UTXOSnapshot.read(file);
+
+            if (snapshot == null) {
+                EventLog.error("SNP001: Corrupt UTXO Snapshot - Snapshot Ignored");
+                continue;
+            }
+
+            if (snapshot.getHeight() >= chainIndex.size() || !chainIndex.getHeader(snapshot.getHeight()).getHash().equals(snapshot.getBlockHash())) {
+                EventLog.error("SNP002: UTXO Snapshot Does Not Match Stored Blockchain - Snapshot Ignored");
+                continue;
+            }
+
+            return snapshot;
+        }
+
+        return null;
+    }
+
+    /**
+     * Verifies the entire blockchain, ensuring all blocks and transactions are valid.
+     * Blocks are verified in windows so that only one window of bodies is held in memory, loaded lazily from the block store.
+     * Within a window, headers and transaction signatures do not depend on each other, so blocks are checked in parallel
+     * first, each block's signatures sequentially on its worker. The UTXO replay is then walked in chain order, reporting
+     * the first error exactly as a sequential pass would.
+     * The active chain is copied under the lock and verified outside it, so accepting blocks and syncing continue meanwhile.
+     * @return True if the blockchain is verified, false otherwise.
+     */
+    public Boolean verifyBlockchain() {
+        BlockTree.Node[] nodes;
+        Transaction genesis;
+
+        synchronized (this) {
+            nodes = new BlockTree.Node[chainIndex.size()];
+
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = chainIndex.getNode(i);
+            }
+
+            genesis = genesisTransaction;
+        }
+
+        if (nodes.length == 0 || genesis == null) {
+            EventLog.info("Blockchain Verified Successfully");
+            return true;
+        }
+
+        DigestMap<TransactionOutput> tempUTXOs = new DigestMap<TransactionOutput>();
+
+        for (TransactionOutput output : genesis.getOutputs()) {
+            tempUTXOs.put(output.getId(), output);
+        }
+
+        for (int start = 1; start < nodes.length; start += VERIFY_WINDOW) {
+            final int windowStart = start;
+            int end = Math.min(start + VERIFY_WINDOW, nodes.length);
+            Block[] blocks = new Block[end - start];
+            String[] blockErrors = new String[end - start];
+            boolean[][] validSignatures = new boolean[end - start][];
+
+            // Check the window's headers and transaction signatures in parallel, one block per task.
+            IntStream.range(start, end).parallel().forEach(i -> {
+                blockErrors[i - windowStart] = verifyBlockHeader(nodes[i].getHeader(), nodes[i - 1]);
+                blocks[i - windowStart] = loadBlock(nodes[i]);
+                List<Transaction> transactions = blocks[i - windowStart].getTransactions();
+                boolean[] valid = new boolean[transactions.size()];
 
-            // Loop through block's transactions to check their validity.
-            for (Transaction currentTransaction : currentBlock.getTransactions()) {
-                // Check if the transaction's signature is valid.
-                if (!currentTransaction.verifySignature()) {
-                    System.out.println(StringUtil.formatText("BLC004: Invalid Transaction Signature in Transaction - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                    return false;
+                for (int j = 0; j < valid.length; j++) {
+                    valid[j] = signatureVerifier.verify(transactions.get(j));
                 }
 
-                // Check if inputs' value equals the sum of the transaction's value and fee.
-                if (currentTransaction.getInputsValue() != currentTransaction.getOutputsValue() + currentTransaction.getFee()) {
-                    System.out.println(StringUtil.formatText("BLC005: Mismatched Transaction Inputs and Outputs in Transaction - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                    return false;
+                validSignatures[i - windowStart] = valid;
+            });
+
+            // Loop through the window to check hashes and transactions.
+            for (int i = start; i < end; i++) {
+                Block currentBlock = blocks[i - start];
+                ChainEvents.BlockVerified event = new ChainEvents.BlockVerified();
+                event.begin();
+
+                // Check if the block's hashes are correct and solved.
+                if (blockErrors[i - start] != null) {
+                    return rejectBlock(event, currentBlock, blockErrors[i - start]);
                 }
 
-                // Loop through transaction inputs to verify them.
-                for (TransactionInput input : currentTransaction.getInputs()) {
-                    TransactionOutput tempOutput = tempUTXOs.get(input.getTransactionOutputId());
+                HashSet<Digest> spent = new HashSet<>();
+                HashSet<Digest> created = new HashSet<>();
 
-                    // Check if the referenced output exists.
-                    if (tempOutput == null) {
-                        System.out.println(StringUtil.formatText("BLC006: Missing Referenced Output in Transaction Input - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                        return false;
-                    }
+                // Loop through block's transactions to check their validity.
+                for (int j = 0; j < currentBlock.getTransactions().size(); j++) {
+                    String error = findTransactionError(currentBlock.getTransactions().get(j), validSignatures[i - start][j], tempUTXOs::get, spent, created);
 
-                    // Check if the input's value matches the referenced output's value.
-                    if (input.getUTXO().getValue() != tempOutput.getValue()) {
-                        System.out.println(StringUtil.formatText("BLC007: Invalid Value for Referenced Input in Transaction Input - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                        return false;
+                    if (error != null) {
+                        return rejectBlock(event, currentBlock, error);
                     }
-
-                    tempUTXOs.remove(input.getTransactionOutputId());
                 }
 
-                // Loop through transaction outputs to update the temporary UTXO list.
-                for (TransactionOutput output : currentTransaction.getOutputs()) {
-                    tempUTXOs.put(output.getId(), output);
+                // Update the temporary UTXO list once the whole block is checked, as connectBlock applies it.
+                for (Digest id : spent) {
+                    tempUTXOs.remove(id);
                 }
 
-                // Check if the output recipient is correct.
-                if (currentTransaction.getOutputs().get(0).getRecipient() != currentTransaction.getRecipient()) {
-                    System.out.println(StringUtil.formatText("BLC008: Incorrect Output Recipient in Transaction - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                    return false;
+                for (Transaction transaction : currentBlock.getTransactions()) {
+                    for (TransactionOutput output : transaction.getOutputs()) {
+                        tempUTXOs.put(output.getId(), output);
+                    }
                 }
 
-                // Check if the output 'change' is returned to the sender.
-                if (currentTransaction.getOutputs().size() > 1 && currentTransaction.getOutputs().get(1).getRecipient() != currentTransaction.getSender()) {
-                    System.out.println(StringUtil.formatText("BLC009: Incorrect Change Output in Transaction - Blockchain Failed to Verify", StringUtil.ANSI_RED));
-                    return false;
-                }
+                event.end();
+                commitVerified(event, currentBlock, null);
             }
         }
 
-        System.out.println(StringUtil.formatText("Blockchain Verified Successfully", StringUtil.ANSI_GREEN));
+        EventLog.info("Blockchain Verified Successfully");
         return true;
     }
 
+    /**
+     * Checks a block header's hash, its link to the previous block, its target and its proof of work.
+     * @param currentHeader The header to check.
+     * @param previousNode The node preceding it in the chain.
+     * @return The first failing check's error message, or null if the header is valid.
+     */
+    private static String verifyBlockHeader(BlockHeader currentHeader, BlockTree.Node previousNode) {
+        BlockHeader previousHeader = previousNode.getHeader();
+
+        // Check if current block hash is correct.
+        if (!currentHeader.getHash().equals(currentHeader.calculateHash())) {
+            return "BLC001: Invalid Current Block Hash - Blockchain Failed to Verify";
+        }
+
+        // Check if previous block hash is correct.
+        if (!previousHeader.getHash().equals(currentHeader.getPreviousBlockHash())) {
+            return "BLC002: Invalid Previous Block Hash - Blockchain Failed to Verify";
+        }
+
+        // Check if hash is solved.
+        if (!Target.meets(currentHeader.getHash(), currentHeader.getBits())) {
+            return "BLC003: Block Not Mined - Blockchain Failed to Verify";
+        }
+
+        // Check if the target follows the retargeting rule.
+        if (currentHeader.getBits() != getNextBits(previousNode)) {
+            return "BLC010: Incorrect Difficulty Target - Blockchain Failed to Verify";
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if a transaction's inputs exactly cover its outputs and fee.
+     * @param transaction The transaction to check.
+     * @return True if the amounts balance without overflow, false otherwise.
+     */
+    private static boolean isBalanced(Transaction transaction) {
+        try {
+            return transaction.getInputsValue() == Math.addExact(transaction.getOutputsValue(), transaction.getFee());
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the headers of the active chain.
+     * @return The chain index.
+     */
+    public ChainIndex getChainIndex() {
+        return chainIndex;
+    }
+
+    /**
+     * Returns every accepted block, including side branches.
+     * @return The block tree.
+     */
+    public BlockTree getBlockTree() {
+        return blockTree;
+    }
+
+    /**
+     * Returns the set of unspent transaction outputs at the active tip.
+     * @return The UTXO set.
+     */
+    public UTXOSet getUTXOs() {
+        return UTXOs;
+    }
+
+    /**
+     * Returns the pool of pending transactions.
+     * @return The mempool.
+     */
+    public Mempool getMempool() {
+        return mempool;
+    }
+
+    /**
+     * Returns the genesis block.
+     * @return The genesis block, or null if the chain is empty.
+     */
+    public Block getGenesisBlock() {
+        return genesisBlock;
+    }
+
+    /**
+     * Returns the genesis transaction.
+     * @return The genesis transaction, or null if the chain is empty.
+     */
+    public Transaction getGenesisTransaction() {
+        return genesisTransaction;
+    }
+
     /**
      * Main method to initialize the blockchain with the genesis block.
-     * @param args Command line arguments.
+     * @param args Command line arguments, optionally the directory of a block store to load from and persist to.
      */
     public static void main(String[] args) {
         Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Blockchain chain = new Blockchain();
+        chain.registerGauges();
 
-        Wallet coinbase = new Wallet();
-        Wallet walletA = new Wallet();
-        Wallet walletB = new Wallet();
+        if (args.length > 0) {
+            chain.open(Paths.get(args[0]));
 
-        // Creation of genesis UTXO
-        TransactionOutput genesisUTXO = new TransactionOutput(coinbase.getPublicKey(), 1000000, null);
-        UTXOs.put(genesisUTXO.getId(), genesisUTXO);
-        genesisTransaction = coinbase.sendFunds(walletA.getPublicKey(), 500);
-        genesisTransaction.generateSignature(coinbase.getPrivateKey());
+            if (!chain.chainIndex.isEmpty()) {
+                EventLog.info("Loaded " + chain.chainIndex.size() + " blocks, tip HASH: " + chain.chainIndex.getTip().getHash());
+                EventLog.info("Loaded " + chain.UTXOs.size() + " UTXOs");
+                chain.verifyBlockchain();
+                return;
+            }
+        }
+
+        Wallet coinbase = new Wallet(chain);
+        Wallet walletA = new Wallet(chain);
+        Wallet walletB = new Wallet(chain);
 
         // Successful addition of genesis block
-        System.out.println("Creating and mining genesis block... ");
-        genesisBlock = new Block("0".repeat(64));
-        genesisBlock.addTransaction(genesisTransaction);
-        addBlock(genesisBlock);
+        EventLog.info("Creating and mining genesis block... ");
+        Block genesisBlock = chain.mineGenesis(coinbase, walletA.getAddress(), 500 * COIN);
 
         // Successful transaction
         Block block1 = new Block(genesisBlock.getHash());
-        System.out.println("WalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletA is attempting to send funds (40) to WalletB...");
-        block1.addTransaction(walletA.sendFunds(walletB.getPublicKey(), 40));
-        addBlock(block1);
-        System.out.println("WalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletB's balance is: " + walletB.getBalance());
+        EventLog.info("WalletA's balance is: " + StringUtil.formatAmount(walletA.getBalance()));
+        EventLog.info("WalletA is attempting to send funds (40) to WalletB...");
+        block1.addTransaction(walletA.sendFunds(walletB.getAddress(), 40 * COIN));
+        chain.addBlock(block1);
+        EventLog.info("WalletA's balance is: " + StringUtil.formatAmount(walletA.getBalance()));
+        EventLog.info("WalletB's balance is: " + StringUtil.formatAmount(walletB.getBalance()));
 
         // Unsuccessful transaction (Exceeds funds)
         Block block2 = new Block(block1.getHash());
-        System.out.println("WalletA is attempting to send more funds (1000) than it has...");
-        block2.addTransaction(walletA.sendFunds(walletB.getPublicKey(), 1000));
-        addBlock(block2);
-        System.out.println("WalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletB's balance is: " + walletB.getBalance());
+        EventLog.info("WalletA is attempting to send more funds (1000) than it has...");
+        block2.addTransaction(walletA.sendFunds(walletB.getAddress(), 1000 * COIN));
+        chain.addBlock(block2);
+        EventLog.info("WalletA's balance is: " + StringUtil.formatAmount(walletA.getBalance()));
+        EventLog.info("WalletB's balance is: " + StringUtil.formatAmount(walletB.getBalance()));
 
         // Unsuccessful transaction (Duplicate UTXOs)
         Block block3 = new Block(block2.getHash());
-        System.out.println("WalletB is attempting to send funds (20) to WalletA...");
-        block3.addTransaction(walletB.sendFunds(walletA.getPublicKey(), 20));
-        System.out.println("WalletB is attempting to send funds (20) to WalletA with identical UTXOs...");
-        block3.addTransaction(walletB.sendFunds(walletA.getPublicKey(), 20));
-        addBlock(block3);
-        System.out.println("WalletA's balance is: " + walletA.getBalance());
-        System.out.println("WalletB's balance is: " + walletB.getBalance());
-
-        verifyBlockchain();
+        EventLog.info("WalletB is attempting to send funds (20) to WalletA...");
+        block3.addTransaction(walletB.sendFunds(walletA.getAddress(), 20 * COIN));
+        EventLog.info("WalletB is attempting to send funds (20) to WalletA with identical UTXOs...");
+        block3.addTransaction(walletB.sendFunds(walletA.getAddress(), 20 * COIN));
+        chain.addBlock(block3);
+        EventLog.info("WalletA's balance is: " + StringUtil.formatAmount(walletA.getBalance()));
+        EventLog.info("WalletB's balance is: " + StringUtil.formatAmount(walletB.getBalance()));
+
+        chain.verifyBlockchain();
     }
 }
@@ -0,0 +1,110 @@
+package henrycaldwell;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Big-endian reader over a ByteBuffer, the counterpart of ByteWriter.
+ */
+public class ByteReader {
+
+    private ByteBuffer buffer; // The buffer being read.
+
+    /**
+     * Constructs a ByteReader over the remaining bytes of a buffer without changing the buffer's position.
+     * @param buffer The buffer to read.
+     */
+    public ByteReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * Constructs a ByteReader over a byte array.
+     * @param bytes The bytes to read.
+     */
+    public ByteReader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads a single byte.
+     * @return The byte read.
+     */
+    public byte readByte() {
+        return buffer.get();
+    }
+
+    /**
+     * Reads a big-endian int.
+     * @return The int read.
+     */
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads a big-endian long.
+     * @return The long read.
+     */
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads the given number of raw bytes.
+     * @param length The number of bytes.
+     * @return The bytes read.
+     */
+    public byte[] readRaw(int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("Invalid length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a length-prefixed byte array, rejecting lengths longer than the unread bytes before allocating.
+     * @return The bytes read, or null if a null array was written.
+     */
+    public byte[] readBytes() {
+        int length = readInt();
+        return length < 0 ? null : readRaw(length);
+    }
+
+    /**
+     * Reads an element count, rejecting counts the unread bytes cannot hold so a peer cannot force a huge allocation.
+     * @param minimumElementSize The smallest encoded size of one element.
+     * @return The count.
+     */
+    public int readCount(int minimumElementSize) {
+        int count = readInt();
+
+        if (count < 0 || (long) count * minimumElementSize > buffer.remaining()) {
+            throw new IllegalStateException("Invalid element count " + count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads a hash written by ByteWriter.writeHash.
+     * @return The hash, or null if it was absent.
+     */
+    public Digest readHash() {
+        if (readByte() == 0) {
+            return null;
+        }
+
+        return new Digest(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Returns the number of unread bytes.
+     * @return The number of unread bytes.
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,139 @@
+package henrycaldwell;
+
+import java.util.Arrays;
+
+/**
+ * Growable big-endian byte buffer used to encode blocks and transactions.
+ * The buffer is reused across encodings by calling reset, so steady-state encoding does not allocate.
+ */
+public class ByteWriter {
+
+    private byte[] buffer; // The backing array.
+    private int size; // The number of bytes written.
+
+    /**
+     * Constructs a ByteWriter with a default initial capacity.
+     */
+    public ByteWriter() {
+        this(256);
+    }
+
+    /**
+     * Constructs a ByteWriter with the specified initial capacity.
+     * @param capacity The initial capacity in bytes.
+     */
+    public ByteWriter(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Discards the written bytes while keeping the backing array.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Writes a single byte.
+     * @param value The byte to write.
+     */
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a big-endian int.
+     * @param value The int to write.
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a big-endian long.
+     * @param value The long to write.
+     */
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Writes raw bytes without a length prefix.
+     * @param bytes The bytes to write.
+     */
+    public void writeRaw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Writes a byte array prefixed with its length, or a length of -1 for null.
+     * @param bytes The bytes to write, or null.
+     */
+    public void writeBytes(byte[] bytes) {
+        if (bytes == null) {
+            writeInt(-1);
+            return;
+        }
+
+        writeInt(bytes.length);
+        writeRaw(bytes);
+    }
+
+    /**
+     * Writes a 32-byte hash prefixed with a presence flag.
+     * @param hash The hash, or null.
+     */
+    public void writeHash(Digest hash) {
+        if (hash == null) {
+            writeByte(0);
+            return;
+        }
+
+        writeByte(1);
+        ensureCapacity(Digest.SIZE);
+        hash.writeTo(buffer, size);
+        size += Digest.SIZE;
+    }
+
+    /**
+     * Returns the backing array, valid up to size.
+     * @return The backing array.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes written.
+     * @return The number of bytes written.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the written bytes.
+     * @return The written bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Grows the backing array to fit the given number of additional bytes.
+     * @param additional The number of bytes about to be written.
+     */
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
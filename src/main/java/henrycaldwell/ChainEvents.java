@@ -0,0 +1,126 @@
+package henrycaldwell;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for mining, validation and UTXO mutation, so latency in a recording maps to chain operations.
+ * Each call site creates an event, calls begin before the work and end after it, and only fills in the fields and
+ * commits when shouldCommit returns true. When no recording is running, begin, end and shouldCommit compile to
+ * nothing and the unused event object is eliminated, so the events cost next to nothing in production.
+ * Events are named henrycaldwell.* and can be printed with "jfr print --events henrycaldwell.BlockMined recording.jfr".
+ */
+public class ChainEvents {
+
+    /**
+     * Recorded when a block's proof of work is found.
+     */
+    @Name("henrycaldwell.BlockMined")
+    @Label("Block Mined")
+    @Category({"Blockchain", "Mining"})
+    @Description("A block's nonce search, including searches restarted after the nonce space was exhausted.")
+    public static class BlockMined extends Event {
+
+        @Label("Block Hash")
+        public String hash; // The hash of the mined block.
+
+        @Label("Nonce Count")
+        @Description("The number of nonces hashed by all workers.")
+        public long nonceCount; // The number of hashes computed.
+
+        @Label("Compact Target")
+        public int bits; // The compact target the block met.
+
+        @Label("Transactions")
+        public int transactions; // The number of transactions in the block.
+    }
+
+    /**
+     * Recorded when a block is checked against the UTXO set, before connecting it or while verifying the chain.
+     */
+    @Name("henrycaldwell.BlockVerified")
+    @Label("Block Verified")
+    @Category({"Blockchain", "Validation"})
+    @Description("A block's transactions checked against the UTXO set. While verifying the whole chain, signatures are checked in parallel beforehand and are not included.")
+    public static class BlockVerified extends Event {
+
+        @Label("Block Hash")
+        public String hash; // The hash of the verified block.
+
+        @Label("Transactions")
+        public int transactions; // The number of transactions in the block.
+
+        @Label("Valid")
+        public boolean valid; // Whether the block passed.
+
+        @Label("Error Code")
+        public String error; // The error code of the failed check, or null.
+    }
+
+    /**
+     * Recorded when a transaction's signature and amounts are verified.
+     */
+    @Name("henrycaldwell.TransactionVerified")
+    @Label("Transaction Verified")
+    @Category({"Blockchain", "Validation"})
+    @StackTrace(false)
+    public static class TransactionVerified extends Event {
+
+        @Label("Transaction ID")
+        public String transactionId; // The ID of the verified transaction.
+
+        @Label("Inputs")
+        public int inputs; // The number of inputs.
+
+        @Label("Outputs")
+        public int outputs; // The number of outputs.
+
+        @Label("Valid")
+        public boolean valid; // Whether the transaction passed.
+
+        @Label("Error Code")
+        public String error; // The error code of the failed check, or null.
+    }
+
+    /**
+     * Recorded when a batch of spends and creations is applied to the UTXO set, including the wait for the write lock.
+     */
+    @Name("henrycaldwell.UTXOBatchApplied")
+    @Label("UTXO Batch Applied")
+    @Category({"Blockchain", "UTXO"})
+    @StackTrace(false)
+    public static class UTXOBatchApplied extends Event {
+
+        @Label("Spent")
+        public int spent; // The number of outputs spent.
+
+        @Label("Created")
+        public int created; // The number of outputs created.
+
+        @Label("UTXO Set Size")
+        public int size; // The number of UTXOs after the batch.
+    }
+
+    /**
+     * Recorded when a Merkle root is computed, either from scratch or by appending a leaf to an incremental tree.
+     */
+    @Name("henrycaldwell.MerkleRootComputed")
+    @Label("Merkle Root Computed")
+    @Category({"Blockchain", "Merkle"})
+    @StackTrace(false)
+    public static class MerkleRootComputed extends Event {
+
+        @Label("Leaves")
+        public int leaves; // The number of leaves under the root.
+
+        @Label("Hashes")
+        public long hashes; // The number of node hashes computed.
+
+        @Label("Incremental")
+        public boolean incremental; // Whether only the path of an appended leaf was rehashed.
+    }
+}
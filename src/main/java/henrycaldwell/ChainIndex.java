@@ -0,0 +1,137 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.math.BigInteger;
+
+/**
+ * Index of the active chain, holding the BlockTree nodes of its blocks, with constant-time lookup by height and by hash.
+ * Nodes carry only headers unless the chain has no block store, in which case they also hold the full blocks.
+ * The index is safe for concurrent use.
+ */
+public class ChainIndex {
+
+    private ArrayList<BlockTree.Node> nodes = new ArrayList<>(); // The nodes of the active chain by height.
+    private HashMap<Digest, Integer> heights = new HashMap<>(); // The height of each active block by hash.
+
+    /**
+     * Appends a node to the tip of the chain.
+     * @param node The node of the new tip, whose height must equal the current chain size.
+     * @return The height of the new tip.
+     */
+    public synchronized int add(BlockTree.Node node) {
+        if (node.getHeight() != nodes.size()) {
+            throw new IllegalArgumentException("Block at height " + node.getHeight() + " does not extend a chain of " + nodes.size() + " blocks");
+        }
+
+        nodes.add(node);
+        heights.put(node.getHash(), node.getHeight());
+        return node.getHeight();
+    }
+
+    /**
+     * Removes all blocks above a height, in time proportional to the number removed.
+     * @param height The height of the new tip.
+     */
+    public synchronized void truncate(int height) {
+        while (nodes.size() > height + 1) {
+            heights.remove(nodes.remove(nodes.size() - 1).getHash());
+        }
+    }
+
+    /**
+     * Returns the node at a height.
+     * @param height The height of the block.
+     * @return The node.
+     */
+    public synchronized BlockTree.Node getNode(int height) {
+        return nodes.get(height);
+    }
+
+    /**
+     * Returns the header at a height.
+     * @param height The height of the block.
+     * @return The header.
+     */
+    public synchronized BlockHeader getHeader(int height) {
+        return nodes.get(height).getHeader();
+    }
+
+    /**
+     * Returns the header of an active block by hash.
+     * @param hash The hash of the block.
+     * @return The header, or null if the block is not in the active chain.
+     */
+    public synchronized BlockHeader getHeader(Digest hash) {
+        Integer height = heights.get(hash);
+        return height == null ? null : nodes.get(height).getHeader();
+    }
+
+    /**
+     * Returns the height of an active block by hash.
+     * @param hash The hash of the block.
+     * @return The height, or -1 if the block is not in the active chain.
+     */
+    public synchronized int getHeight(Digest hash) {
+        Integer height = heights.get(hash);
+        return height == null ? -1 : height;
+    }
+
+    /**
+     * Checks if a node is part of the active chain.
+     * @param node The node.
+     * @return True if the node is the active block at its height, false otherwise.
+     */
+    public synchronized boolean contains(BlockTree.Node node) {
+        return node.getHeight() < nodes.size() && nodes.get(node.getHeight()) == node;
+    }
+
+    /**
+     * Returns the total work of the chain up to a height.
+     * @param height The height of the block.
+     * @return The cumulative work.
+     */
+    public synchronized BigInteger getCumulativeWork(int height) {
+        return nodes.get(height).getCumulativeWork();
+    }
+
+    /**
+     * Returns the header of the tip.
+     * @return The tip header, or null if the chain is empty.
+     */
+    public synchronized BlockHeader getTip() {
+        return nodes.isEmpty() ? null : nodes.get(nodes.size() - 1).getHeader();
+    }
+
+    /**
+     * Returns the node of the tip.
+     * @return The tip node, or null if the chain is empty.
+     */
+    public synchronized BlockTree.Node getTipNode() {
+        return nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+    }
+
+    /**
+     * Returns the number of blocks in the chain.
+     * @return The number of blocks.
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Checks if the chain has no blocks.
+     * @return True if the chain is empty, false otherwise.
+     */
+    public synchronized boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * Removes all blocks.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        heights.clear();
+    }
+}
@@ -0,0 +1,247 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Utility class choosing which UTXOs fund a payment.
+ * Fees are estimated from input and output counts alone, so selection never builds or hashes a transaction,
+ * and the wallet builds and signs exactly one transaction from the result.
+ * Each input costs a fixed fee to spend, so outputs are compared by their effective value: their value minus that fee.
+ * Outputs worth less than the fee to spend them are never selected.
+ */
+public class CoinSelector {
+
+    public static final int MAX_TRIES = 100000; // The maximum number of search steps of branch and bound before falling back.
+
+    /**
+     * The coin selection strategies.
+     */
+    public enum Strategy {
+        LARGEST_FIRST, // Spends the largest outputs first, minimizing the number of inputs and the fee.
+        BRANCH_AND_BOUND, // Searches for a set of outputs matching the payment without change, else falls back to LARGEST_FIRST.
+        CONSOLIDATION // Spends every output, merging the wallet into the change output.
+    }
+
+    /**
+     * Selects the outputs to fund a payment to one or more recipients.
+     * @param available The outputs the sender owns.
+     * @param value The total value to pay in base units.
+     * @param payments The number of payment outputs.
+     * @param strategy The selection strategy.
+     * @return The selection, or null if the outputs cannot cover the value and fee.
+     */
+    public static Selection select(List<TransactionOutput> available, long value, int payments, Strategy strategy) {
+        ArrayList<TransactionOutput> candidates = new ArrayList<>(available.size());
+        long inputFee = Transaction.estimateFee(1, 0);
+
+        for (TransactionOutput output : available) {
+            if (output.getValue() > inputFee) {
+                candidates.add(output);
+            }
+        }
+
+        candidates.sort(Comparator.comparingLong(TransactionOutput::getValue).reversed());
+
+        return switch (strategy) {
+            case LARGEST_FIRST -> selectLargestFirst(candidates, value, payments);
+            case BRANCH_AND_BOUND -> {
+                Selection selection = selectBranchAndBound(candidates, value, payments);
+                yield selection != null ? selection : selectLargestFirst(candidates, value, payments);
+            }
+            case CONSOLIDATION -> finish(candidates, candidates.size(), sum(candidates, candidates.size()), value, payments);
+        };
+    }
+
+    /**
+     * Returns the fee of a change output plus the fee of spending it later.
+     * Leftover value below this costs more to keep as change than it is worth, so it is added to the fee instead.
+     * @return The cost of change in base units.
+     */
+    public static long getCostOfChange() {
+        return Transaction.estimateFee(0, 1) + Transaction.estimateFee(1, 0);
+    }
+
+    /**
+     * Adds outputs from the largest down until they cover the value and the fee.
+     * @param candidates The spendable outputs, largest first.
+     * @param value The total value to pay.
+     * @param payments The number of payment outputs.
+     * @return The selection, or null if all outputs together are not enough.
+     */
+    private static Selection selectLargestFirst(List<TransactionOutput> candidates, long value, int payments) {
+        long total = 0;
+
+        for (int i = 0; i < candidates.size(); i++) {
+            total = Math.addExact(total, candidates.get(i).getValue());
+
+            if (total >= Math.addExact(value, Transaction.estimateFee(i + 1, payments))) {
+                return finish(candidates, i + 1, total, value, payments);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Searches depth first for outputs whose effective value covers the payments and their output fees by less than the cost
+     * of change, so the transaction needs no change output.
+     * At each output the search first includes it, then excludes it, and backtracks once the selection overshoots or
+     * the remaining outputs cannot reach the target.
+     * @param candidates The spendable outputs, largest first.
+     * @param value The total value to pay.
+     * @param payments The number of payment outputs.
+     * @return The selection, or null if no match was found within MAX_TRIES steps.
+     */
+    private static Selection selectBranchAndBound(List<TransactionOutput> candidates, long value, int payments) {
+        int count = candidates.size();
+        long inputFee = Transaction.estimateFee(1, 0);
+        long target = Math.addExact(value, Transaction.estimateFee(0, payments));
+        long upperBound = Math.addExact(target, getCostOfChange());
+
+        long[] effective = new long[count];
+        long[] remaining = new long[count + 1]; // The effective value of the outputs from each index onwards.
+
+        for (int i = count - 1; i >= 0; i--) {
+            effective[i] = candidates.get(i).getValue() - inputFee;
+            remaining[i] = Math.addExact(remaining[i + 1], effective[i]);
+        }
+
+        if (remaining[0] < target) {
+            return null;
+        }
+
+        boolean[] included = new boolean[count];
+        int depth = 0;
+        long selected = 0;
+
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            boolean backtrack = selected + remaining[depth] < target || selected > upperBound;
+
+            if (!backtrack && selected >= target) {
+                ArrayList<TransactionOutput> inputs = new ArrayList<>();
+                long total = 0;
+
+                for (int i = 0; i < depth; i++) {
+                    if (included[i]) {
+                        inputs.add(candidates.get(i));
+                        total += candidates.get(i).getValue();
+                    }
+                }
+
+                return new Selection(inputs, total - value, 0);
+            }
+
+            if (backtrack || depth == count) {
+                // Walk back to the last included output and exclude it instead.
+                while (depth > 0 && !included[depth - 1]) {
+                    depth--;
+                }
+
+                if (depth == 0) {
+                    return null;
+                }
+
+                depth--;
+                included[depth] = false;
+                selected -= effective[depth];
+                depth++;
+            } else {
+                included[depth] = true;
+                selected += effective[depth];
+                depth++;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Completes a selection of the first outputs, adding a change output only if the leftover is worth its cost.
+     * @param candidates The spendable outputs, in selection order.
+     * @param count The number of outputs selected.
+     * @param total The value of the selected outputs.
+     * @param value The total value to pay.
+     * @param payments The number of payment outputs.
+     * @return The selection, or null if the outputs do not cover the value and fee.
+     */
+    private static Selection finish(List<TransactionOutput> candidates, int count, long total, long value, int payments) {
+        long leftover = total - value - Transaction.estimateFee(count, payments);
+
+        if (leftover < 0) {
+            return null;
+        }
+
+        ArrayList<TransactionOutput> inputs = new ArrayList<>(candidates.subList(0, count));
+        long change = total - value - Transaction.estimateFee(count, payments + 1);
+
+        if (leftover < getCostOfChange() || change <= 0) {
+            return new Selection(inputs, total - value, 0);
+        }
+
+        return new Selection(inputs, Transaction.estimateFee(count, payments + 1), change);
+    }
+
+    /**
+     * Sums the values of the first outputs.
+     * @param outputs The outputs.
+     * @param count The number of outputs to sum.
+     * @return The total value.
+     */
+    private static long sum(List<TransactionOutput> outputs, int count) {
+        long total = 0;
+
+        for (int i = 0; i < count; i++) {
+            total = Math.addExact(total, outputs.get(i).getValue());
+        }
+
+        return total;
+    }
+
+    /**
+     * Represents the result of coin selection: the outputs to spend, the fee and the change returned to the sender.
+     */
+    public static class Selection {
+
+        private List<TransactionOutput> inputs; // The outputs to spend.
+        private long fee; // The transaction fee in base units.
+        private long change; // The change returned to the sender in base units, or 0 for no change output.
+
+        /**
+         * Constructs a Selection.
+         * @param inputs The outputs to spend.
+         * @param fee The transaction fee in base units.
+         * @param change The change returned to the sender in base units, or 0 for no change output.
+         */
+        public Selection(List<TransactionOutput> inputs, long fee, long change) {
+            this.inputs = inputs;
+            this.fee = fee;
+            this.change = change;
+        }
+
+        /**
+         * Returns the outputs to spend.
+         * @return The outputs to spend.
+         */
+        public List<TransactionOutput> getInputs() {
+            return inputs;
+        }
+
+        /**
+         * Returns the transaction fee.
+         * @return The fee in base units.
+         */
+        public long getFee() {
+            return fee;
+        }
+
+        /**
+         * Returns the change returned to the sender.
+         * @return The change in base units, or 0 for no change output.
+         */
+        public long getChange() {
+            return change;
+        }
+    }
+}
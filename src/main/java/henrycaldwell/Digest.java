@@ -0,0 +1,176 @@
+package henrycaldwell;
+
+/**
+ * Immutable 32-byte SHA-256 digest used for block hashes, transaction IDs, output IDs and Merkle nodes.
+ * The bytes are held as four big-endian longs, so equality and hashing are a few primitive comparisons,
+ * and hexadecimal is only produced for display.
+ */
+public final class Digest implements Comparable<Digest> {
+
+    public static final int SIZE = 32; // The size of a digest in bytes.
+    public static final Digest ZERO = new Digest(0, 0, 0, 0); // The all-zero digest.
+
+    private final long a, b, c, d; // The digest bytes, most significant first.
+
+    /**
+     * Constructs a Digest from its four big-endian words.
+     * @param a Bytes 0 to 7.
+     * @param b Bytes 8 to 15.
+     * @param c Bytes 16 to 23.
+     * @param d Bytes 24 to 31.
+     */
+    public Digest(long a, long b, long c, long d) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+    }
+
+    /**
+     * Creates a Digest from 32 bytes of an array.
+     * @param bytes The array holding the digest.
+     * @param offset The offset of the first digest byte.
+     * @return The digest.
+     */
+    public static Digest of(byte[] bytes, int offset) {
+        return new Digest(readLong(bytes, offset), readLong(bytes, offset + 8), readLong(bytes, offset + 16), readLong(bytes, offset + 24));
+    }
+
+    /**
+     * Creates a Digest from a 32-byte array.
+     * @param bytes The digest bytes.
+     * @return The digest.
+     */
+    public static Digest of(byte[] bytes) {
+        return of(bytes, 0);
+    }
+
+    /**
+     * Parses a Digest from a 64-character hexadecimal string.
+     * @param hex The hexadecimal string.
+     * @return The digest.
+     */
+    public static Digest fromHex(String hex) {
+        byte[] bytes = new byte[SIZE];
+        SecurityUtil.hexToBytes(hex, bytes, 0);
+        return of(bytes);
+    }
+
+    /**
+     * Writes the digest bytes into an array.
+     * @param destination The array receiving the bytes.
+     * @param offset The offset of the first byte.
+     */
+    public void writeTo(byte[] destination, int offset) {
+        writeLong(a, destination, offset);
+        writeLong(b, destination, offset + 8);
+        writeLong(c, destination, offset + 16);
+        writeLong(d, destination, offset + 24);
+    }
+
+    /**
+     * Returns a copy of the digest bytes.
+     * @return The digest bytes.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[SIZE];
+        writeTo(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Returns one of the four big-endian words of the digest.
+     * @param index The word index, from 0 to 3.
+     * @return The word.
+     */
+    public long getWord(int index) {
+        switch (index) {
+            case 0: return a;
+            case 1: return b;
+            case 2: return c;
+            case 3: return d;
+            default: throw new IndexOutOfBoundsException("Digest word " + index);
+        }
+    }
+
+    /**
+     * Returns the number of leading zero bits of the digest.
+     * @return The number of leading zero bits, from 0 to 256.
+     */
+    public int leadingZeroBits() {
+        if (a != 0) return Long.numberOfLeadingZeros(a);
+        if (b != 0) return 64 + Long.numberOfLeadingZeros(b);
+        if (c != 0) return 128 + Long.numberOfLeadingZeros(c);
+        return 192 + Long.numberOfLeadingZeros(d);
+    }
+
+    /**
+     * Returns the digest as a lowercase hexadecimal string.
+     * @return The hexadecimal string.
+     */
+    public String toHex() {
+        return SecurityUtil.bytesToHex(toByteArray());
+    }
+
+    @Override
+    public int compareTo(Digest other) {
+        int result = Long.compareUnsigned(a, other.a);
+        if (result == 0) result = Long.compareUnsigned(b, other.b);
+        if (result == 0) result = Long.compareUnsigned(c, other.c);
+        if (result == 0) result = Long.compareUnsigned(d, other.d);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof Digest)) {
+            return false;
+        }
+
+        Digest digest = (Digest) other;
+        return a == digest.a && b == digest.b && c == digest.c && d == digest.d;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (a ^ (a >>> 32)); // The digest is uniformly distributed, so any word is a good hash.
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    /**
+     * Reads a big-endian long from a byte array.
+     * @param bytes The source array.
+     * @param offset The offset of the first byte.
+     * @return The decoded long.
+     */
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xff);
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes a big-endian long into a byte array.
+     * @param value The long to write.
+     * @param destination The array receiving the bytes.
+     * @param offset The offset of the first byte.
+     */
+    private static void writeLong(long value, byte[] destination, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            destination[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package henrycaldwell;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Open-addressing hash map keyed by digests, used as the UTXO index.
+ * Keys are stored inline as four longs per slot in a flat array and values in a parallel array, so an entry costs
+ * about 40 bytes of table space instead of a String key, its character array and a map node.
+ * Collisions are resolved by linear probing and deletion shifts later entries back, so no tombstones accumulate.
+ * The map is not thread-safe; concurrent readers must tolerate and retry reads that overlap a write.
+ */
+public class DigestMap<V> {
+
+    private static final int MIN_CAPACITY = 16; // The smallest table size.
+
+    private volatile Table table; // The current table, replaced as a whole on resize.
+    private int size; // The number of entries.
+
+    /**
+     * Constructs an empty DigestMap.
+     */
+    public DigestMap() {
+        this.table = new Table(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the value for a key.
+     * @param key The key.
+     * @return The value, or null if the key is absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Digest key) {
+        Table current = table;
+        int slot = current.find(key);
+        return slot < 0 ? null : (V) current.values[slot];
+    }
+
+    /**
+     * Checks if a key is present.
+     * @param key The key.
+     * @return True if the key is present, false otherwise.
+     */
+    public boolean containsKey(Digest key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates a value with a key.
+     * @param key The key.
+     * @param value The value, which must not be null.
+     * @return The previous value, or null if the key was absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(Digest key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("DigestMap does not hold null values");
+        }
+
+        if ((size + 1) * 4L > table.capacity() * 3L) {
+            resize(table.capacity() * 2);
+        }
+
+        Table current = table;
+        int slot = current.index(key);
+
+        for (int probe = 0; probe < current.capacity(); probe++) {
+            if (current.values[slot] == null) {
+                current.setKey(slot, key);
+                current.values[slot] = value;
+                size++;
+                return null;
+            }
+
+            if (current.matches(slot, key)) {
+                V previous = (V) current.values[slot];
+                current.values[slot] = value;
+                return previous;
+            }
+
+            slot = (slot + 1) & current.mask;
+        }
+
+        throw new IllegalStateException("DigestMap table is full");
+    }
+
+    /**
+     * Removes a key, shifting later entries of its probe run back into the freed slot.
+     * @param key The key.
+     * @return The removed value, or null if the key was absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Digest key) {
+        Table current = table;
+        int slot = current.find(key);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        V removed = (V) current.values[slot];
+        int hole = slot;
+        int next = (hole + 1) & current.mask;
+
+        while (current.values[next] != null) {
+            int home = current.home(next);
+
+            // Move the entry back if the hole lies on its probe path, that is between its home slot and its current slot.
+            if (((next - home) & current.mask) >= ((next - hole) & current.mask)) {
+                current.copySlot(next, hole);
+                hole = next;
+            }
+
+            next = (next + 1) & current.mask;
+        }
+
+        current.values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Calls an action for every entry, in table order.
+     * @param action The action receiving each key and value.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<Digest, V> action) {
+        Table current = table;
+
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            if (current.values[slot] != null) {
+                action.accept(current.key(slot), (V) current.values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of all values, in table order.
+     * @return The values.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        forEach((key, value) -> values.add(value));
+        return values;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries and shrinks the table.
+     */
+    public void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Moves all entries into a table of the given capacity.
+     * @param capacity The new capacity, a power of two.
+     */
+    private void resize(int capacity) {
+        Table previous = table;
+        Table resized = new Table(capacity);
+
+        for (int slot = 0; slot < previous.capacity(); slot++) {
+            if (previous.values[slot] != null) {
+                int target = resized.index(previous.key(slot));
+
+                while (resized.values[target] != null) {
+                    target = (target + 1) & resized.mask;
+                }
+
+                System.arraycopy(previous.keys, slot * 4, resized.keys, target * 4, 4);
+                resized.values[target] = previous.values[slot];
+            }
+        }
+
+        table = resized;
+    }
+
+    /**
+     * A power-of-two sized table holding four key words and one value per slot.
+     */
+    private static class Table {
+
+        private final long[] keys; // The key words, four per slot.
+        private final Object[] values; // The values, null for empty slots.
+        private final int mask; // The capacity minus one.
+
+        /**
+         * Constructs an empty Table.
+         * @param capacity The number of slots, a power of two.
+         */
+        Table(int capacity) {
+            this.keys = new long[capacity * 4];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * Returns the number of slots.
+         * @return The capacity.
+         */
+        int capacity() {
+            return values.length;
+        }
+
+        /**
+         * Returns the home slot of a key.
+         * @param key The key.
+         * @return The slot the key's probe run starts at.
+         */
+        int index(Digest key) {
+            long word = key.getWord(0);
+            return (int) (word ^ (word >>> 32)) & mask;
+        }
+
+        /**
+         * Returns the home slot of the key stored in a slot.
+         * @param slot The occupied slot.
+         * @return The slot the stored key's probe run starts at.
+         */
+        int home(int slot) {
+            long word = keys[slot * 4];
+            return (int) (word ^ (word >>> 32)) & mask;
+        }
+
+        /**
+         * Finds the slot holding a key, probing at most the whole table.
+         * @param key The key.
+         * @return The slot, or -1 if the key is absent.
+         */
+        int find(Digest key) {
+            int slot = index(key);
+
+            for (int probe = 0; probe < values.length && values[slot] != null; probe++) {
+                if (matches(slot, key)) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Checks if a slot holds a key.
+         * @param slot The slot.
+         * @param key The key.
+         * @return True if the slot's key words equal the key, false otherwise.
+         */
+        boolean matches(int slot, Digest key) {
+            int base = slot * 4;
+            return keys[base] == key.getWord(0) && keys[base + 1] == key.getWord(1) &&
+                    keys[base + 2] == key.getWord(2) && keys[base + 3] == key.getWord(3);
+        }
+
+        /**
+         * Returns the key stored in a slot.
+         * @param slot The slot.
+         * @return The key.
+         */
+        Digest key(int slot) {
+            int base = slot * 4;
+            return new Digest(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]);
+        }
+
+        /**
+         * Stores a key in a slot.
+         * @param slot The slot.
+         * @param key The key.
+         */
+        void setKey(int slot, Digest key) {
+            int base = slot * 4;
+            keys[base] = key.getWord(0);
+            keys[base + 1] = key.getWord(1);
+            keys[base + 2] = key.getWord(2);
+            keys[base + 3] = key.getWord(3);
+        }
+
+        /**
+         * Copies the key and value of one slot into another.
+         * @param from The source slot.
+         * @param to The destination slot.
+         */
+        void copySlot(int from, int to) {
+            System.arraycopy(keys, from * 4, keys, to * 4, 4);
+            values[to] = values[from];
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous log of structured status and error events.
+ * Callers only enqueue an event and count its error code in Metrics, so validation and mining threads never block on
+ * the console. A single daemon thread hands queued events to the sink in order, and a full queue drops events rather
+ * than stalling the caller. The default sink prints each event in color; setSink replaces it, for example with a
+ * sink writing Event.toJson lines. Queued events are flushed when the JVM shuts down.
+ */
+public class EventLog {
+
+    public static final int CAPACITY = 8192; // The maximum number of queued events.
+
+    private static final String SINK_ERROR = "LOG001"; // The error code of an event the sink failed to write.
+
+    private static final ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<>(CAPACITY); // The events not yet written.
+    private static final ConcurrentHashMap<String, Metrics.Counter> errors = new ConcurrentHashMap<>(); // The error counter of each code.
+    private static final Metrics.Counter dropped = Metrics.counter("events_dropped_total"); // The events dropped on a full queue.
+    private static volatile Consumer<Event> sink = EventLog::print; // The destination of written events.
+
+    static {
+        Thread writer = new Thread(EventLog::writeLoop, "event-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(EventLog::flush, "event-log-flush"));
+    }
+
+    /**
+     * The severity of an event.
+     */
+    public enum Level {
+        INFO, // A status message.
+        ERROR // A failure identified by an error code.
+    }
+
+    /**
+     * Logs a status message.
+     * @param message The message.
+     */
+    public static void info(String message) {
+        enqueue(new Event(Level.INFO, null, message));
+    }
+
+    /**
+     * Logs an error in the "CODE: Message - Consequence" form of ErrorCodes.txt and counts it under its code.
+     * @param error The error code and message.
+     */
+    public static void error(String error) {
+        int colon = error.indexOf(": ");
+        String code = colon < 0 ? "UNKNOWN" : error.substring(0, colon);
+        count(code);
+        enqueue(new Event(Level.ERROR, code, colon < 0 ? error : error.substring(colon + 2)));
+    }
+
+    /**
+     * Replaces the sink that queued events are written to. The sink is called from the log's writer thread only.
+     * @param newSink The new sink.
+     */
+    public static void setSink(Consumer<Event> newSink) {
+        sink = newSink;
+    }
+
+    /**
+     * Waits until every event queued before the call has been written, for at most one second.
+     */
+    public static void flush() {
+        CountDownLatch written = new CountDownLatch(1);
+
+        try {
+            if (queue.offer(new Event(written), 1, TimeUnit.SECONDS)) {
+                written.await(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts an error under its code.
+     * @param code The error code.
+     */
+    private static void count(String code) {
+        errors.computeIfAbsent(code, key -> Metrics.counter("errors_total{code=\"" + key + "\"}")).increment();
+    }
+
+    /**
+     * Queues an event, dropping it if the queue is full.
+     * @param event The event.
+     */
+    private static void enqueue(Event event) {
+        if (!queue.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes queued events to the sink in order, in batches, until the JVM exits.
+     */
+    private static void writeLoop() {
+        ArrayList<Event> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            queue.drainTo(batch);
+
+            for (Event event : batch) {
+                if (event.flushed != null) {
+                    event.flushed.countDown();
+                    continue;
+                }
+
+                write(event);
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes an event to the sink. A sink that throws is reported as an error event written to the same sink, and if
+     * that fails as well the report falls back to the console.
+     * @param event The event.
+     */
+    private static void write(Event event) {
+        try {
+            sink.accept(event);
+        } catch (RuntimeException e) {
+            Event failure = new Event(Level.ERROR, SINK_ERROR, "Sink Failed (" + e + ") - Event Dropped");
+            count(SINK_ERROR);
+
+            try {
+                sink.accept(failure);
+            } catch (RuntimeException again) {
+                print(failure);
+            }
+        }
+    }
+
+    /**
+     * Prints an event to the console, errors in red with their code and status messages in green.
+     * @param event The event.
+     */
+    private static void print(Event event) {
+        if (event.getLevel() == Level.ERROR) {
+            System.out.println(StringUtil.formatText(event.getCode() + ": " + event.getMessage(), StringUtil.ANSI_RED));
+        } else {
+            System.out.println(StringUtil.formatText(event.getMessage(), StringUtil.ANSI_GREEN));
+        }
+    }
+
+    /**
+     * Represents one logged event.
+     */
+    public static class Event {
+
+        private long timestamp; // The time the event was logged, in miliseconds since the epoch.
+        private Level level; // The severity of the event.
+        private String code; // The error code, or null for status messages.
+        private String message; // The message, without the error code.
+        private String thread; // The name of the thread that logged the event.
+        private CountDownLatch flushed; // The latch released when a flush marker is reached, or null for a real event.
+
+        /**
+         * Constructs an Event logged by the current thread.
+         * @param level The severity of the event.
+         * @param code The error code, or null for status messages.
+         * @param message The message, without the error code.
+         */
+        public Event(Level level, String code, String message) {
+            this.timestamp = System.currentTimeMillis();
+            this.level = level;
+            this.code = code;
+            this.message = message;
+            this.thread = Thread.currentThread().getName();
+        }
+
+        /**
+         * Constructs a flush marker.
+         * @param flushed The latch to release when the writer reaches the marker.
+         */
+        private Event(CountDownLatch flushed) {
+            this.flushed = flushed;
+        }
+
+        /**
+         * Returns the time the event was logged.
+         * @return The timestamp in miliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the severity of the event.
+         * @return The level.
+         */
+        public Level getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns the error code.
+         * @return The error code, or null for status messages.
+         */
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * Returns the message, without the error code.
+         * @return The message.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns the name of the thread that logged the event.
+         * @return The thread name.
+         */
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * Renders the event as a single-line JSON object.
+         * @return The event as JSON.
+         */
+        public String toJson() {
+            return "{\"timestamp\":" + timestamp +
+                    ",\"level\":\"" + level + '"' +
+                    (code == null ? "" : ",\"code\":" + Metrics.quote(code)) +
+                    ",\"message\":" + Metrics.quote(message) +
+                    ",\"thread\":" + Metrics.quote(thread) +
+                    '}';
+        }
+
+        @Override
+        public String toString() {
+            return "Event{" +
+                    "timestamp=" + timestamp +
+                    ", level=" + level +
+                    ", code=" + code +
+                    ", message=" + message +
+                    ", thread=" + thread +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package henrycaldwell;
+
+/**
+ * Hashes binary block headers with SHA-256, reusing the midstate of the fixed header prefix across nonce attempts.
+ * The header is laid out as previousBlockHash (32 bytes), merkleRoot (32 bytes), timestamp (8 bytes), bits (4 bytes) and nonce (4 bytes), all big-endian.
+ * The first 64 bytes form a complete SHA-256 block, so they are compressed once and only the final block is recomputed per nonce.
+ * An instance is not thread-safe; each mining worker owns its own hasher.
+ */
+public class HeaderHasher {
+
+    public static final int HEADER_SIZE = 80; // The size of a binary block header in bytes.
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    }; // The SHA-256 round constants.
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    }; // The SHA-256 initial hash values.
+
+    private final int[] midstate = new int[8]; // The hash state after compressing the 64-byte header prefix.
+    private final int[] state = new int[8]; // The working hash state for the current nonce.
+    private final int[] w = new int[64]; // The message schedule.
+    private final byte[] digest = new byte[32]; // The digest of the last hashed nonce.
+    private final int timestampHigh, timestampLow; // The timestamp split into big-endian words.
+    private final int bits; // The compact target.
+
+    /**
+     * Constructs a HeaderHasher for the header of the given block.
+     * @param block The block whose header is hashed.
+     */
+    public HeaderHasher(Block block) {
+        this(block.getPreviousBlockHash(), block.getMerkleRoot(), block.getTimestamp(), block.getBits());
+    }
+
+    /**
+     * Constructs a HeaderHasher for the specified header fields and compresses the header prefix.
+     * @param previousBlockHash The hash of the previous block.
+     * @param merkleRoot The merkle root, or null for a block without transactions.
+     * @param timestamp The time of the blocks creation in miliseconds.
+     * @param bits The compact target.
+     */
+    public HeaderHasher(Digest previousBlockHash, Digest merkleRoot, long timestamp, int bits) {
+        byte[] prefix = new byte[64];
+
+        if (previousBlockHash != null) {
+            previousBlockHash.writeTo(prefix, 0);
+        }
+
+        if (merkleRoot != null) {
+            merkleRoot.writeTo(prefix, 32);
+        }
+
+        for (int i = 0; i < 16; i++) {
+            w[i] = readInt(prefix, i * 4);
+        }
+
+        System.arraycopy(IV, 0, midstate, 0, 8);
+        compress(midstate, w);
+
+        this.timestampHigh = (int) (timestamp >>> 32);
+        this.timestampLow = (int) timestamp;
+        this.bits = bits;
+    }
+
+    /**
+     * Hashes the header with the given nonce without allocating.
+     * @param nonce The candidate nonce.
+     * @return The digest, valid until the next call on this hasher.
+     */
+    public byte[] hash(int nonce) {
+        w[0] = timestampHigh;
+        w[1] = timestampLow;
+        w[2] = bits;
+        w[3] = nonce;
+        w[4] = 0x80000000; // Padding bit.
+
+        for (int i = 5; i < 15; i++) {
+            w[i] = 0;
+        }
+
+        w[15] = HEADER_SIZE * 8; // Message length in bits.
+
+        System.arraycopy(midstate, 0, state, 0, 8);
+        compress(state, w);
+
+        for (int i = 0; i < 8; i++) {
+            int word = state[i];
+            digest[i * 4] = (byte) (word >>> 24);
+            digest[i * 4 + 1] = (byte) (word >>> 16);
+            digest[i * 4 + 2] = (byte) (word >>> 8);
+            digest[i * 4 + 3] = (byte) word;
+        }
+
+        return digest;
+    }
+
+    /**
+     * Checks if a digest, read as an unsigned big-endian number, is at most a target.
+     * Most digests differ from the target in the first byte, so the comparison usually stops there.
+     * @param digest The digest to check.
+     * @param target The target as 32 big-endian bytes.
+     * @return True if the digest meets the target, false otherwise.
+     */
+    public static boolean meetsTarget(byte[] digest, byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            int difference = (digest[i] & 0xff) - (target[i] & 0xff);
+
+            if (difference != 0) {
+                return difference < 0;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Applies the SHA-256 compression function to a state using the first 16 words of the schedule.
+     * @param state The hash state to update in place.
+     * @param w The message schedule, whose first 16 words hold the message block.
+     */
+    private static void compress(int[] state, int[] w) {
+        for (int i = 16; i < 64; i++) {
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = h + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    /**
+     * Reads a big-endian int from a byte array.
+     * @param bytes The source array.
+     * @param offset The offset of the first byte.
+     * @return The decoded int.
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 |
+                (bytes[offset + 1] & 0xff) << 16 |
+                (bytes[offset + 2] & 0xff) << 8 |
+                (bytes[offset + 3] & 0xff);
+    }
+}
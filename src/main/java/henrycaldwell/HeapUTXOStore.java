@@ -0,0 +1,66 @@
+package henrycaldwell;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * UTXO store keeping the output objects on the Java heap in a DigestMap, with one DigestMap per recipient as its index.
+ */
+public class HeapUTXOStore implements UTXOStore {
+
+    private DigestMap<TransactionOutput> outputs = new DigestMap<>(); // The UTXOs by output ID.
+    private ConcurrentHashMap<Address, DigestMap<TransactionOutput>> owners = new ConcurrentHashMap<>(); // The UTXOs of each recipient by output ID.
+
+    @Override
+    public TransactionOutput get(Digest id) {
+        return outputs.get(id);
+    }
+
+    @Override
+    public void put(Digest id, TransactionOutput output) {
+        remove(id);
+        outputs.put(id, output);
+        owners.computeIfAbsent(output.getRecipient(), recipient -> new DigestMap<>()).put(id, output);
+    }
+
+    @Override
+    public TransactionOutput remove(Digest id) {
+        TransactionOutput output = outputs.remove(id);
+
+        if (output != null) {
+            DigestMap<TransactionOutput> owned = owners.get(output.getRecipient());
+            owned.remove(id);
+
+            if (owned.size() == 0) {
+                owners.remove(output.getRecipient());
+            }
+        }
+
+        return output;
+    }
+
+    @Override
+    public void forEachOwned(Address owner, Consumer<TransactionOutput> action) {
+        DigestMap<TransactionOutput> owned = owners.get(owner);
+
+        if (owned != null) {
+            owned.forEach((id, output) -> action.accept(output));
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<TransactionOutput> action) {
+        outputs.forEach((id, output) -> action.accept(output));
+    }
+
+    @Override
+    public int size() {
+        return outputs.size();
+    }
+
+    @Override
+    public void clear() {
+        outputs.clear();
+        owners.clear();
+    }
+}
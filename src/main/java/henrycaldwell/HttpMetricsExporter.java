@@ -0,0 +1,89 @@
+package henrycaldwell;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Metrics exporter serving the registry over HTTP on the loopback interface.
+ * GET /metrics returns the Prometheus text format and GET /metrics.json returns JSON. Each request renders the
+ * registry on the server's own thread, so scraping never touches the node's threads.
+ */
+public class HttpMetricsExporter implements MetricsExporter {
+
+    private int port; // The port to listen on.
+    private HttpServer server; // The running server, or null when stopped.
+
+    /**
+     * Constructs an HttpMetricsExporter listening on a local port.
+     * @param port The port to listen on, or 0 for any free port.
+     */
+    public HttpMetricsExporter(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts the server.
+     */
+    @Override
+    public void start() {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        server.createContext("/metrics", exchange -> respond(exchange, Metrics.toText(), "text/plain; version=0.0.4"));
+        server.createContext("/metrics.json", exchange -> respond(exchange, Metrics.toJson(), "application/json"));
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The bound port, or the configured port if the server is not running.
+     */
+    public int getPort() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    /**
+     * Sends a rendered registry, or 404 for paths below the context.
+     * @param exchange The request.
+     * @param body The rendered metrics.
+     * @param contentType The content type of the body.
+     * @throws IOException If writing the response fails.
+     */
+    private static void respond(HttpExchange exchange, String body, String contentType) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+
+        if (!path.equals(exchange.getHttpContext().getPath())) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package henrycaldwell;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.nio.ByteBuffer;
+
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Caches the X.509 encoding and the address of each public key, and the key decoded from each encoding.
+ * Encoding a key allocates and serializes it on every call, so hashing and signing paths take the encoding from here
+ * and a hot key is encoded, hashed and decoded once.
+ * Keys arrive from peers as well as from local wallets, so each cache is a bounded LRU and memory stays flat however
+ * many distinct keys the chain holds. An evicted key is simply recomputed on its next use.
+ */
+public class KeyRegistry {
+
+    public static final int MAX_KEYS = 8192; // The maximum number of keys held by each cache.
+    private static final int STRIPES = 16; // The number of independently locked stripes per cache.
+
+    private static final KeyCache<PublicKey, byte[]> encodings = new KeyCache<>(); // The encoding of each recently used key.
+    private static final KeyCache<PublicKey, Address> addresses = new KeyCache<>(); // The address of each recently used key.
+    private static final KeyCache<ByteBuffer, PublicKey> keys = new KeyCache<>(); // The decoded key of each recently used encoding.
+
+    /**
+     * Returns the X.509 encoding of a key, computing it only if it is not cached.
+     * The returned array is shared and must not be modified.
+     * @param key The public key.
+     * @return The encoded key.
+     */
+    public static byte[] getEncoded(PublicKey key) {
+        return encodings.get(key, PublicKey::getEncoded);
+    }
+
+    /**
+     * Returns the address of a key, computing it only if it is not cached.
+     * @param key The public key.
+     * @return The address, the SHA-256 hash of the key's encoding.
+     */
+    public static Address getAddress(PublicKey key) {
+        return addresses.get(key, k -> {
+            byte[] encoded = getEncoded(k);
+            return new Address(SecurityUtil.hash(encoded, 0, encoded.length));
+        });
+    }
+
+    /**
+     * Decodes an X.509 encoded ECDSA public key, returning the cached instance for a recently seen encoding.
+     * @param encoded The encoded key, which must not be modified afterwards.
+     * @return The public key.
+     */
+    public static PublicKey getKey(byte[] encoded) {
+        return keys.get(ByteBuffer.wrap(encoded), k -> {
+            try {
+                return KeyFactory.getInstance("ECDSA", "BC").generatePublic(new X509EncodedKeySpec(encoded));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Represents a bounded LRU cache split into stripes by key hash, each guarded by its own monitor.
+     * Values are computed outside the monitor, so two threads missing on the same key may both compute it.
+     */
+    private static class KeyCache<K, V> {
+
+        private Stripe<K, V>[] stripes; // The stripes, each holding at most MAX_KEYS / STRIPES entries.
+
+        /**
+         * Constructs an empty KeyCache.
+         */
+        @SuppressWarnings("unchecked")
+        private KeyCache() {
+            this.stripes = (Stripe<K, V>[]) new Stripe<?, ?>[STRIPES];
+
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe<>(MAX_KEYS / STRIPES);
+            }
+        }
+
+        /**
+         * Returns the cached value of a key, computing and caching it on a miss.
+         * @param key The key.
+         * @param compute The function computing the value of an uncached key.
+         * @return The value.
+         */
+        private V get(K key, Function<K, V> compute) {
+            int hash = key.hashCode();
+            Stripe<K, V> stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+            V value;
+
+            synchronized (stripe) {
+                value = stripe.get(key);
+            }
+
+            if (value == null) {
+                value = compute.apply(key);
+
+                synchronized (stripe) {
+                    stripe.put(key, value);
+                }
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * Represents one stripe of a KeyCache, least recently used first.
+     */
+    private static class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L; // The serialized form version; stripes are never serialized.
+
+        private int capacity; // The maximum number of entries in the stripe.
+
+        /**
+         * Constructs an empty Stripe.
+         * @param capacity The maximum number of entries in the stripe.
+         */
+        private Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents the pool of pending transactions waiting to be included in a block.
+ * The pool is safe for concurrent use. Every output can be claimed by at most one pending transaction, so double-spends
+ * are rejected on entry, and entries are kept ordered by fee rate so a block template is filled in a single pass.
+ * Entries whose inputs stop being unspent, because a block spent them or a reorganization removed the block creating
+ * them, are evicted, so a stale entry cannot keep every later template from connecting.
+ */
+public class Mempool {
+
+    private Blockchain chain; // The blockchain whose UTXO set pending transactions spend from.
+    private ConcurrentHashMap<Digest, Entry> entries = new ConcurrentHashMap<>(); // The pending transactions by transaction ID.
+    private ConcurrentHashMap<Digest, Digest> claimedOutputs = new ConcurrentHashMap<>(); // The ID of the pending transaction spending each claimed output.
+    private ConcurrentSkipListSet<Entry> byFeeRate = new ConcurrentSkipListSet<>(Comparator
+            .comparingDouble(Entry::getFeeRate).reversed()
+            .thenComparingLong(Entry::getSequence)); // The pending transactions, highest fee rate first, then oldest first.
+    private AtomicLong sequence = new AtomicLong(); // The arrival counter breaking fee rate ties.
+    private Metrics.Counter accepted = Metrics.counter("transactions_accepted_total{stage=\"mempool\"}"); // The transactions added to the pool.
+
+    /**
+     * Constructs an empty Mempool.
+     * @param chain The blockchain whose UTXO set pending transactions spend from.
+     */
+    public Mempool(Blockchain chain) {
+        this.chain = chain;
+    }
+
+    /**
+     * Adds a transaction to the pool after verifying it and checking its inputs against confirmed and pending spends.
+     * The inputs are resolved from the confirmed UTXO set rather than trusted as sent, and the transaction must pass the
+     * rules of Blockchain.findTransactionError, so every pending transaction can be mined into a block.
+     * The inputs are checked again once claimed, so a block connected between the check and the claim, whose
+     * removeConfirmed found nothing to remove yet, cannot leave a stale entry behind.
+     * @param transaction The transaction to add.
+     * @return True if the transaction was added, false otherwise.
+     */
+    public boolean add(Transaction transaction) {
+        if (transaction == null) {
+            EventLog.error("MEM001: Null Transaction - Unable to Add to Mempool");
+            return false;
+        }
+
+        if (entries.containsKey(transaction.getTransactionId())) {
+            EventLog.error("MEM002: Duplicate Transaction - Unable to Add to Mempool");
+            return false;
+        }
+
+        if (!transaction.verifyTransaction()) {
+            return false;
+        }
+
+        String error = Blockchain.findTransactionError(transaction, true, chain.getUTXOs()::get, new HashSet<>(), new HashSet<>());
+
+        if (error != null) {
+            EventLog.error(error);
+            EventLog.error("MEM006: Transaction Breaks Block Rules - Unable to Add to Mempool");
+            return false;
+        }
+
+        for (int i = 0; i < transaction.getInputs().size(); i++) {
+            Digest outputId = transaction.getInputs().get(i).getTransactionOutputId();
+
+            if (claimedOutputs.putIfAbsent(outputId, transaction.getTransactionId()) != null) {
+                for (int j = 0; j < i; j++) {
+                    claimedOutputs.remove(transaction.getInputs().get(j).getTransactionOutputId(), transaction.getTransactionId());
+                }
+
+                EventLog.error("MEM005: Referenced UTXO Already Spent by Pending Transaction - Unable to Add to Mempool");
+                return false;
+            }
+        }
+
+        Entry entry = new Entry(transaction, sequence.getAndIncrement());
+        entries.put(transaction.getTransactionId(), entry);
+        byFeeRate.add(entry);
+
+        for (TransactionInput input : transaction.getInputs()) {
+            if (!chain.getUTXOs().containsKey(input.getTransactionOutputId())) {
+                remove(transaction.getTransactionId());
+                EventLog.error("MEM004: Referenced UTXO Spent While Adding - Unable to Add to Mempool");
+                return false;
+            }
+        }
+
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * Removes a pending transaction and releases the outputs it claimed.
+     * @param transactionId The ID of the transaction.
+     * @return The removed transaction, or null if it was not pending.
+     */
+    public Transaction remove(Digest transactionId) {
+        Entry entry = entries.remove(transactionId);
+
+        if (entry == null) {
+            return null;
+        }
+
+        byFeeRate.remove(entry);
+
+        for (TransactionInput input : entry.getTransaction().getInputs()) {
+            claimedOutputs.remove(input.getTransactionOutputId(), transactionId);
+        }
+
+        return entry.getTransaction();
+    }
+
+    /**
+     * Removes the transactions of a confirmed block, and any pending transaction that spends an output the block spent.
+     * @param block The confirmed block.
+     */
+    public void removeConfirmed(Block block) {
+        for (Transaction transaction : block.getTransactions()) {
+            remove(transaction.getTransactionId());
+
+            for (TransactionInput input : transaction.getInputs()) {
+                Digest conflicting = claimedOutputs.get(input.getTransactionOutputId());
+
+                if (conflicting != null) {
+                    remove(conflicting);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes any pending transaction that spends an output created by a block leaving the active chain.
+     * @param block The disconnected block.
+     */
+    public void removeDependents(Block block) {
+        for (Transaction transaction : block.getTransactions()) {
+            for (TransactionOutput output : transaction.getOutputs()) {
+                Digest dependent = claimedOutputs.get(output.getId());
+
+                if (dependent != null) {
+                    remove(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a block template from the pending transactions in a single pass in fee rate order.
+     * Transactions that would exceed the size limit are skipped so that smaller ones further down can still fill the block.
+     * Each transaction is checked again with Blockchain.findTransactionError against the current UTXO set and the
+     * outputs spent earlier in the template, and entries that fail are evicted.
+     * @param previousBlockHash The hash of the block the template builds on.
+     * @param maxBlockSize The maximum size of the block in bytes, including its header.
+     * @return The unmined block template.
+     */
+    public Block buildBlock(Digest previousBlockHash, int maxBlockSize) {
+        Block block = new Block(previousBlockHash);
+        int blockSize = HeaderHasher.HEADER_SIZE;
+        HashSet<Digest> spent = new HashSet<>();
+        HashSet<Digest> created = new HashSet<>();
+        ArrayList<Digest> stale = new ArrayList<>();
+
+        for (Entry entry : byFeeRate) {
+            if (blockSize + entry.getSize() > maxBlockSize) {
+                continue;
+            }
+
+            Transaction transaction = entry.getTransaction();
+
+            if (Blockchain.findTransactionError(transaction, true, chain.getUTXOs()::get, spent, created) != null || !block.addTransaction(transaction)) {
+                // Undo the spends and creations the failed check recorded, so they cannot fail later transactions.
+                // Each output is claimed by one pending transaction at most, so no earlier one spent these inputs.
+                for (TransactionInput input : transaction.getInputs()) {
+                    spent.remove(input.getTransactionOutputId());
+                }
+
+                for (TransactionOutput output : transaction.getOutputs()) {
+                    created.remove(output.getId());
+                }
+
+                stale.add(transaction.getTransactionId());
+                continue;
+            }
+
+            blockSize += entry.getSize();
+        }
+
+        for (Digest transactionId : stale) {
+            remove(transactionId);
+            EventLog.error("MEM007: Pending Transaction No Longer Valid - Removed from Mempool");
+        }
+
+        return block;
+    }
+
+    /**
+     * Checks if a transaction is pending.
+     * @param transactionId The ID of the transaction.
+     * @return True if the transaction is in the pool, false otherwise.
+     */
+    public boolean contains(Digest transactionId) {
+        return entries.containsKey(transactionId);
+    }
+
+    /**
+     * Returns a pending transaction.
+     * @param transactionId The ID of the transaction.
+     * @return The transaction, or null if it is not pending.
+     */
+    public Transaction get(Digest transactionId) {
+        Entry entry = entries.get(transactionId);
+        return entry == null ? null : entry.getTransaction();
+    }
+
+    /**
+     * Returns the number of pending transactions.
+     * @return The number of pending transactions.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all pending transactions.
+     */
+    public void clear() {
+        entries.clear();
+        claimedOutputs.clear();
+        byFeeRate.clear();
+    }
+
+    /**
+     * A pending transaction with its size and fee rate computed once on entry.
+     */
+    private static class Entry {
+
+        private Transaction transaction; // The pending transaction.
+        private int size; // The size of the transaction in bytes.
+        private double feeRate; // The fee per byte of the transaction.
+        private long sequence; // The arrival order of the transaction.
+
+        /**
+         * Constructs an Entry for a transaction.
+         * @param transaction The pending transaction.
+         * @param sequence The arrival order of the transaction.
+         */
+        Entry(Transaction transaction, long sequence) {
+            this.transaction = transaction;
+            this.size = transaction.calculateTransactionSize();
+            this.feeRate = size == 0 ? 0 : (double) transaction.getFee() / size;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Returns the pending transaction.
+         * @return The pending transaction.
+         */
+        Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * Returns the size of the transaction in bytes.
+         * @return The size of the transaction in bytes.
+         */
+        int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the fee per byte of the transaction.
+         * @return The fee per byte of the transaction.
+         */
+        double getFeeRate() {
+            return feeRate;
+        }
+
+        /**
+         * Returns the arrival order of the transaction.
+         * @return The arrival order of the transaction.
+         */
+        long getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package henrycaldwell;
+
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Represents a Merkle inclusion proof for a single transaction.
+ */
+public class MerkleProof {
+
+    private Digest transactionId; // The ID of the proven transaction.
+    private int index; // The position of the transaction among the block's leaves.
+    private List<Digest> siblings; // The sibling hashes on the path from the leaf to the root, bottom-up.
+
+    /**
+     * Constructs a MerkleProof with the specified leaf and sibling path.
+     * @param transactionId The ID of the proven transaction.
+     * @param index The position of the transaction among the leaves.
+     * @param siblings The sibling hashes from the leaf to the root.
+     */
+    public MerkleProof(Digest transactionId, int index, List<Digest> siblings) {
+        this.transactionId = transactionId;
+        this.index = index;
+        this.siblings = new ArrayList<>(siblings);
+    }
+
+    /**
+     * Recomputes the root from the leaf and sibling path and compares it to the expected root.
+     * @param merkleRoot The expected Merkle root.
+     * @return True if the proof leads to the expected root, false otherwise.
+     */
+    public boolean verify(Digest merkleRoot) {
+        Digest hash = transactionId;
+        int position = index;
+
+        for (Digest sibling : siblings) {
+            hash = (position & 1) == 0 ? SecurityUtil.hashPair(hash, sibling) : SecurityUtil.hashPair(sibling, hash);
+            position >>>= 1;
+        }
+
+        return hash.equals(merkleRoot);
+    }
+
+    /**
+     * Returns the ID of the proven transaction.
+     * @return The transaction ID.
+     */
+    public Digest getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Returns the position of the transaction among the leaves.
+     * @return The leaf index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the sibling hashes from the leaf to the root.
+     * @return The sibling hashes.
+     */
+    public List<Digest> getSiblings() {
+        return siblings;
+    }
+
+    @Override
+    public String toString() {
+        return "MerkleProof{" +
+                "transactionId=" + transactionId +
+                ", index=" + index +
+                ", siblings=" + siblings +
+                '}';
+    }
+}
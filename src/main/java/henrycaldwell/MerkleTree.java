@@ -0,0 +1,103 @@
+package henrycaldwell;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Binary Merkle tree over transaction IDs that keeps its intermediate layers so appends only rehash one path.
+ * A node is the hash of its two children concatenated; a node without a right sibling is paired with itself.
+ */
+public class MerkleTree {
+
+    private ArrayList<ArrayList<Digest>> layers = new ArrayList<>(); // The tree layers, leaves first.
+    private HashMap<Digest, Integer> leafIndex = new HashMap<>(); // The position of each transaction ID among the leaves.
+
+    /**
+     * Appends a transaction ID as a new leaf and updates the O(log n) nodes on its path to the root.
+     * @param transactionId The ID of the transaction to add.
+     */
+    public void add(Digest transactionId) {
+        ChainEvents.MerkleRootComputed event = new ChainEvents.MerkleRootComputed();
+        event.begin();
+
+        if (layers.isEmpty()) {
+            layers.add(new ArrayList<>());
+        }
+
+        leafIndex.put(transactionId, layers.get(0).size());
+        layers.get(0).add(transactionId);
+
+        int index = layers.get(0).size() - 1;
+
+        for (int level = 0; layers.get(level).size() > 1; level++) {
+            ArrayList<Digest> layer = layers.get(level);
+            Digest left = layer.get(index & ~1);
+            Digest right = (index | 1) < layer.size() ? layer.get(index | 1) : left;
+            Digest parent = SecurityUtil.hashPair(left, right);
+
+            if (layers.size() == level + 1) {
+                layers.add(new ArrayList<>());
+            }
+
+            ArrayList<Digest> parentLayer = layers.get(level + 1);
+            index >>>= 1;
+
+            if (index < parentLayer.size()) {
+                parentLayer.set(index, parent);
+            } else {
+                parentLayer.add(parent);
+            }
+        }
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.leaves = layers.get(0).size();
+            event.hashes = layers.size() - 1;
+            event.incremental = true;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the Merkle root.
+     * @return The Merkle root, or null if the tree has no leaves.
+     */
+    public Digest getRoot() {
+        return layers.isEmpty() ? null : layers.get(layers.size() - 1).get(0);
+    }
+
+    /**
+     * Builds an inclusion proof for a transaction in the tree.
+     * @param transactionId The ID of the transaction.
+     * @return The inclusion proof, or null if the transaction is not in the tree.
+     */
+    public MerkleProof getProof(Digest transactionId) {
+        Integer leaf = leafIndex.get(transactionId);
+
+        if (leaf == null) {
+            return null;
+        }
+
+        List<Digest> siblings = new ArrayList<>();
+        int index = leaf;
+
+        for (int level = 0; level < layers.size() - 1; level++) {
+            ArrayList<Digest> layer = layers.get(level);
+            int sibling = index ^ 1;
+            siblings.add(sibling < layer.size() ? layer.get(sibling) : layer.get(index));
+            index >>>= 1;
+        }
+
+        return new MerkleProof(transactionId, leaf, siblings);
+    }
+
+    /**
+     * Returns the number of leaves in the tree.
+     * @return The number of leaves.
+     */
+    public int size() {
+        return layers.isEmpty() ? 0 : layers.get(0).size();
+    }
+}
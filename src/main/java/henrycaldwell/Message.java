@@ -0,0 +1,268 @@
+package henrycaldwell;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a message exchanged between nodes.
+ * On the wire a message is framed as a 4-byte length, a 1-byte type and the payload, all big-endian.
+ * Blocks and transactions are carried in their BlockCodec encoding, so the network format is the storage format.
+ */
+public class Message {
+
+    public static final byte VERSION = 0; // Handshake: protocol version, listening port, chain height and genesis hash.
+    public static final byte VERACK = 1; // Handshake acknowledgement, empty.
+    public static final byte INV = 2; // Announces the hashes of blocks and transactions the sender has.
+    public static final byte GETDATA = 3; // Requests blocks and transactions by hash.
+    public static final byte BLOCK = 4; // One encoded block.
+    public static final byte TX = 5; // One encoded transaction.
+    public static final byte GETHEADERS = 6; // Requests the headers following the first locator hash on the receiver's chain.
+    public static final byte HEADERS = 7; // A run of consecutive headers.
+    public static final byte NOTFOUND = 8; // The items of a GETDATA the sender does not have.
+
+    public static final byte INV_TX = 1; // Inventory type of a transaction.
+    public static final byte INV_BLOCK = 2; // Inventory type of a block.
+
+    public static final int MAX_SIZE = 32 << 20; // The maximum framed length accepted from a peer.
+
+    private byte type; // The message type.
+    private byte[] payload; // The encoded payload.
+
+    /**
+     * Constructs a message.
+     * @param type The message type.
+     * @param payload The encoded payload.
+     */
+    public Message(byte type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * Creates a handshake message.
+     * @param listenPort The port the sender accepts connections on.
+     * @param height The height of the sender's tip, or -1 if its chain is empty.
+     * @param genesisHash The hash of the sender's genesis block, or null if its chain is empty.
+     * @return The message.
+     */
+    public static Message version(int listenPort, int height, Digest genesisHash) {
+        ByteWriter writer = new ByteWriter(64);
+        writer.writeInt(Node.PROTOCOL_VERSION);
+        writer.writeInt(listenPort);
+        writer.writeInt(height);
+        writer.writeHash(genesisHash);
+        return new Message(VERSION, writer.toByteArray());
+    }
+
+    /**
+     * Creates an inventory message, used for INV, GETDATA and NOTFOUND.
+     * @param type The message type.
+     * @param items The inventory items.
+     * @return The message.
+     */
+    public static Message inventory(byte type, List<Item> items) {
+        ByteWriter writer = new ByteWriter(4 + items.size() * (2 + Digest.SIZE));
+        writer.writeInt(items.size());
+
+        for (Item item : items) {
+            writer.writeByte(item.getType());
+            writer.writeHash(item.getHash());
+        }
+
+        return new Message(type, writer.toByteArray());
+    }
+
+    /**
+     * Creates a message carrying a block.
+     * @param block The block.
+     * @return The message.
+     */
+    public static Message block(Block block) {
+        ByteWriter writer = new ByteWriter();
+        BlockCodec.encodeBlock(block, writer);
+        return new Message(BLOCK, writer.toByteArray());
+    }
+
+    /**
+     * Creates a message carrying a transaction.
+     * @param transaction The transaction.
+     * @return The message.
+     */
+    public static Message transaction(Transaction transaction) {
+        ByteWriter writer = new ByteWriter();
+        BlockCodec.encodeTransaction(transaction, writer);
+        return new Message(TX, writer.toByteArray());
+    }
+
+    /**
+     * Creates a header request.
+     * @param locator Hashes of the sender's chain from the tip backwards, thinning out towards the genesis block.
+     * @return The message.
+     */
+    public static Message getHeaders(List<Digest> locator) {
+        ByteWriter writer = new ByteWriter(4 + locator.size() * (1 + Digest.SIZE));
+        writer.writeInt(locator.size());
+
+        for (Digest hash : locator) {
+            writer.writeHash(hash);
+        }
+
+        return new Message(GETHEADERS, writer.toByteArray());
+    }
+
+    /**
+     * Creates a message carrying consecutive headers.
+     * @param headers The headers, each the parent of the next.
+     * @return The message.
+     */
+    public static Message headers(List<BlockHeader> headers) {
+        ByteWriter writer = new ByteWriter(4 + headers.size() * 128);
+        writer.writeInt(headers.size());
+
+        for (BlockHeader header : headers) {
+            BlockCodec.encodeHeader(header, writer);
+        }
+
+        return new Message(HEADERS, writer.toByteArray());
+    }
+
+    /**
+     * Decodes the payload of an inventory message.
+     * @return The inventory items.
+     */
+    public List<Item> readInventory() {
+        ByteReader reader = new ByteReader(payload);
+        int count = reader.readCount(1 + 1);
+        ArrayList<Item> items = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            byte itemType = reader.readByte();
+            items.add(new Item(itemType, reader.readHash()));
+        }
+
+        return items;
+    }
+
+    /**
+     * Decodes the payload of a GETHEADERS message.
+     * @return The locator hashes.
+     */
+    public List<Digest> readLocator() {
+        ByteReader reader = new ByteReader(payload);
+        int count = reader.readCount(1);
+        ArrayList<Digest> locator = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            locator.add(reader.readHash());
+        }
+
+        return locator;
+    }
+
+    /**
+     * Decodes the payload of a HEADERS message.
+     * @return The headers.
+     */
+    public List<BlockHeader> readHeaders() {
+        ByteReader reader = new ByteReader(payload);
+        int count = reader.readCount(1);
+        ArrayList<BlockHeader> headers = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            headers.add(BlockCodec.decodeHeader(reader));
+        }
+
+        return headers;
+    }
+
+    /**
+     * Frames the message for sending.
+     * @return A buffer holding the length, type and payload, ready to be written.
+     */
+    public ByteBuffer toBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + payload.length);
+        buffer.putInt(1 + payload.length);
+        buffer.put(type);
+        buffer.put(payload);
+        return buffer.flip();
+    }
+
+    /**
+     * Takes the next complete frame out of a buffer of received bytes.
+     * @param buffer The received bytes, in read mode. A complete frame is consumed, a partial one is left in place.
+     * @return The message, or null if the buffer does not hold a complete frame yet.
+     */
+    public static Message read(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+
+        int length = buffer.getInt(buffer.position());
+
+        if (length < 1 || length > MAX_SIZE) {
+            throw new IllegalStateException("Invalid message length " + length);
+        }
+
+        if (buffer.remaining() < 4 + length) {
+            return null;
+        }
+
+        buffer.position(buffer.position() + 4);
+        byte type = buffer.get();
+        byte[] payload = new byte[length - 1];
+        buffer.get(payload);
+        return new Message(type, payload);
+    }
+
+    /**
+     * Returns the message type.
+     * @return The message type.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Returns the encoded payload.
+     * @return The encoded payload.
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Represents an inventory item: the type and hash of a block or transaction.
+     */
+    public static class Item {
+
+        private byte type; // The inventory type, INV_TX or INV_BLOCK.
+        private Digest hash; // The block hash or transaction ID.
+
+        /**
+         * Constructs an inventory item.
+         * @param type The inventory type, INV_TX or INV_BLOCK.
+         * @param hash The block hash or transaction ID.
+         */
+        public Item(byte type, Digest hash) {
+            this.type = type;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns the inventory type.
+         * @return The inventory type.
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Returns the block hash or transaction ID.
+         * @return The hash.
+         */
+        public Digest getHash() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package henrycaldwell;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the node's counters, gauges and latency histograms.
+ * Recording never locks: counters are striped LongAdders and histograms add to atomic buckets, so hot paths can
+ * record from many threads without contending. Metrics are looked up by name once and kept in a field by the
+ * recording class. Names may carry labels in the text format's {key="value"} syntax.
+ * An exporter reads the registry through toText or toJson.
+ */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>(); // The counters by name.
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>(); // The gauges by name.
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>(); // The histograms by name.
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99}; // The quantiles exported for each histogram.
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     * @param name The name of the counter.
+     * @return The counter.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Registers a gauge read from a supplier whenever the metrics are exported, replacing any gauge of the same name.
+     * @param name The name of the gauge.
+     * @param supplier The supplier of the current value.
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it on first use.
+     * @param name The name of the histogram.
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format, one sample per line, sorted by name.
+     * Histograms are rendered as summaries of their quantiles, count, sum and maximum.
+     * @return The metrics as text.
+     */
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue().getAsLong()).append('\n');
+        }
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+
+            for (double quantile : QUANTILES) {
+                text.append(withLabel(name, "quantile", Double.toString(quantile))).append(' ').append(histogram.getQuantile(quantile)).append('\n');
+            }
+
+            text.append(withSuffix(name, "_count")).append(' ').append(histogram.getCount()).append('\n');
+            text.append(withSuffix(name, "_sum")).append(' ').append(histogram.getSum()).append('\n');
+            text.append(withSuffix(name, "_max")).append(' ').append(histogram.getMax()).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Renders every metric as a JSON object with counters, gauges and histograms sections, sorted by name.
+     * @return The metrics as JSON.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        String separator = "";
+
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(':').append(entry.getValue().get());
+            separator = ",";
+        }
+
+        json.append("},\"gauges\":{");
+        separator = "";
+
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(':').append(entry.getValue().getAsLong());
+            separator = ",";
+        }
+
+        json.append("},\"histograms\":{");
+        separator = "";
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            json.append(separator).append(quote(entry.getKey())).append(":{\"count\":").append(histogram.getCount())
+                    .append(",\"sum\":").append(histogram.getSum()).append(",\"max\":").append(histogram.getMax());
+
+            for (double quantile : QUANTILES) {
+                json.append(",\"p").append(Math.round(quantile * 100)).append("\":").append(histogram.getQuantile(quantile));
+            }
+
+            json.append('}');
+            separator = ",";
+        }
+
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Quotes a string for JSON, escaping quotes and backslashes.
+     * @param text The string.
+     * @return The quoted string.
+     */
+    public static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Adds a label to a metric name, merging it into the name's existing labels.
+     * @param name The metric name, with or without labels.
+     * @param key The label key.
+     * @param value The label value.
+     * @return The labelled name.
+     */
+    private static String withLabel(String name, String key, String value) {
+        String label = key + "=\"" + value + "\"";
+        int brace = name.indexOf('{');
+        return brace < 0 ? name + "{" + label + "}" : name.substring(0, name.length() - 1) + "," + label + "}";
+    }
+
+    /**
+     * Appends a suffix to a metric name before its labels.
+     * @param name The metric name, with or without labels.
+     * @param suffix The suffix.
+     * @return The suffixed name.
+     */
+    private static String withSuffix(String name, String suffix) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name + suffix : name.substring(0, brace) + suffix + name.substring(brace);
+    }
+
+    /**
+     * Represents a monotonically increasing count.
+     */
+    public static class Counter {
+
+        private final LongAdder value = new LongAdder(); // The count, striped across threads.
+
+        /**
+         * Adds one to the count.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Adds an amount to the count.
+         * @param amount The amount to add.
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * Returns the count.
+         * @return The sum of all increments.
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Represents a distribution of non-negative values, usually latencies in nanoseconds.
+     * Values are counted in log-linear buckets: four buckets per power of two, so a quantile is reported as the lower
+     * bound of its bucket, at most 25% below the true value. Recording is three atomic additions and no allocation.
+     */
+    public static class Histogram {
+
+        private static final int SUB_BUCKETS = 4; // The number of buckets per power of two.
+        private static final int BUCKETS = 64 * SUB_BUCKETS; // The number of buckets covering all non-negative longs.
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS); // The number of values in each bucket.
+        private final LongAdder count = new LongAdder(); // The number of values recorded.
+        private final LongAdder sum = new LongAdder(); // The sum of the values recorded.
+        private final AtomicLong max = new AtomicLong(); // The largest value recorded.
+
+        /**
+         * Records a value. Negative values are recorded as zero.
+         * @param value The value.
+         */
+        public void record(long value) {
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+
+            long current;
+
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Retry until the maximum is at least the value.
+            }
+        }
+
+        /**
+         * Records the time elapsed since a start time.
+         * @param startNanos The start time, as returned by System.nanoTime.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Returns the number of values recorded.
+         * @return The count.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the sum of the values recorded.
+         * @return The sum.
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Returns the largest value recorded.
+         * @return The maximum, or 0 if nothing was recorded.
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns an approximate quantile of the values recorded.
+         * @param quantile The quantile, from 0 to 1.
+         * @return The lower bound of the bucket holding the quantile, or 0 if nothing was recorded.
+         */
+        public long getQuantile(double quantile) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+
+                if (seen >= rank && seen > 0) {
+                    return lowerBound(i);
+                }
+            }
+
+            return 0;
+        }
+
+        /**
+         * Returns the bucket of a value: its power of two and the two bits below the leading one.
+         * @param value The non-negative value.
+         * @return The bucket index.
+         */
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return exponent * SUB_BUCKETS + (int) (value >>> (exponent - 2) & (SUB_BUCKETS - 1));
+        }
+
+        /**
+         * Returns the smallest value counted in a bucket.
+         * @param bucket The bucket index.
+         * @return The lower bound of the bucket.
+         */
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (bucket / SUB_BUCKETS - 2);
+        }
+    }
+}
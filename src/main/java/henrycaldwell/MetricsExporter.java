@@ -0,0 +1,18 @@
+package henrycaldwell;
+
+/**
+ * Publishes the Metrics registry to a monitoring system.
+ * Exporters only read the registry, so any number may run at once and recording code never depends on them.
+ */
+public interface MetricsExporter {
+
+    /**
+     * Starts publishing metrics.
+     */
+    void start();
+
+    /**
+     * Stops publishing metrics and releases the exporter's resources.
+     */
+    void close();
+}
@@ -0,0 +1,133 @@
+package henrycaldwell;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parallel proof-of-work engine that splits the nonce space across a fixed pool of worker threads.
+ * Concurrent calls to mine share the pool, so each search waits for the workers of the searches submitted before it;
+ * callers that need to mine independently should each construct their own Miner.
+ */
+public class Miner {
+
+    public static final long NONCE_SPACE = 1L << 32; // The number of distinct nonce values, all hashed by a search that finds no solution.
+
+    private static final Metrics.Counter hashes = Metrics.counter("mining_hashes_total"); // The hashes computed by all miners.
+    private static final Metrics.Histogram searches = Metrics.histogram("mining_search_nanos"); // The duration of each nonce search.
+
+    private final int threads; // The number of worker threads.
+    private final ExecutorService executor; // The pool running the workers.
+    private volatile long hashRate; // The hashes per second of the last search.
+
+    /**
+     * Constructs a Miner backed by the specified number of worker threads.
+     * @param threads The number of worker threads.
+     */
+    public Miner(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Miner requires at least one thread");
+        }
+
+        AtomicInteger created = new AtomicInteger();
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "miner-" + created.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Searches the nonce space of a block for a hash that meets the block's target.
+     * Worker w tries the nonces w, w + threads, w + 2 * threads, ... and all workers stop as soon as one of them finds a solution.
+     * Searches running at the same time on one Miner are serialized by its pool.
+     * @param block The block to mine, with its compact target set.
+     * @return The winning nonce and hash, or null if the whole nonce space was exhausted.
+     */
+    public MiningResult mine(Block block) {
+        long startNanos = System.nanoTime();
+        byte[] target = Target.toBytes(block.getBits());
+        AtomicReference<MiningResult> solution = new AtomicReference<>();
+        AtomicLong attempts = new AtomicLong();
+        List<Future<?>> workers = new ArrayList<>();
+
+        for (int w = 0; w < threads; w++) {
+            final long start = w;
+            workers.add(executor.submit(() -> search(block, target, start, solution, attempts)));
+        }
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        long elapsed = Math.max(System.nanoTime() - startNanos, 1);
+        hashes.add(attempts.get());
+        searches.record(elapsed);
+        hashRate = attempts.get() * 1000000000L / elapsed;
+
+        MiningResult result = solution.get();
+        return result == null ? null : new MiningResult(result.getNonce(), result.getHash(), attempts.get());
+    }
+
+    /**
+     * Searches one stride of the nonce space until a solution is found by any worker.
+     * The loop hashes the binary header through a worker-owned HeaderHasher and allocates nothing per attempt.
+     * @param block The block to mine.
+     * @param target The target as 32 big-endian bytes.
+     * @param start The first nonce tried by this worker.
+     * @param solution The shared slot holding the first solution found.
+     * @param attempts The shared counter of computed hashes.
+     */
+    private void search(Block block, byte[] target, long start, AtomicReference<MiningResult> solution, AtomicLong attempts) {
+        HeaderHasher hasher = new HeaderHasher(block);
+        long count = 0;
+
+        for (long n = start; n < NONCE_SPACE && solution.get() == null; n += threads) {
+            byte[] digest = hasher.hash((int) n);
+            count++;
+
+            if (HeaderHasher.meetsTarget(digest, target)) {
+                solution.compareAndSet(null, new MiningResult((int) n, Digest.of(digest), 0));
+                break;
+            }
+        }
+
+        attempts.addAndGet(count);
+    }
+
+    /**
+     * Returns the number of worker threads.
+     * @return The number of worker threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the hash rate measured over the last search.
+     * @return The hashes per second, or 0 before the first search.
+     */
+    public long getHashRate() {
+        return hashRate;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
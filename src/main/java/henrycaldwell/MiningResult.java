@@ -0,0 +1,56 @@
+package henrycaldwell;
+
+/**
+ * Represents the outcome of a proof-of-work search.
+ */
+public class MiningResult {
+
+    private int nonce; // The winning nonce value.
+    private Digest hash; // The block hash produced by the winning nonce.
+    private long attempts; // The number of hashes computed by all workers.
+
+    /**
+     * Constructs a MiningResult with the specified nonce, hash, and attempt count.
+     * @param nonce The winning nonce value.
+     * @param hash The block hash produced by the winning nonce.
+     * @param attempts The number of hashes computed by all workers.
+     */
+    public MiningResult(int nonce, Digest hash, long attempts) {
+        this.nonce = nonce;
+        this.hash = hash;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Returns the winning nonce.
+     * @return The winning nonce.
+     */
+    public int getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Returns the block hash produced by the winning nonce.
+     * @return The block hash.
+     */
+    public Digest getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the number of hashes computed by all workers.
+     * @return The number of attempts.
+     */
+    public long getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "MiningResult{" +
+                "nonce=" + nonce +
+                ", hash=" + hash +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
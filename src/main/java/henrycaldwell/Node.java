@@ -0,0 +1,746 @@
+package henrycaldwell;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import java.security.Security;
+
+/**
+ * Represents a network node relaying blocks and transactions between peers over TCP.
+ * A single selector thread does all socket I/O without blocking, and a single handler thread processes the received
+ * messages in order, so block validation never stalls the network and the download state needs no locking.
+ * Transactions are gossiped by inventory: their IDs are announced and the bodies are fetched on demand.
+ * Blocks are synced headers first: an announced block triggers a header request, and the headers feed a SyncPipeline
+ * whose bodies are downloaded in parallel, spread over the least busy peers.
+ */
+public class Node {
+
+    public static final int PROTOCOL_VERSION = 1; // The protocol version sent in the handshake.
+    public static final int MAX_HEADERS = 2000; // The maximum number of headers in one HEADERS message.
+    public static final int MAX_IN_FLIGHT = 16; // The maximum number of blocks requested from one peer at a time.
+    public static final int SYNC_BUFFER_SIZE = 256; // The maximum number of block bodies held ahead of the apply stage.
+    public static final int MAX_PENDING_HEADERS = 4 * MAX_HEADERS; // The maximum number of unapplied headers held by the sync pipeline.
+    public static final int MAX_BLOCK_SIZE = 1 << 20; // The maximum size of a mined block in bytes.
+
+    private Blockchain chain; // The blockchain the node syncs and serves.
+    private int port; // The port the node accepts connections on.
+    private Selector selector; // The selector multiplexing every socket.
+    private ServerSocketChannel server; // The listening socket.
+    private Thread selectorThread; // The thread doing all socket I/O.
+    private ExecutorService handler = Executors.newSingleThreadExecutor(); // The thread processing received messages in order.
+    private ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>(); // The work other threads hand to the selector thread.
+    private CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<>(); // The connected peers.
+    private volatile boolean running; // Whether the selector thread should keep running.
+
+    private SyncPipeline pipeline; // The headers-first block sync.
+    private Peer headersPeer; // The peer whose next run of headers waits for room in the pipeline, or null.
+
+    /**
+     * Constructs a Node listening on the given port. The node does nothing until started.
+     * @param chain The blockchain the node syncs and serves.
+     * @param port The port to accept connections on.
+     */
+    public Node(Blockchain chain, int port) {
+        this.chain = chain;
+        this.port = port;
+        this.pipeline = new SyncPipeline(chain, SYNC_BUFFER_SIZE, MAX_PENDING_HEADERS, Runtime.getRuntime().availableProcessors(), block -> handler.execute(() -> {
+            relay(new Message.Item(Message.INV_BLOCK, block.getHash()), null);
+            requestHeadersIfRoom();
+            scheduleDownloads();
+        }));
+    }
+
+    /**
+     * Opens the listening socket and starts the selector thread.
+     */
+    public void start() {
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        pipeline.start();
+        running = true;
+        selectorThread = new Thread(this::run, "node-" + port);
+        selectorThread.start();
+    }
+
+    /**
+     * Opens a connection to another node. The handshake starts once the connection is established.
+     * @param host The host of the other node.
+     * @param port The port of the other node.
+     */
+    public void connect(String host, int port) {
+        selectorTasks.add(() -> {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(new InetSocketAddress(host, port));
+                SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+                key.attach(new Peer(channel, key, host + ":" + port, true));
+            } catch (IOException | RuntimeException e) {
+                EventLog.error("NET004: Connection Failed - Peer Not Added");
+            }
+        });
+        selector.wakeup();
+    }
+
+    /**
+     * Announces a block accepted by this node, such as one it mined, to every peer.
+     * @param block The block.
+     */
+    public void announce(Block block) {
+        handler.execute(() -> relay(new Message.Item(Message.INV_BLOCK, block.getHash()), null));
+    }
+
+    /**
+     * Announces a transaction added to this node's mempool to every peer.
+     * @param transaction The transaction.
+     */
+    public void announce(Transaction transaction) {
+        handler.execute(() -> relay(new Message.Item(Message.INV_TX, transaction.getTransactionId()), null));
+    }
+
+    /**
+     * Mines one block on the active tip from the mempool, after adding a small payment from a wallet if it can afford it,
+     * and announces the block and the payment to every peer.
+     * @param payer The wallet making the payment.
+     * @param recipient The address paid.
+     * @return The mined block, or null if it was not accepted.
+     */
+    public Block mine(Wallet payer, Address recipient) {
+        if (payer.getBalance() > Blockchain.COIN) {
+            Transaction transaction = payer.sendFunds(recipient, Blockchain.COIN);
+
+            if (chain.getMempool().add(transaction)) {
+                announce(transaction);
+            }
+        }
+
+        Block block = chain.getMempool().buildBlock(chain.getChainIndex().getTip().getHash(), MAX_BLOCK_SIZE);
+
+        if (!chain.addBlock(block)) {
+            return null;
+        }
+
+        announce(block);
+        return block;
+    }
+
+    /**
+     * Returns the number of peers that completed the handshake.
+     * @return The number of ready peers.
+     */
+    public int getPeerCount() {
+        int count = 0;
+
+        for (Peer peer : peers) {
+            if (peer.isReady()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Stops the node and closes every connection.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            selectorThread.join();
+            server.close();
+            selector.close();
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (Peer peer : peers) {
+            peer.close();
+        }
+
+        pipeline.close();
+        handler.shutdown();
+    }
+
+    /**
+     * Returns the port the node accepts connections on.
+     * @return The port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the block sync pipeline, whose stages report their throughput.
+     * @return The pipeline.
+     */
+    public SyncPipeline getSyncPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Runs the selector loop: accepts connections, finishes outgoing connects, frames received bytes into messages for
+     * the handler thread and writes queued messages.
+     */
+    private void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+            } catch (IOException e) {
+                EventLog.error("NET006: Selector Failed - Selection Retried");
+            }
+
+            Runnable task;
+
+            while ((task = selectorTasks.poll()) != null) {
+                task.run();
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                Peer peer = (Peer) key.attachment();
+
+                try {
+                    if (key.isConnectable()) {
+                        peer.getChannel().finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                        peers.add(peer);
+                        handler.execute(() -> peer.send(Message.version(port, chainIndexHeight(), genesisHash())));
+                    }
+
+                    if (key.isValid() && key.isReadable()) {
+                        List<Message> messages = peer.read();
+
+                        if (messages == null) {
+                            disconnect(peer);
+                            continue;
+                        }
+
+                        for (Message message : messages) {
+                            handler.execute(() -> handle(peer, message));
+                        }
+                    }
+
+                    if (key.isValid() && key.isWritable()) {
+                        peer.write();
+                    }
+                } catch (IOException e) {
+                    if (!peers.contains(peer)) {
+                        EventLog.error("NET004: Connection Failed - Peer Not Added");
+                    }
+
+                    disconnect(peer);
+                } catch (RuntimeException e) {
+                    EventLog.error("NET002: Malformed Message - Peer Disconnected");
+                    disconnect(peer);
+                }
+            }
+
+            selector.selectedKeys().clear();
+
+            for (Peer peer : peers) {
+                if (peer.isOverflowed()) {
+                    EventLog.error("NET007: Peer Not Reading - Peer Disconnected");
+                    disconnect(peer);
+                } else {
+                    peer.updateInterest();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts an incoming connection. The connecting node sends its VERSION first.
+     * A failure, such as a connection reset before it is accepted or running out of file descriptors, only closes that
+     * connection, so the selector thread keeps serving the others.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+
+        try {
+            channel = server.accept();
+
+            if (channel == null) {
+                return;
+            }
+
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Peer peer = new Peer(channel, key, channel.getRemoteAddress().toString(), false);
+            key.attach(peer);
+            peers.add(peer);
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    // The channel is dropped either way.
+                }
+            }
+
+            EventLog.error("NET005: Incoming Connection Failed - Connection Closed");
+        }
+    }
+
+    /**
+     * Closes a connection and hands the peer's unfinished downloads back to the queue.
+     * @param peer The peer.
+     */
+    private void disconnect(Peer peer) {
+        peer.close();
+
+        if (!peers.remove(peer)) {
+            return;
+        }
+
+        handler.execute(() -> {
+            for (Digest hash : peer.getInFlight()) {
+                pipeline.requeue(hash);
+            }
+
+            peer.getInFlight().clear();
+
+            if (headersPeer == peer) {
+                headersPeer = null;
+            }
+
+            EventLog.info("Disconnected from peer " + peer);
+            scheduleDownloads();
+        });
+    }
+
+    /**
+     * Processes one received message. Called by the handler thread.
+     * @param peer The peer that sent the message.
+     * @param message The message.
+     */
+    private void handle(Peer peer, Message message) {
+        if (!peers.contains(peer)) {
+            return;
+        }
+
+        try {
+            switch (message.getType()) {
+                case Message.VERSION -> handleVersion(peer, message);
+                case Message.VERACK -> {
+                    peer.setVerackReceived();
+                    onReady(peer);
+                }
+                default -> {
+                    if (peer.isReady()) {
+                        handleRelay(peer, message);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            EventLog.error("NET002: Malformed Message - Peer Disconnected");
+            disconnect(peer);
+        }
+    }
+
+    /**
+     * Processes a message exchanged after the handshake.
+     * @param peer The peer that sent the message.
+     * @param message The message.
+     */
+    private void handleRelay(Peer peer, Message message) {
+        switch (message.getType()) {
+            case Message.INV -> handleInventory(peer, message.readInventory());
+            case Message.GETDATA -> handleGetData(peer, message.readInventory());
+            case Message.NOTFOUND -> handleNotFound(peer, message.readInventory());
+            case Message.BLOCK -> handleBlock(peer, BlockCodec.decodeBlock(new ByteReader(message.getPayload())));
+            case Message.TX -> handleTransaction(peer, BlockCodec.decodeTransaction(new ByteReader(message.getPayload())));
+            case Message.GETHEADERS -> handleGetHeaders(peer, message.readLocator());
+            case Message.HEADERS -> handleHeaders(peer, message.readHeaders());
+            default -> throw new IllegalStateException("Unknown message type " + message.getType());
+        }
+    }
+
+    /**
+     * Checks a peer's VERSION and acknowledges it. Peers on a different genesis block are disconnected.
+     * @param peer The peer.
+     * @param message The VERSION message.
+     */
+    private void handleVersion(Peer peer, Message message) {
+        ByteReader reader = new ByteReader(message.getPayload());
+        int version = reader.readInt();
+        int listenPort = reader.readInt();
+        int height = reader.readInt();
+        Digest genesis = reader.readHash();
+        Digest ourGenesis = genesisHash();
+
+        if (version != PROTOCOL_VERSION || (genesis != null && ourGenesis != null && !genesis.equals(ourGenesis))) {
+            EventLog.error("NET001: Incompatible Peer - Peer Disconnected");
+            disconnect(peer);
+            return;
+        }
+
+        if (peer.isVersionReceived()) {
+            return;
+        }
+
+        if (!peer.isOutbound()) {
+            peer.send(Message.version(port, chainIndexHeight(), ourGenesis));
+        }
+
+        peer.setVersion(listenPort, height);
+        peer.send(new Message(Message.VERACK, new byte[0]));
+        onReady(peer);
+    }
+
+    /**
+     * Starts syncing from a peer once both sides of the handshake are complete.
+     * @param peer The peer.
+     */
+    private void onReady(Peer peer) {
+        if (peer.isReady()) {
+            EventLog.info("Connected to peer " + peer + " at height " + peer.getHeight());
+            peer.send(Message.getHeaders(locator()));
+        }
+    }
+
+    /**
+     * Requests announced transactions that are not pending, and the headers leading to announced blocks that are not known.
+     * @param peer The peer.
+     * @param items The announced items.
+     */
+    private void handleInventory(Peer peer, List<Message.Item> items) {
+        ArrayList<Message.Item> wanted = new ArrayList<>();
+        boolean unknownBlock = false;
+
+        for (Message.Item item : items) {
+            if (item.getType() == Message.INV_TX && !chain.getMempool().contains(item.getHash())) {
+                wanted.add(item);
+            } else if (item.getType() == Message.INV_BLOCK && !chain.getBlockTree().hasBody(item.getHash()) && !pipeline.contains(item.getHash())) {
+                unknownBlock = true;
+            }
+        }
+
+        if (!wanted.isEmpty()) {
+            peer.send(Message.inventory(Message.GETDATA, wanted));
+        }
+
+        if (unknownBlock) {
+            peer.send(Message.getHeaders(locator()));
+        }
+    }
+
+    /**
+     * Sends the requested blocks of the active chain and pending transactions, and lists the rest as not found.
+     * @param peer The peer.
+     * @param items The requested items.
+     */
+    private void handleGetData(Peer peer, List<Message.Item> items) {
+        ArrayList<Message.Item> notFound = new ArrayList<>();
+
+        for (Message.Item item : items) {
+            if (item.getType() == Message.INV_BLOCK) {
+                Block block = chain.getBlock(item.getHash());
+
+                if (block != null) {
+                    peer.send(Message.block(block));
+                    continue;
+                }
+            } else {
+                Transaction transaction = chain.getMempool().get(item.getHash());
+
+                if (transaction != null) {
+                    peer.send(Message.transaction(transaction));
+                    continue;
+                }
+            }
+
+            notFound.add(item);
+        }
+
+        if (!notFound.isEmpty()) {
+            peer.send(Message.inventory(Message.NOTFOUND, notFound));
+        }
+    }
+
+    /**
+     * Moves blocks a peer did not have back to the queue, to be requested from another peer.
+     * @param peer The peer.
+     * @param items The items the peer did not have.
+     */
+    private void handleNotFound(Peer peer, List<Message.Item> items) {
+        for (Message.Item item : items) {
+            if (item.getType() == Message.INV_BLOCK && peer.getInFlight().remove(item.getHash())) {
+                peer.getMissing().add(item.getHash());
+                pipeline.requeue(item.getHash());
+            }
+        }
+
+        scheduleDownloads();
+    }
+
+    /**
+     * Sends the headers of the active chain following the first locator hash found on it.
+     * @param peer The peer.
+     * @param locator The peer's locator hashes.
+     */
+    private void handleGetHeaders(Peer peer, List<Digest> locator) {
+        int start = 0;
+
+        for (Digest hash : locator) {
+            int height = chain.getChainIndex().getHeight(hash);
+
+            if (height >= 0) {
+                start = height + 1;
+                break;
+            }
+        }
+
+        int end = Math.min(start + MAX_HEADERS, chain.getChainIndex().size());
+        ArrayList<BlockHeader> headers = new ArrayList<>(Math.max(end - start, 0));
+
+        for (int height = start; height < end; height++) {
+            headers.add(chain.getChainIndex().getHeader(height));
+        }
+
+        peer.send(Message.headers(headers));
+    }
+
+    /**
+     * Feeds a run of headers to the sync pipeline, and asks for the next run if this one was full.
+     * The next run is only requested once the pipeline has room for it, so a long chain is synced in bounded memory.
+     * @param peer The peer.
+     * @param headers The headers.
+     */
+    private void handleHeaders(Peer peer, List<BlockHeader> headers) {
+        if (!pipeline.addHeaders(headers)) {
+            EventLog.error("NET003: Invalid Block Data - Peer Disconnected");
+            disconnect(peer);
+            return;
+        }
+
+        if (headers.size() == MAX_HEADERS) {
+            headersPeer = peer;
+            requestHeadersIfRoom();
+        }
+
+        scheduleDownloads();
+    }
+
+    /**
+     * Requests the next run of headers from the peer that sent a full run, once the pipeline has room for it.
+     */
+    private void requestHeadersIfRoom() {
+        if (headersPeer != null && pipeline.hasRoom(MAX_HEADERS)) {
+            headersPeer.send(Message.getHeaders(locator()));
+            headersPeer = null;
+        }
+    }
+
+    /**
+     * Hands a received block body to the sync pipeline, which verifies and applies it in chain order.
+     * @param peer The peer that sent the block.
+     * @param block The block.
+     */
+    private void handleBlock(Peer peer, Block block) {
+        peer.getInFlight().remove(block.getHash());
+        pipeline.offerBody(block);
+        scheduleDownloads();
+    }
+
+    /**
+     * Adds a received transaction to the mempool and relays it if it was new and valid.
+     * @param peer The peer that sent the transaction.
+     * @param transaction The transaction.
+     */
+    private void handleTransaction(Peer peer, Transaction transaction) {
+        if (chain.getMempool().contains(transaction.getTransactionId())) {
+            return;
+        }
+
+        if (!SyncPipeline.isWellFormed(transaction)) {
+            EventLog.error("NET003: Invalid Block Data - Peer Disconnected");
+            disconnect(peer);
+            return;
+        }
+
+        if (chain.getMempool().add(transaction)) {
+            relay(new Message.Item(Message.INV_TX, transaction.getTransactionId()), peer);
+        }
+    }
+
+    /**
+     * Requests the pipeline's next bodies, each from the ready peer with the fewest blocks in flight that has not
+     * reported it missing. Stops when every peer is busy or the pipeline's window is full.
+     */
+    private void scheduleDownloads() {
+        HashMap<Peer, ArrayList<Message.Item>> requests = new HashMap<>();
+        Digest hash;
+
+        while ((hash = pipeline.nextDownload()) != null) {
+            Peer target = null;
+
+            for (Peer peer : peers) {
+                if (peer.isReady() && !peer.getMissing().contains(hash) && peer.getInFlight().size() < MAX_IN_FLIGHT
+                        && (target == null || peer.getInFlight().size() < target.getInFlight().size())) {
+                    target = peer;
+                }
+            }
+
+            if (target == null) {
+                pipeline.requeue(hash);
+                break;
+            }
+
+            target.getInFlight().add(hash);
+            requests.computeIfAbsent(target, peer -> new ArrayList<>()).add(new Message.Item(Message.INV_BLOCK, hash));
+        }
+
+        requests.forEach((peer, items) -> peer.send(Message.inventory(Message.GETDATA, items)));
+    }
+
+    /**
+     * Announces an item to every ready peer except the one it came from.
+     * @param item The item.
+     * @param source The peer the item came from, or null if it originated here.
+     */
+    private void relay(Message.Item item, Peer source) {
+        Message message = Message.inventory(Message.INV, List.of(item));
+
+        for (Peer peer : peers) {
+            if (peer != source && peer.isReady()) {
+                peer.send(message);
+            }
+        }
+    }
+
+    /**
+     * Returns the last header in the sync pipeline, then hashes of the active chain from the tip backwards,
+     * one per height for the last ten blocks and then at doubling steps, ending with the genesis block,
+     * so a peer finds the fork point in a single round trip.
+     * @return The locator hashes.
+     */
+    private List<Digest> locator() {
+        ArrayList<Digest> locator = new ArrayList<>();
+        int step = 1;
+
+        if (pipeline.getLastHash() != null) {
+            locator.add(pipeline.getLastHash());
+        }
+
+        for (int height = chain.getChainIndex().size() - 1; height >= 0; height -= step) {
+            locator.add(chain.getChainIndex().getHeader(height).getHash());
+
+            if (locator.size() >= 10) {
+                step *= 2;
+            }
+
+            if (height > 0 && height - step < 0) {
+                height = step; // Always end with the genesis block.
+            }
+        }
+
+        return locator;
+    }
+
+    /**
+     * Returns the height of the active tip.
+     * @return The height, or -1 if the chain is empty.
+     */
+    private int chainIndexHeight() {
+        return chain.getChainIndex().size() - 1;
+    }
+
+    /**
+     * Returns the hash of the genesis block.
+     * @return The hash, or null if the chain is empty.
+     */
+    private Digest genesisHash() {
+        return chain.getChainIndex().isEmpty() ? null : chain.getChainIndex().getHeader(0).getHash();
+    }
+
+    /**
+     * Runs a node from the command line.
+     * Usage: Node port [--connect host:port]... [--mine blocks] [--store directory] [--metrics port]
+     * With --metrics the node serves its metrics on http://localhost:port/metrics and /metrics.json.
+     * A mining node on an empty chain creates the genesis block and then mines blocks with a small payment in each.
+     * Several nodes can run on one machine on different ports, for example
+     * "Node 8333 --mine 20" and "Node 8334 --connect localhost:8333".
+     * @param args Command line arguments.
+     */
+    public static void main(String[] args) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+
+        Blockchain chain = new Blockchain();
+        chain.registerGauges();
+        Node node = new Node(chain, Integer.parseInt(args[0]));
+        ArrayList<String> connects = new ArrayList<>();
+        int blocksToMine = 0;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--connect" -> connects.add(args[++i]);
+                case "--mine" -> blocksToMine = Integer.parseInt(args[++i]);
+                case "--store" -> chain.open(Paths.get(args[++i]));
+                case "--metrics" -> new HttpMetricsExporter(Integer.parseInt(args[++i])).start();
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        node.start();
+
+        for (String connect : connects) {
+            int separator = connect.lastIndexOf(':');
+            node.connect(connect.substring(0, separator), Integer.parseInt(connect.substring(separator + 1)));
+        }
+
+        Wallet walletA = new Wallet(chain);
+        Wallet walletB = new Wallet(chain);
+
+        if (blocksToMine > 0 && chain.getChainIndex().isEmpty()) {
+            node.announce(chain.mineGenesis(new Wallet(chain), walletA.getAddress(), 500 * Blockchain.COIN));
+            blocksToMine--;
+        }
+
+        for (int i = 0; i < blocksToMine; i++) {
+            node.mine(walletA, walletB.getAddress());
+        }
+
+        while (true) {
+            BlockHeader tip = chain.getChainIndex().getTip();
+            EventLog.info("Height: " + node.chainIndexHeight() + ", Tip HASH: " + (tip == null ? null : tip.getHash())
+                    + ", Peers: " + node.getPeerCount() + ", Mempool: " + chain.getMempool().size());
+            EventLog.info("Sync: " + node.getSyncPipeline());
+
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
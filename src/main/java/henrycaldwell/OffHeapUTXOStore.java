@@ -0,0 +1,600 @@
+package henrycaldwell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.DirectoryStream;
+
+/**
+ * UTXO store keeping fixed-size records outside the Java heap, in direct buffers or memory-mapped files.
+ * Outputs and owners are kept in two open-addressing tables, each split into segments of up to 2^20 slots.
+ * Each 176-byte output slot is laid out as state (4 bytes, padded to 8), output ID (32), value (8), owner address (32),
+ * parent transaction ID (32), and the IDs of the previous and next outputs of the same owner (32 each).
+ * Each 80-byte owner slot is laid out as state (8), owner address (32), ID of the owner's first output (32) and count (8).
+ * An owner's outputs form a doubly linked list through their IDs, which stay valid when records move.
+ * Collisions use linear probing and removal shifts later records back, as in DigestMap.
+ * Nothing but the segment buffers lives on the heap, so heap size and GC work do not grow with the number of outputs
+ * or owners. Direct buffers count against -XX:MaxDirectMemorySize, so sets larger than the heap should use mapped files.
+ */
+public class OffHeapUTXOStore implements UTXOStore, Closeable {
+
+    private static final int OUTPUT_SIZE = 176; // The size of an output slot in bytes.
+    private static final int OWNER_SIZE = 80; // The size of an owner slot in bytes.
+    private static final int STATE = 0, KEY = 8; // The offsets of the state and key, shared by both tables.
+    private static final int VALUE = 40, OWNER = 48, PARENT = 80, PREVIOUS = 112, NEXT = 144; // The output field offsets.
+    private static final int HEAD = 40, COUNT = 72; // The owner field offsets.
+    private static final int EMPTY = 0, OCCUPIED = 1, WITH_PARENT = 2, WITH_PREVIOUS = 4, WITH_NEXT = 8; // The state flags.
+    private static final int SEGMENT_BITS = 20; // The log2 of the maximum number of slots per segment.
+    private static final String SUFFIX = ".tab"; // The table file name suffix, after the prefix, generation and segment.
+
+    private final Path directory; // The directory holding the table files, or null for direct buffers.
+    private final int initialCapacity; // The capacity of a new or cleared table.
+    private final Index outputs = new Index("utxo-", OUTPUT_SIZE); // The outputs by output ID.
+    private final Index owners = new Index("owner-", OWNER_SIZE); // The first output and output count of each owner.
+
+    /**
+     * Constructs an OffHeapUTXOStore backed by direct buffers.
+     * @param initialCapacity The initial number of slots, rounded up to a power of two.
+     */
+    public OffHeapUTXOStore(int initialCapacity) {
+        this(null, initialCapacity);
+    }
+
+    /**
+     * Constructs an OffHeapUTXOStore backed by memory-mapped files in a directory, removing table files left by an earlier run.
+     * The files only hold the live tables and are rebuilt on startup; snapshots and the block store remain the durable state.
+     * @param directory The directory for the table files, or null for direct buffers.
+     * @param initialCapacity The initial number of slots, rounded up to a power of two.
+     */
+    public OffHeapUTXOStore(Path directory, int initialCapacity) {
+        this.directory = directory;
+        this.initialCapacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+                outputs.deleteTables(-1);
+                owners.deleteTables(-1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        outputs.table = outputs.allocate(this.initialCapacity);
+        owners.table = owners.allocate(this.initialCapacity);
+    }
+
+    @Override
+    public TransactionOutput get(Digest id) {
+        Table current = outputs.table;
+        long slot = current.find(id);
+        return slot < 0 ? null : current.decode(slot);
+    }
+
+    @Override
+    public void put(Digest id, TransactionOutput output) {
+        remove(id);
+        Digest owner = output.getRecipient().getHash();
+
+        long ownerSlot = owners.claim(owner);
+        Table ownerTable = owners.table;
+        boolean first = ownerTable.state(ownerSlot) == EMPTY;
+        Digest head = first ? null : ownerTable.readDigest(ownerSlot, HEAD);
+        long count = first ? 0 : ownerTable.word(ownerSlot, COUNT);
+
+        long slot = outputs.claim(id);
+        Table table = outputs.table;
+        table.encode(slot, id, output, head);
+
+        if (head != null) {
+            table.link(table.find(head), PREVIOUS, WITH_PREVIOUS, id);
+        }
+
+        ownerTable.writeDigest(ownerSlot, KEY, owner);
+        ownerTable.writeDigest(ownerSlot, HEAD, id);
+        ownerTable.putWord(ownerSlot, COUNT, count + 1);
+        ownerTable.setState(ownerSlot, OCCUPIED);
+    }
+
+    @Override
+    public TransactionOutput remove(Digest id) {
+        Table table = outputs.table;
+        long slot = table.find(id);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        TransactionOutput removed = table.decode(slot);
+        int state = table.state(slot);
+        Digest previous = (state & WITH_PREVIOUS) != 0 ? table.readDigest(slot, PREVIOUS) : null;
+        Digest next = (state & WITH_NEXT) != 0 ? table.readDigest(slot, NEXT) : null;
+        outputs.delete(slot);
+
+        if (previous != null) {
+            table.link(table.find(previous), NEXT, WITH_NEXT, next);
+        }
+
+        if (next != null) {
+            table.link(table.find(next), PREVIOUS, WITH_PREVIOUS, previous);
+        }
+
+        Table ownerTable = owners.table;
+        long ownerSlot = ownerTable.find(removed.getRecipient().getHash());
+        long count = ownerTable.word(ownerSlot, COUNT) - 1;
+
+        if (count == 0) {
+            owners.delete(ownerSlot);
+            return removed;
+        }
+
+        if (previous == null) {
+            ownerTable.writeDigest(ownerSlot, HEAD, next);
+        }
+
+        ownerTable.putWord(ownerSlot, COUNT, count);
+        return removed;
+    }
+
+    @Override
+    public void forEachOwned(Address owner, Consumer<TransactionOutput> action) {
+        Table ownerTable = owners.table;
+        long ownerSlot = ownerTable.find(owner.getHash());
+
+        if (ownerSlot < 0) {
+            return;
+        }
+
+        Digest id = ownerTable.readDigest(ownerSlot, HEAD);
+        long count = ownerTable.word(ownerSlot, COUNT);
+        Table table = outputs.table;
+
+        // Following at most count links keeps a walk that overlaps a write from looping.
+        for (long i = 0; i < count && id != null; i++) {
+            long slot = table.find(id);
+
+            if (slot < 0) {
+                return;
+            }
+
+            action.accept(table.decode(slot));
+            id = (table.state(slot) & WITH_NEXT) != 0 ? table.readDigest(slot, NEXT) : null;
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<TransactionOutput> action) {
+        Table current = outputs.table;
+
+        for (long slot = 0; slot < current.capacity; slot++) {
+            if (current.state(slot) != EMPTY) {
+                action.accept(current.decode(slot));
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return outputs.size;
+    }
+
+    @Override
+    public void clear() {
+        outputs.clear();
+        owners.clear();
+    }
+
+    /**
+     * Deletes the table files. The mappings are released once the buffers are garbage collected.
+     */
+    @Override
+    public void close() {
+        outputs.deleteTables(outputs.generation);
+        owners.deleteTables(owners.generation);
+    }
+
+    /**
+     * An open-addressing table of fixed-size records keyed by a digest, replaced as a whole when it grows.
+     */
+    private class Index {
+
+        private final String prefix; // The table file name prefix.
+        private final int recordSize; // The size of a slot in bytes.
+        private volatile Table table; // The current table, replaced as a whole on resize.
+        private int size; // The number of stored records.
+        private int generation; // The number of tables allocated so far, used to name table files.
+
+        /**
+         * Constructs an Index. The table is allocated by the store once its directory is ready.
+         * @param prefix The table file name prefix.
+         * @param recordSize The size of a slot in bytes.
+         */
+        Index(String prefix, int recordSize) {
+            this.prefix = prefix;
+            this.recordSize = recordSize;
+        }
+
+        /**
+         * Returns the slot holding a key, or the empty slot it is to be written to, growing the table first if needed.
+         * The caller writes the record, setting the state last.
+         * @param key The key.
+         * @return The slot.
+         */
+        long claim(Digest key) {
+            if ((size + 1L) * 4 > table.capacity * 3) {
+                resize(table.capacity * 2);
+            }
+
+            Table current = table;
+            long slot = current.index(key);
+
+            for (long probe = 0; probe < current.capacity; probe++) {
+                int state = current.state(slot);
+
+                if (state == EMPTY) {
+                    size++;
+                    return slot;
+                }
+
+                if (current.matches(slot, key)) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & current.mask;
+            }
+
+            throw new IllegalStateException("OffHeapUTXOStore table is full");
+        }
+
+        /**
+         * Empties an occupied slot, moving later records of its probe run back.
+         * @param slot The slot.
+         */
+        void delete(long slot) {
+            Table current = table;
+            long hole = slot;
+            long next = (hole + 1) & current.mask;
+
+            while (current.state(next) != EMPTY) {
+                long home = current.index(current.word(next, KEY));
+
+                // Move the record back if the hole lies on its probe path, that is between its home slot and its current slot.
+                if (((next - home) & current.mask) >= ((next - hole) & current.mask)) {
+                    current.copy(next, hole);
+                    hole = next;
+                }
+
+                next = (next + 1) & current.mask;
+            }
+
+            current.setState(hole, EMPTY);
+            size--;
+        }
+
+        /**
+         * Replaces the table with an empty one and deletes the files of the previous table.
+         */
+        void clear() {
+            int previous = generation - 1;
+            table = allocate(initialCapacity);
+            size = 0;
+            deleteTables(previous);
+        }
+
+        /**
+         * Moves all records into a table of the given capacity and deletes the files of the previous table.
+         * @param capacity The new capacity, a power of two.
+         */
+        private void resize(long capacity) {
+            Table previous = table;
+            int previousGeneration = generation - 1;
+            Table resized = allocate(capacity);
+
+            for (long slot = 0; slot < previous.capacity; slot++) {
+                if (previous.state(slot) != EMPTY) {
+                    long target = resized.index(previous.word(slot, KEY));
+
+                    while (resized.state(target) != EMPTY) {
+                        target = (target + 1) & resized.mask;
+                    }
+
+                    resized.copyFrom(previous, slot, target);
+                }
+            }
+
+            table = resized;
+            deleteTables(previousGeneration);
+        }
+
+        /**
+         * Allocates a zeroed table as direct buffers or as new mapped files.
+         * @param capacity The number of slots, a power of two.
+         * @return The table.
+         */
+        Table allocate(long capacity) {
+            int segmentSlots = (int) Math.min(capacity, 1L << SEGMENT_BITS);
+            ByteBuffer[] segments = new ByteBuffer[(int) (capacity / segmentSlots)];
+
+            for (int i = 0; i < segments.length; i++) {
+                int bytes = segmentSlots * recordSize;
+
+                if (directory == null) {
+                    segments[i] = ByteBuffer.allocateDirect(bytes);
+                    continue;
+                }
+
+                Path file = directory.resolve(prefix + generation + "-" + i + SUFFIX);
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            generation++;
+            return new Table(segments, capacity, recordSize);
+        }
+
+        /**
+         * Deletes the table files of one generation, or of all generations.
+         * @param target The generation to delete, or -1 for all.
+         */
+        void deleteTables(int target) {
+            if (directory == null) {
+                return;
+            }
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    String fileGeneration = name.substring(prefix.length(), name.indexOf('-', prefix.length()));
+
+                    if (target < 0 || fileGeneration.equals(Integer.toString(target))) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * A power-of-two sized table of fixed-size records spread over equally sized segments.
+     */
+    private static class Table {
+
+        private final ByteBuffer[] segments; // The segment buffers.
+        private final long capacity; // The number of slots.
+        private final long mask; // The capacity minus one.
+        private final int recordSize; // The size of a slot in bytes.
+        private final int segmentShift; // The log2 of the number of slots per segment.
+        private final int segmentMask; // The number of slots per segment minus one.
+
+        /**
+         * Constructs a Table over allocated segments.
+         * @param segments The zeroed segment buffers.
+         * @param capacity The total number of slots.
+         * @param recordSize The size of a slot in bytes.
+         */
+        Table(ByteBuffer[] segments, long capacity, int recordSize) {
+            this.segments = segments;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.recordSize = recordSize;
+            int segmentSlots = (int) (capacity / segments.length);
+            this.segmentShift = Integer.numberOfTrailingZeros(segmentSlots);
+            this.segmentMask = segmentSlots - 1;
+        }
+
+        /**
+         * Returns the home slot of a key given its first word.
+         * @param word The first word of the key.
+         * @return The slot the key's probe run starts at.
+         */
+        long index(long word) {
+            return (word ^ (word >>> 32)) & mask;
+        }
+
+        /**
+         * Returns the home slot of a key.
+         * @param key The key.
+         * @return The slot the key's probe run starts at.
+         */
+        long index(Digest key) {
+            return index(key.getWord(0));
+        }
+
+        /**
+         * Finds the slot holding a key, probing at most the whole table.
+         * @param key The key.
+         * @return The slot, or -1 if the key is absent.
+         */
+        long find(Digest key) {
+            long slot = index(key);
+
+            for (long probe = 0; probe < capacity && state(slot) != EMPTY; probe++) {
+                if (matches(slot, key)) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Returns the segment buffer holding a slot.
+         * @param slot The slot.
+         * @return The segment buffer.
+         */
+        ByteBuffer segment(long slot) {
+            return segments[(int) (slot >>> segmentShift)];
+        }
+
+        /**
+         * Returns the byte offset of a slot within its segment.
+         * @param slot The slot.
+         * @return The byte offset.
+         */
+        int offset(long slot) {
+            return ((int) slot & segmentMask) * recordSize;
+        }
+
+        /**
+         * Returns the state flags of a slot.
+         * @param slot The slot.
+         * @return EMPTY, or OCCUPIED with any of WITH_PARENT, WITH_PREVIOUS and WITH_NEXT.
+         */
+        int state(long slot) {
+            return segment(slot).getInt(offset(slot) + STATE);
+        }
+
+        /**
+         * Sets the state flags of a slot.
+         * @param slot The slot.
+         * @param state The new state.
+         */
+        void setState(long slot, int state) {
+            segment(slot).putInt(offset(slot) + STATE, state);
+        }
+
+        /**
+         * Returns a long stored in a slot.
+         * @param slot The slot.
+         * @param field The offset of the long within the slot.
+         * @return The long.
+         */
+        long word(long slot, int field) {
+            return segment(slot).getLong(offset(slot) + field);
+        }
+
+        /**
+         * Stores a long in a slot.
+         * @param slot The slot.
+         * @param field The offset of the long within the slot.
+         * @param value The long.
+         */
+        void putWord(long slot, int field, long value) {
+            segment(slot).putLong(offset(slot) + field, value);
+        }
+
+        /**
+         * Checks if a slot holds a key.
+         * @param slot The slot.
+         * @param key The key.
+         * @return True if the slot's key equals the given key, false otherwise.
+         */
+        boolean matches(long slot, Digest key) {
+            ByteBuffer segment = segment(slot);
+            int base = offset(slot) + KEY;
+            return segment.getLong(base) == key.getWord(0) && segment.getLong(base + 8) == key.getWord(1) &&
+                    segment.getLong(base + 16) == key.getWord(2) && segment.getLong(base + 24) == key.getWord(3);
+        }
+
+        /**
+         * Reads a digest stored in a slot.
+         * @param slot The slot.
+         * @param field The offset of the digest within the slot.
+         * @return The digest.
+         */
+        Digest readDigest(long slot, int field) {
+            ByteBuffer segment = segment(slot);
+            int base = offset(slot) + field;
+            return new Digest(segment.getLong(base), segment.getLong(base + 8), segment.getLong(base + 16), segment.getLong(base + 24));
+        }
+
+        /**
+         * Writes a digest into a slot.
+         * @param slot The slot.
+         * @param field The offset of the digest within the slot.
+         * @param digest The digest.
+         */
+        void writeDigest(long slot, int field, Digest digest) {
+            ByteBuffer segment = segment(slot);
+            int base = offset(slot) + field;
+
+            for (int i = 0; i < 4; i++) {
+                segment.putLong(base + i * 8, digest.getWord(i));
+            }
+        }
+
+        /**
+         * Sets or clears the link from an output to a neighbour in its owner's list.
+         * @param slot The slot of the output.
+         * @param field PREVIOUS or NEXT.
+         * @param flag WITH_PREVIOUS or WITH_NEXT, matching the field.
+         * @param id The ID of the neighbour, or null to clear the link.
+         */
+        void link(long slot, int field, int flag, Digest id) {
+            if (id != null) {
+                writeDigest(slot, field, id);
+                setState(slot, state(slot) | flag);
+            } else {
+                setState(slot, state(slot) & ~flag);
+            }
+        }
+
+        /**
+         * Rebuilds the output stored in a slot.
+         * @param slot The occupied slot.
+         * @return The output.
+         */
+        TransactionOutput decode(long slot) {
+            Digest parent = (state(slot) & WITH_PARENT) != 0 ? readDigest(slot, PARENT) : null;
+            return new TransactionOutput(readDigest(slot, KEY), new Address(readDigest(slot, OWNER)), word(slot, VALUE), parent);
+        }
+
+        /**
+         * Writes an output into a slot as the first of its owner's list, setting the state last.
+         * @param slot The slot.
+         * @param id The output ID.
+         * @param output The output.
+         * @param next The ID of the owner's previous first output, or null if the owner had none.
+         */
+        void encode(long slot, Digest id, TransactionOutput output, Digest next) {
+            int state = OCCUPIED;
+            writeDigest(slot, KEY, id);
+            putWord(slot, VALUE, output.getValue());
+            writeDigest(slot, OWNER, output.getRecipient().getHash());
+
+            if (output.getParentTransactionId() != null) {
+                writeDigest(slot, PARENT, output.getParentTransactionId());
+                state |= WITH_PARENT;
+            }
+
+            if (next != null) {
+                writeDigest(slot, NEXT, next);
+                state |= WITH_NEXT;
+            }
+
+            setState(slot, state);
+        }
+
+        /**
+         * Copies the record of one slot into another slot of this table.
+         * @param from The source slot.
+         * @param to The destination slot.
+         */
+        void copy(long from, long to) {
+            copyFrom(this, from, to);
+        }
+
+        /**
+         * Copies the record of a slot in another table into a slot of this table.
+         * @param source The source table.
+         * @param from The source slot.
+         * @param to The destination slot.
+         */
+        void copyFrom(Table source, long from, long to) {
+            segment(to).put(offset(to), source.segment(from), source.offset(from), recordSize);
+        }
+    }
+}
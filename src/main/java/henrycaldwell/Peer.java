@@ -0,0 +1,245 @@
+package henrycaldwell;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents a connection to another node.
+ * The socket is only read and written by the node's selector thread; other threads queue outgoing messages with send.
+ * The handshake and download state is only touched by the node's handler thread.
+ * At most MAX_QUEUED_BYTES of outgoing frames are queued, so a peer that stops reading cannot fill memory; once a send
+ * would exceed the limit the peer is marked overflowed and the node disconnects it.
+ */
+public class Peer {
+
+    public static final int MAX_QUEUED_BYTES = 2 * Message.MAX_SIZE; // The maximum number of bytes queued for writing.
+
+    private SocketChannel channel; // The non-blocking socket.
+    private SelectionKey key; // The registration of the socket with the node's selector.
+    private String address; // The remote address, for display.
+    private boolean outbound; // Whether this node opened the connection.
+    private ByteBuffer readBuffer = ByteBuffer.allocate(64 << 10); // The received bytes not yet framed, in write mode.
+    private ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>(); // The framed messages waiting to be written.
+    private AtomicLong queuedBytes = new AtomicLong(); // The number of bytes in the write queue.
+    private volatile boolean overflowed; // Whether a send was dropped because the write queue was full.
+
+    private boolean versionReceived; // Whether the peer's VERSION arrived.
+    private boolean verackReceived; // Whether the peer acknowledged this node's VERSION.
+    private int listenPort; // The port the peer accepts connections on.
+    private int height = -1; // The height of the peer's tip as last announced.
+    private HashSet<Digest> inFlight = new HashSet<>(); // The blocks requested from the peer and not yet received.
+    private HashSet<Digest> missing = new HashSet<>(); // The blocks the peer reported as not found.
+
+    /**
+     * Constructs a Peer over a connected or connecting socket.
+     * @param channel The non-blocking socket.
+     * @param key The registration of the socket with the node's selector.
+     * @param address The remote address, for display.
+     * @param outbound Whether this node opened the connection.
+     */
+    public Peer(SocketChannel channel, SelectionKey key, String address, boolean outbound) {
+        this.channel = channel;
+        this.key = key;
+        this.address = address;
+        this.outbound = outbound;
+    }
+
+    /**
+     * Queues a message for sending. Safe to call from any thread.
+     * If the message does not fit under MAX_QUEUED_BYTES it is dropped and the peer is marked overflowed.
+     * @param message The message to send.
+     */
+    public void send(Message message) {
+        ByteBuffer buffer = message.toBuffer();
+
+        if (queuedBytes.addAndGet(buffer.remaining()) > MAX_QUEUED_BYTES) {
+            queuedBytes.addAndGet(-buffer.remaining());
+            overflowed = true;
+        } else {
+            writeQueue.add(buffer);
+        }
+
+        key.selector().wakeup();
+    }
+
+    /**
+     * Reads the available bytes and frames them into messages. Called by the selector thread.
+     * @return The complete messages received, or null if the peer closed the connection.
+     * @throws IOException If reading fails.
+     */
+    public List<Message> read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            return null;
+        }
+
+        ArrayList<Message> messages = new ArrayList<>();
+        readBuffer.flip();
+        Message message;
+
+        while ((message = Message.read(readBuffer)) != null) {
+            messages.add(message);
+        }
+
+        // Grow the buffer if a single frame does not fit, up to the frame size limit.
+        if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity() && readBuffer.capacity() < 4 + Message.MAX_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, 4 + Message.MAX_SIZE));
+            larger.put(readBuffer);
+            readBuffer = larger;
+        } else {
+            readBuffer.compact();
+        }
+
+        return messages;
+    }
+
+    /**
+     * Writes queued messages until the queue is empty or the socket buffer is full. Called by the selector thread.
+     * @throws IOException If writing fails.
+     */
+    public void write() throws IOException {
+        ByteBuffer buffer;
+
+        while ((buffer = writeQueue.peek()) != null) {
+            channel.write(buffer);
+
+            if (buffer.hasRemaining()) {
+                break;
+            }
+
+            writeQueue.poll();
+            queuedBytes.addAndGet(-buffer.limit());
+        }
+    }
+
+    /**
+     * Checks if a message was dropped because the write queue was full.
+     * @return True if the peer must be disconnected, false otherwise.
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Updates the selector interest to include writing while messages are queued. Called by the selector thread.
+     */
+    public void updateInterest() {
+        if (key.isValid() && channel.isConnected()) {
+            key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() {
+        key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks if both sides of the handshake are complete.
+     * @return True if messages other than the handshake may be exchanged, false otherwise.
+     */
+    public boolean isReady() {
+        return versionReceived && verackReceived;
+    }
+
+    /**
+     * Records the peer's VERSION.
+     * @param listenPort The port the peer accepts connections on.
+     * @param height The height of the peer's tip.
+     */
+    public void setVersion(int listenPort, int height) {
+        this.versionReceived = true;
+        this.listenPort = listenPort;
+        this.height = height;
+    }
+
+    /**
+     * Records that the peer acknowledged this node's VERSION.
+     */
+    public void setVerackReceived() {
+        this.verackReceived = true;
+    }
+
+    /**
+     * Checks if the peer's VERSION arrived.
+     * @return True if the VERSION arrived, false otherwise.
+     */
+    public boolean isVersionReceived() {
+        return versionReceived;
+    }
+
+    /**
+     * Records a newer tip height announced by the peer.
+     * @param height The height of the peer's tip.
+     */
+    public void setHeight(int height) {
+        this.height = Math.max(this.height, height);
+    }
+
+    /**
+     * Returns the height of the peer's tip as last announced.
+     * @return The height, or -1 if the peer's chain is empty.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the port the peer accepts connections on.
+     * @return The listening port.
+     */
+    public int getListenPort() {
+        return listenPort;
+    }
+
+    /**
+     * Returns the blocks requested from the peer and not yet received.
+     * @return The in-flight block hashes.
+     */
+    public HashSet<Digest> getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the blocks the peer reported as not found.
+     * @return The missing block hashes.
+     */
+    public HashSet<Digest> getMissing() {
+        return missing;
+    }
+
+    /**
+     * Returns the underlying socket.
+     * @return The socket.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Checks if this node opened the connection.
+     * @return True for outbound connections, false for inbound ones.
+     */
+    public boolean isOutbound() {
+        return outbound;
+    }
+
+    @Override
+    public String toString() {
+        return address;
+    }
+}
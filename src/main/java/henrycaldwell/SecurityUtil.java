@@ -2,10 +2,13 @@ package henrycaldwell;
 
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.nio.charset.StandardCharsets;
 
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.Signature;
+import java.security.SignatureException;
 import java.security.PublicKey;
 import java.security.PrivateKey;
 
@@ -14,31 +17,122 @@ import java.security.PrivateKey;
  */
 public class SecurityUtil {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); // The lowercase hexadecimal digits.
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }); // The per-thread SHA-256 digest, looked up once per thread.
+
+    private static final ThreadLocal<Signature> ECDSA = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("ECDSA", "BC");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }); // The per-thread ECDSA signature engine, looked up once per thread.
+
+    private static final ThreadLocal<byte[]> PAIR_BUFFER = ThreadLocal.withInitial(() -> new byte[Digest.SIZE * 2]); // The per-thread buffer for hashing two concatenated digests.
+    private static final ThreadLocal<byte[]> DIGEST_BUFFER = ThreadLocal.withInitial(() -> new byte[Digest.SIZE]); // The per-thread buffer receiving digest output.
+
     /**
      * Applies the SHA-256 hash function to the given string and converts it to a hashed hexadecimal string.
      * @param input The input string.
      * @return The SHA-256 hash as a hexadecimal string.
      */
     public static String applySha256(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));
-            StringBuffer hexString = new StringBuffer();
+        return bytesToHex(sha256(input.getBytes(StandardCharsets.UTF_8)));
+    }
 
-            for (int i = 0; i < hash.length; i++) {
-                String hex = Integer.toHexString(0xff & hash[i]);
+    /**
+     * Applies the SHA-256 hash function to the given bytes using the calling thread's digest.
+     * @param input The input bytes.
+     * @return The SHA-256 digest.
+     */
+    public static byte[] sha256(byte[] input) {
+        return SHA256.get().digest(input);
+    }
 
-                if (hex.length() == 1)
-                    hexString.append('0');
-                hexString.append(hex);
-            }
+    /**
+     * Applies the SHA-256 hash function to a range of bytes using the calling thread's digest.
+     * @param input The array holding the input.
+     * @param offset The offset of the first input byte.
+     * @param length The number of input bytes.
+     * @return The SHA-256 digest.
+     */
+    public static byte[] sha256(byte[] input, int offset, int length) {
+        MessageDigest digest = SHA256.get();
+        digest.update(input, offset, length);
+        return digest.digest();
+    }
 
-            return hexString.toString();
+    /**
+     * Applies the SHA-256 hash function to a range of bytes without allocating an intermediate array.
+     * @param input The array holding the input.
+     * @param offset The offset of the first input byte.
+     * @param length The number of input bytes.
+     * @return The SHA-256 digest.
+     */
+    public static Digest hash(byte[] input, int offset, int length) {
+        try {
+            MessageDigest digest = SHA256.get();
+            byte[] output = DIGEST_BUFFER.get();
+            digest.update(input, offset, length);
+            digest.digest(output, 0, Digest.SIZE);
+            return Digest.of(output);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Hashes the concatenation of two digests, as done for every Merkle node.
+     * @param left The left digest.
+     * @param right The right digest.
+     * @return The SHA-256 digest of the 64 concatenated bytes.
+     */
+    public static Digest hashPair(Digest left, Digest right) {
+        byte[] pair = PAIR_BUFFER.get();
+        left.writeTo(pair, 0);
+        right.writeTo(pair, Digest.SIZE);
+        return hash(pair, 0, pair.length);
+    }
+
+    /**
+     * Converts bytes to a lowercase hexadecimal string.
+     * @param bytes The bytes to convert.
+     * @return The hexadecimal string.
+     */
+    public static String bytesToHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >>> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Decodes a hexadecimal string into a byte array, leaving the destination untouched for a null or empty string.
+     * @param hex The hexadecimal string.
+     * @param destination The array receiving the decoded bytes.
+     * @param offset The offset of the first decoded byte in the destination.
+     */
+    public static void hexToBytes(String hex, byte[] destination, int offset) {
+        if (hex == null) {
+            return;
+        }
+
+        for (int i = 0; i + 1 < hex.length(); i += 2) {
+            destination[offset + i / 2] = (byte) (Character.digit(hex.charAt(i), 16) << 4 | Character.digit(hex.charAt(i + 1), 16));
+        }
+    }
+
     /**
      * Generates an ECDSA signature for the given input using the provided private key.
      * @param privateKey The private key used.
@@ -46,21 +140,27 @@ public class SecurityUtil {
      * @return The generated ECDSA signature.
      */
     public static byte[] applyECDSASig(PrivateKey privateKey, String data) {
-        Signature dsa;
-        byte[] output = new byte[0];
+        byte[] strByte = data.getBytes();
+        return applyECDSASig(privateKey, strByte, 0, strByte.length);
+    }
 
+    /**
+     * Generates an ECDSA signature for a range of bytes using the provided private key.
+     * @param privateKey The private key used.
+     * @param data The array holding the data to be signed.
+     * @param offset The offset of the first data byte.
+     * @param length The number of data bytes.
+     * @return The generated ECDSA signature.
+     */
+    public static byte[] applyECDSASig(PrivateKey privateKey, byte[] data, int offset, int length) {
         try {
-            dsa = Signature.getInstance("ECDSA", "BC");
+            Signature dsa = ECDSA.get();
             dsa.initSign(privateKey);
-            byte[] strByte = data.getBytes();
-            dsa.update(strByte);
-            byte[] realSig = dsa.sign();
-            output = realSig;
+            dsa.update(data, offset, length);
+            return dsa.sign();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-
-        return output;
     }
 
     /**
@@ -71,11 +171,27 @@ public class SecurityUtil {
      * @return True if the signature is valid, false otherwise.
      */
     public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) {
+        byte[] strByte = data.getBytes();
+        return verifyECDSASig(publicKey, strByte, 0, strByte.length, signature);
+    }
+
+    /**
+     * Verifies an ECDSA signature over a range of bytes using the provided public key.
+     * @param publicKey The public key used for verification.
+     * @param data The array holding the original data.
+     * @param offset The offset of the first data byte.
+     * @param length The number of data bytes.
+     * @param signature The ECDSA signature to be verified.
+     * @return True if the signature is valid, false otherwise, including when the signature is not valid DER.
+     */
+    public static boolean verifyECDSASig(PublicKey publicKey, byte[] data, int offset, int length, byte[] signature) {
         try {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
+            Signature ecdsaVerify = ECDSA.get();
             ecdsaVerify.initVerify(publicKey);
-            ecdsaVerify.update(data.getBytes());
+            ecdsaVerify.update(data, offset, length);
             return ecdsaVerify.verify(signature);
+        } catch (SignatureException e) {
+            return false;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -92,31 +208,43 @@ public class SecurityUtil {
 
     /**
      * Gets the Merkle root for a list of transactions.
+     * Uses the same binary pairing as MerkleTree, duplicating the last node of an odd layer.
      * @param transactions The list of transactions in the tree.
-     * @return The Merkle root as a hashed hexidecimal.
+     * @return The Merkle root, or null if there are no transactions.
      */
-    public static String getMerkleRoot(ArrayList<Transaction> transactions) {
-        int count = transactions.size();
-        ArrayList<String> previousTreeLayer = new ArrayList<String>();
+    public static Digest getMerkleRoot(List<Transaction> transactions) {
+        ChainEvents.MerkleRootComputed event = new ChainEvents.MerkleRootComputed();
+        event.begin();
+        ArrayList<Digest> treeLayer = new ArrayList<Digest>();
+        long hashes = 0;
 
         for (Transaction transaction : transactions) {
-            previousTreeLayer.add(transaction.getTransactionId());
+            treeLayer.add(transaction.getTransactionId());
         }
 
-        ArrayList<String> treeLayer = previousTreeLayer;
-
-        while (count > 1) {
-            treeLayer = new ArrayList<String>();
+        while (treeLayer.size() > 1) {
+            ArrayList<Digest> previousTreeLayer = treeLayer;
+            treeLayer = new ArrayList<Digest>();
 
-            for (int i = 1; i < previousTreeLayer.size(); i++) {
-                treeLayer.add(SecurityUtil.applySha256(previousTreeLayer.get(i - 1) + previousTreeLayer.get(i)));
+            for (int i = 0; i < previousTreeLayer.size(); i += 2) {
+                Digest left = previousTreeLayer.get(i);
+                Digest right = (i + 1 < previousTreeLayer.size()) ? previousTreeLayer.get(i + 1) : left;
+                treeLayer.add(hashPair(left, right));
             }
 
-            count = treeLayer.size();
-            previousTreeLayer = treeLayer;
+            hashes += treeLayer.size();
+        }
+
+        Digest merkleRoot = (treeLayer.size() == 1) ? treeLayer.get(0) : null;
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.leaves = transactions.size();
+            event.hashes = hashes;
+            event.incremental = false;
+            event.commit();
         }
 
-        String merkleRoot = (treeLayer.size() == 1) ? treeLayer.get(0) : "";
         return merkleRoot;
     }
 }
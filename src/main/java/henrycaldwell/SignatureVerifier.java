@@ -0,0 +1,103 @@
+package henrycaldwell;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies transaction signatures, alone or in parallel batches, and remembers the transactions already verified.
+ * The cache is bounded and keyed by transaction ID. An entry only matches if the signed data and signature hash to the same
+ * fingerprint, so a transaction reusing a cached ID with different contents is still verified in full.
+ */
+public class SignatureVerifier {
+
+    private static final Metrics.Histogram latency = Metrics.histogram("signature_verify_nanos"); // The duration of each ECDSA check.
+    private static final Metrics.Counter hits = Metrics.counter("signature_cache_hits_total"); // The checks skipped by the cache.
+
+    private int capacity; // The maximum number of cached transactions.
+    private LinkedHashMap<Digest, byte[]> verified; // The fingerprint of each verified transaction by ID, least recently used first.
+
+    /**
+     * Constructs a SignatureVerifier caching up to the specified number of verified transactions.
+     * @param capacity The maximum number of cached transactions.
+     */
+    public SignatureVerifier(int capacity) {
+        this.capacity = capacity;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Digest, byte[]> eldest) {
+                return size() > SignatureVerifier.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Verifies the signature of a transaction, skipping the ECDSA check for a transaction already verified.
+     * @param transaction The transaction to verify.
+     * @return True if the signature is valid, false otherwise.
+     */
+    public boolean verify(Transaction transaction) {
+        if (transaction.getSignature() == null) {
+            return false;
+        }
+
+        ByteWriter data = BlockCodec.writer();
+        BlockCodec.encodeSignatureData(transaction, data);
+        int length = data.size();
+        data.writeRaw(transaction.getSignature());
+        byte[] fingerprint = SecurityUtil.sha256(data.getBuffer(), 0, data.size());
+
+        synchronized (verified) {
+            if (Arrays.equals(verified.get(transaction.getTransactionId()), fingerprint)) {
+                hits.increment();
+                return true;
+            }
+        }
+
+        long start = System.nanoTime();
+        boolean valid = SecurityUtil.verifyECDSASig(transaction.getSender(), data.getBuffer(), 0, length, transaction.getSignature());
+        latency.recordSince(start);
+
+        if (!valid) {
+            return false;
+        }
+
+        synchronized (verified) {
+            verified.put(transaction.getTransactionId(), fingerprint);
+        }
+
+        return true;
+    }
+
+    /**
+     * Verifies the signatures of a batch of transactions in parallel across the available cores.
+     * @param transactions The transactions to verify.
+     * @return The signature validity of each transaction, in list order.
+     */
+    public boolean[] verifyBatch(List<Transaction> transactions) {
+        boolean[] valid = new boolean[transactions.size()];
+        IntStream.range(0, transactions.size()).parallel().forEach(i -> valid[i] = verify(transactions.get(i)));
+        return valid;
+    }
+
+    /**
+     * Returns the number of cached transactions.
+     * @return The number of cached transactions.
+     */
+    public int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    /**
+     * Removes all cached transactions.
+     */
+    public void clear() {
+        synchronized (verified) {
+            verified.clear();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package henrycaldwell;
 
+import java.math.BigDecimal;
+
 /**
  * Utility class providing string formatting functions with ANSI codes.
  */
@@ -19,4 +21,13 @@ public class StringUtil {
     public static String formatText(String text, String format) {
         return format + text + ANSI_RESET;
     }
+
+    /**
+     * Formats an amount of base units as a decimal number of coins.
+     * @param amount The amount in base units.
+     * @return The amount in coins, without trailing zeroes.
+     */
+    public static String formatAmount(long amount) {
+        return BigDecimal.valueOf(amount).movePointLeft(8).stripTrailingZeros().toPlainString();
+    }
 }
@@ -0,0 +1,588 @@
+package henrycaldwell;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Represents the staged pipeline that syncs blocks from peers, headers first.
+ * 1. Headers are checked for proof of work against the target retargeting expects, and for a timestamp after the median
+ *    of the previous blocks and not too far ahead of the local clock, and linked into a run extending the
+ *    block tree, before any body is fetched. At most maxPendingHeaders unapplied headers are held.
+ * 2. Bodies are downloaded out of order, but only within a window of the next bufferSize headers to apply,
+ *    so a slow block holds back the download instead of filling memory.
+ * 3. Each received body has its Merkle root, IDs and signatures checked in parallel on a pool of verifier threads.
+ *    Verified signatures are cached by the SignatureVerifier, so the apply stage does not check them again.
+ * 4. A single apply thread accepts the verified blocks in chain order, updating the UTXO set.
+ * Each stage counts the blocks it handled and reports its throughput, so the slowest stage is visible.
+ */
+public class SyncPipeline {
+
+    private static final int QUEUED = 0; // The body is waiting to be requested.
+    private static final int REQUESTED = 1; // The body is being downloaded.
+    private static final int RECEIVED = 2; // The body is being verified.
+    private static final int VERIFIED = 3; // The body passed verification and waits to be applied.
+    private static final int INVALID = 4; // The body failed its signature checks or could not be verified.
+
+    private Blockchain chain; // The blockchain the synced blocks are accepted into.
+    private int bufferSize; // The maximum number of headers ahead of the apply stage whose bodies may be fetched.
+    private int maxPendingHeaders; // The maximum number of unapplied headers held.
+    private ArrayList<Slot> slots = new ArrayList<>(); // The headers of the run, with their bodies; slots before head are applied.
+    private HashMap<Digest, Slot> index = new HashMap<>(); // The unapplied slots by block hash.
+    private ArrayDeque<Slot> retry = new ArrayDeque<>(); // The slots whose download must be requested again, served first.
+    private int head; // The position of the next slot to apply.
+    private int nextRequest; // The position of the next slot to request.
+
+    private ExecutorService verifiers; // The threads verifying bodies.
+    private Thread applier; // The thread applying bodies in order.
+    private Consumer<Block> onApplied; // Called with each block the apply stage accepted.
+    private volatile boolean running; // Whether the apply thread should keep running.
+
+    private Stage headersStage = new Stage("headers"); // Headers checked for proof of work.
+    private Stage downloadStage = new Stage("download"); // Bodies received.
+    private Stage verifyStage = new Stage("verify"); // Bodies verified.
+    private Stage applyStage = new Stage("apply"); // Blocks applied.
+
+    /**
+     * Constructs a SyncPipeline. The pipeline does nothing until started.
+     * @param chain The blockchain the synced blocks are accepted into.
+     * @param bufferSize The maximum number of bodies held ahead of the apply stage.
+     * @param maxPendingHeaders The maximum number of unapplied headers held; later headers are ignored until some apply.
+     * @param verifierThreads The number of threads verifying bodies.
+     * @param onApplied Called on the apply thread with each accepted block.
+     */
+    public SyncPipeline(Blockchain chain, int bufferSize, int maxPendingHeaders, int verifierThreads, Consumer<Block> onApplied) {
+        this.chain = chain;
+        this.bufferSize = bufferSize;
+        this.maxPendingHeaders = maxPendingHeaders;
+        this.verifiers = Executors.newFixedThreadPool(verifierThreads);
+        this.onApplied = onApplied;
+    }
+
+    /**
+     * Starts the apply thread.
+     */
+    public void start() {
+        running = true;
+        applier = new Thread(this::applyLoop, "sync-apply");
+        applier.start();
+    }
+
+    /**
+     * Stops the apply and verifier threads.
+     */
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+
+        try {
+            applier.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        verifiers.shutdown();
+    }
+
+    /**
+     * Stage 1: checks a run of headers and appends the new ones to the pipeline.
+     * Headers already known are skipped, and headers that neither extend the pipeline's run nor start from the block tree
+     * when the run is empty are ignored; they are requested again once the run is applied. Headers beyond
+     * maxPendingHeaders are ignored too, and requested again once there is room.
+     * @param headers The headers, each the parent of the next.
+     * @return False if a header's hash, target, proof of work or timestamp is invalid, true otherwise.
+     */
+    public synchronized boolean addHeaders(List<BlockHeader> headers) {
+        long start = System.nanoTime();
+        int added = 0;
+
+        for (BlockHeader header : headers) {
+            if (chain.getBlockTree().hasBody(header.getHash()) || index.containsKey(header.getHash())) {
+                continue;
+            }
+
+            if (slots.size() - head >= maxPendingHeaders) {
+                break;
+            }
+
+            Digest parent = header.getPreviousBlockHash();
+            BlockTree.Node parentNode = chain.getBlockTree().get(parent);
+            boolean links = head < slots.size()
+                    ? parent.equals(slots.get(slots.size() - 1).header.getHash())
+                    : parentNode != null || (chain.getBlockTree().size() == 0 && Digest.ZERO.equals(parent));
+
+            if (!links) {
+                continue;
+            }
+
+            if (!header.getHash().equals(header.calculateHash()) || header.getBits() != getNextBits(parent) || !Target.meets(header.getHash(), header.getBits())
+                    || !Blockchain.isTimestampValid(header.getTimestamp(), getMedianTimePast(parent))) {
+                return false;
+            }
+
+            Slot parentSlot = index.get(parent);
+            Slot slot = new Slot(header, parentSlot != null ? parentSlot.height + 1 : parentNode != null ? parentNode.getHeight() + 1 : 0);
+            slots.add(slot);
+            index.put(header.getHash(), slot);
+            added++;
+        }
+
+        headersStage.record(added, start);
+        return true;
+    }
+
+    /**
+     * Returns the compact target a header built on a parent must meet, following Blockchain.getNextBits.
+     * The parent and the blocks before it may still be pending here rather than in the block tree.
+     * @param parentHash The hash of the previous block.
+     * @return The compact target.
+     */
+    private int getNextBits(Digest parentHash) {
+        Slot parent = index.get(parentHash);
+
+        if (parent == null) {
+            return Blockchain.getNextBits(chain.getBlockTree().get(parentHash));
+        }
+
+        if ((parent.height + 1) % Blockchain.retargetInterval != 0) {
+            return parent.header.getBits();
+        }
+
+        BlockHeader first = parent.header;
+        int firstHeight = parent.height;
+
+        for (int i = 0; i < Blockchain.retargetInterval && firstHeight > 0; i++) {
+            Slot previous = index.get(first.getPreviousBlockHash());
+            first = previous != null ? previous.header : chain.getBlockTree().get(first.getPreviousBlockHash()).getHeader();
+            firstHeight--;
+        }
+
+        return Blockchain.retarget(parent.header, parent.height, first, firstHeight);
+    }
+
+    /**
+     * Returns the median timestamp of a parent and the blocks before it, following Blockchain.getMedianTimePast.
+     * The parent and the blocks before it may still be pending here rather than in the block tree.
+     * @param parentHash The hash of the previous block.
+     * @return The median timestamp, or Long.MIN_VALUE for the genesis block.
+     */
+    private long getMedianTimePast(Digest parentHash) {
+        long[] timestamps = new long[Blockchain.MEDIAN_TIME_SPAN];
+        int count = 0;
+        Slot slot;
+
+        while (count < timestamps.length && (slot = index.get(parentHash)) != null) {
+            timestamps[count++] = slot.header.getTimestamp();
+            parentHash = slot.header.getPreviousBlockHash();
+        }
+
+        for (BlockTree.Node node = chain.getBlockTree().get(parentHash); node != null && count < timestamps.length; node = node.getParent()) {
+            timestamps[count++] = node.getHeader().getTimestamp();
+        }
+
+        return Blockchain.median(timestamps, count);
+    }
+
+    /**
+     * Checks if a run of headers fits in the pipeline without reaching maxPendingHeaders.
+     * @param count The number of headers in the run.
+     * @return True if there is room for the run, false otherwise.
+     */
+    public synchronized boolean hasRoom(int count) {
+        return slots.size() - head + count <= maxPendingHeaders;
+    }
+
+    /**
+     * Stage 2: returns the next body to request, within the window ahead of the apply stage.
+     * @return The hash of the block to request, or null if the window is full or every header is requested.
+     */
+    public synchronized Digest nextDownload() {
+        Slot slot;
+
+        while ((slot = retry.poll()) != null) {
+            if (slot.state == QUEUED && index.get(slot.header.getHash()) == slot) {
+                slot.state = REQUESTED;
+                slot.requestNanos = System.nanoTime();
+                return slot.header.getHash();
+            }
+        }
+
+        while (nextRequest < slots.size() && nextRequest < head + bufferSize) {
+            slot = slots.get(nextRequest++);
+
+            if (slot.state == QUEUED) {
+                slot.state = REQUESTED;
+                slot.requestNanos = System.nanoTime();
+                return slot.header.getHash();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a requested body to the queue, for example because its peer did not have it or disconnected.
+     * @param hash The hash of the block.
+     */
+    public synchronized void requeue(Digest hash) {
+        Slot slot = index.get(hash);
+
+        if (slot != null && slot.state == REQUESTED) {
+            slot.state = QUEUED;
+            retry.add(slot);
+        }
+    }
+
+    /**
+     * Stage 2: stores a received body and hands it to the verifier threads.
+     * @param block The block.
+     * @return True if the body was expected, false if it was not requested or already received.
+     */
+    public synchronized boolean offerBody(Block block) {
+        Slot slot = index.get(block.getHash());
+
+        if (slot == null || slot.state != REQUESTED) {
+            return false;
+        }
+
+        slot.block = block;
+        slot.state = RECEIVED;
+        downloadStage.record(1, slot.requestNanos);
+        verifiers.execute(() -> verify(slot));
+        return true;
+    }
+
+    /**
+     * Checks if a block is pending in the pipeline.
+     * @param hash The hash of the block.
+     * @return True if the block's header is in the pipeline and the block is not applied yet, false otherwise.
+     */
+    public synchronized boolean contains(Digest hash) {
+        return index.containsKey(hash);
+    }
+
+    /**
+     * Returns the hash of the last header in the pipeline, from which the next run of headers continues.
+     * @return The hash, or null if every header is applied.
+     */
+    public synchronized Digest getLastHash() {
+        return head < slots.size() ? slots.get(slots.size() - 1).header.getHash() : null;
+    }
+
+    /**
+     * Returns the per-stage counters.
+     * @return The headers, download, verify and apply stages.
+     */
+    public List<Stage> getStages() {
+        return List.of(headersStage, downloadStage, verifyStage, applyStage);
+    }
+
+    /**
+     * Stage 3: checks a body against its header and verifies its signatures. Runs on a verifier thread.
+     * A body that does not match its header is requested again; a matching body with bad signatures is invalid.
+     * A body that makes verification throw is invalid too, so the apply stage drops it instead of waiting on it forever.
+     * @param slot The slot of the body.
+     */
+    private void verify(Slot slot) {
+        long start = System.nanoTime();
+        Block block = slot.block;
+        boolean matches;
+        boolean signed = true;
+
+        try {
+            matches = block.getHash().equals(slot.header.getHash()) && isWellFormed(block);
+
+            if (matches) {
+                for (boolean valid : Blockchain.signatureVerifier.verifyBatch(block.getTransactions())) {
+                    signed &= valid;
+                }
+            }
+        } catch (RuntimeException e) {
+            EventLog.error("SYN004: Block Body Failed to Verify - Block Marked Invalid");
+            matches = true;
+            signed = false;
+        }
+
+        synchronized (this) {
+            if (!matches) {
+                EventLog.error("SYN002: Block Body Does Not Match Header - Block Requested Again");
+                slot.block = null;
+                slot.state = QUEUED;
+                retry.add(slot);
+            } else {
+                slot.state = signed ? VERIFIED : INVALID;
+                notifyAll();
+            }
+        }
+
+        verifyStage.record(1, start);
+    }
+
+    /**
+     * Stage 4: accepts verified blocks in chain order. Runs on the apply thread.
+     * If a block is invalid, it and every header after it are dropped, since they all build on it.
+     */
+    private void applyLoop() {
+        while (running) {
+            Slot slot;
+
+            synchronized (this) {
+                while (running && (head >= slots.size() || slots.get(head).state < VERIFIED)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                if (!running) {
+                    return;
+                }
+
+                slot = slots.get(head);
+            }
+
+            long start = System.nanoTime();
+            boolean accepted = slot.state == VERIFIED && accept(slot.block);
+
+            synchronized (this) {
+                if (accepted) {
+                    index.remove(slot.header.getHash());
+                    slots.set(head++, null);
+                } else {
+                    EventLog.error("SYN001: Invalid Block During Sync - Following Headers Dropped");
+
+                    for (int i = head; i < slots.size(); i++) {
+                        index.remove(slots.get(i).header.getHash());
+                    }
+
+                    slots.subList(head, slots.size()).clear();
+                    nextRequest = head;
+                    retry.clear();
+                }
+
+                // Drop the applied slots once they make up most of the list.
+                if (head > 1024 && head * 2 > slots.size()) {
+                    slots.subList(0, head).clear();
+                    nextRequest -= head;
+                    head = 0;
+                }
+            }
+
+            if (accepted) {
+                applyStage.record(1, start);
+                onApplied.accept(slot.block);
+            }
+        }
+    }
+
+    /**
+     * Accepts a block into the blockchain. Its parent is already in the block tree, since headers are applied in order.
+     * The genesis block spends the minted supply, which no block created, so the minted output is rebuilt from the
+     * genesis sender rather than taken from the peer's input.
+     * @param block The block.
+     * @return True if the block was accepted, false otherwise.
+     */
+    private boolean accept(Block block) {
+        if (chain.getBlockTree().size() > 0) {
+            return chain.acceptBlock(block);
+        }
+
+        TransactionOutput minted = getMinted(block);
+
+        if (minted == null) {
+            EventLog.error("SYN003: Invalid Genesis Block - Block Rejected");
+            return false;
+        }
+
+        chain.getUTXOs().put(minted.getId(), minted);
+
+        if (!chain.acceptBlock(block)) {
+            chain.getUTXOs().remove(minted.getId());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the minted output a genesis block spends, if the block has the shape Blockchain.mineGenesis gives it:
+     * one transaction with one input spending the whole supply minted to its sender.
+     * @param block The genesis block.
+     * @return The minted output, or null if the block does not spend exactly the minted supply.
+     */
+    private static TransactionOutput getMinted(Block block) {
+        if (block.getTransactions().size() != 1 || block.getTransactions().get(0).getInputs().size() != 1) {
+            return null;
+        }
+
+        Transaction transaction = block.getTransactions().get(0);
+        TransactionInput input = transaction.getInputs().get(0);
+        TransactionOutput minted = Blockchain.mint(Address.of(transaction.getSender()));
+
+        if (!minted.getId().equals(input.getTransactionOutputId()) || input.getUTXO() == null || input.getUTXO().getValue() != minted.getValue()) {
+            return null;
+        }
+
+        return minted;
+    }
+
+    /**
+     * Checks that a received block's Merkle root and transaction IDs match its contents, and that no transaction repeats.
+     * Decoded blocks keep the hashes as sent, and acceptBlock only checks the header, so a peer could otherwise pair a
+     * valid header with different transactions.
+     * A repeated transaction must be rejected here: the Merkle tree pairs an odd last node with itself, so a body with
+     * its last transaction repeated has the same root. It would fail to connect and mark the valid header invalid.
+     * @param block The block.
+     * @return True if the block is consistent, false otherwise.
+     */
+    public static boolean isWellFormed(Block block) {
+        HashSet<Digest> transactionIds = new HashSet<>();
+
+        for (Transaction transaction : block.getTransactions()) {
+            if (!isWellFormed(transaction) || !transactionIds.add(transaction.getTransactionId())) {
+                return false;
+            }
+        }
+
+        return Objects.equals(block.getMerkleRoot(), SecurityUtil.getMerkleRoot(block.getTransactions()));
+    }
+
+    /**
+     * Checks that a received transaction's ID matches its contents and that each output ID is derived from the
+     * transaction ID and the output's position, which also makes the output IDs distinct.
+     * @param transaction The transaction.
+     * @return True if the transaction is consistent, false otherwise.
+     */
+    public static boolean isWellFormed(Transaction transaction) {
+        if (transaction.getTransactionId() == null || transaction.getSignature() == null || !transaction.getTransactionId().equals(transaction.calculateHash())) {
+            return false;
+        }
+
+        for (int i = 0; i < transaction.getOutputs().size(); i++) {
+            TransactionOutput output = transaction.getOutputs().get(i);
+
+            if (output.getId() == null || !transaction.getTransactionId().equals(output.getParentTransactionId()) || !output.getId().equals(new TransactionOutput(output.getRecipient(), output.getValue(), transaction.getTransactionId(), i).getId())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int requested = 0;
+        int received = 0;
+        int verified = 0;
+
+        for (int i = head; i < slots.size(); i++) {
+            switch (slots.get(i).state) {
+                case REQUESTED -> requested++;
+                case RECEIVED -> received++;
+                case VERIFIED, INVALID -> verified++;
+                default -> { }
+            }
+        }
+
+        return "headers pending=" + (slots.size() - head) + ", requested=" + requested + ", verifying=" + received +
+                ", awaiting apply=" + verified + " | " + headersStage + ", " + downloadStage + ", " + verifyStage + ", " + applyStage;
+    }
+
+    /**
+     * Represents one header of the pipeline's run and the state of its body.
+     */
+    private static class Slot {
+
+        private BlockHeader header; // The checked header.
+        private int height; // The height of the block.
+        private Block block; // The body, once received.
+        private int state = QUEUED; // The stage the body is in.
+        private long requestNanos; // The time the body was last requested.
+
+        /**
+         * Constructs a Slot for a header whose body is not requested yet.
+         * @param header The checked header.
+         * @param height The height of the block.
+         */
+        private Slot(BlockHeader header, int height) {
+            this.header = header;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Represents the counters of one pipeline stage.
+     * Throughput is measured over the time the stage was active, from starting its first block to finishing its latest.
+     */
+    public static class Stage {
+
+        private String name; // The name of the stage.
+        private long count; // The number of blocks the stage handled.
+        private long firstNanos; // The time the stage started its first block.
+        private long lastNanos; // The time the stage finished its latest block.
+
+        /**
+         * Constructs a Stage.
+         * @param name The name of the stage.
+         */
+        public Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records blocks the stage finished handling.
+         * @param blocks The number of blocks.
+         * @param startNanos The time the stage started handling them, from System.nanoTime.
+         */
+        public synchronized void record(int blocks, long startNanos) {
+            if (blocks <= 0) {
+                return;
+            }
+
+            if (count == 0 || startNanos < firstNanos) {
+                firstNanos = startNanos;
+            }
+
+            count += blocks;
+            lastNanos = Math.max(lastNanos, System.nanoTime());
+        }
+
+        /**
+         * Returns the number of blocks the stage handled.
+         * @return The count.
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the throughput of the stage while it was active.
+         * @return The blocks per second, or 0 before the stage handled any block.
+         */
+        public synchronized double getThroughput() {
+            return lastNanos > firstNanos ? count * 1e9 / (lastNanos - firstNanos) : 0;
+        }
+
+        /**
+         * Returns the name of the stage.
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + " " + count + " (" + Math.round(getThroughput()) + "/s)";
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package henrycaldwell;
+
+import java.math.BigInteger;
+
+/**
+ * Utility class for proof-of-work targets in compact form.
+ * A target is a 256-bit threshold that a block hash, read as an unsigned big-endian number, must not exceed.
+ * The compact "bits" form stores it in an int as a one-byte exponent (the length of the target in bytes)
+ * followed by a three-byte mantissa holding its most significant bytes, so the target can move in small steps.
+ */
+public class Target {
+
+    private static final BigInteger TWO_POW_256 = BigInteger.ONE.shiftLeft(256); // The number of distinct hashes.
+
+    /**
+     * Expands compact bits into the full target.
+     * @param bits The compact target.
+     * @return The target.
+     */
+    public static BigInteger decode(int bits) {
+        int exponent = bits >>> 24;
+        BigInteger mantissa = BigInteger.valueOf(bits & 0x007fffff);
+        return exponent <= 3 ? mantissa.shiftRight(8 * (3 - exponent)) : mantissa.shiftLeft(8 * (exponent - 3));
+    }
+
+    /**
+     * Compresses a target into compact bits, rounding it down to its three most significant bytes.
+     * @param target The target, between 0 and 2^256 - 1.
+     * @return The compact target.
+     */
+    public static int encode(BigInteger target) {
+        int size = (target.bitLength() + 7) / 8;
+        long mantissa = size <= 3 ? target.longValue() << (8 * (3 - size)) : target.shiftRight(8 * (size - 3)).longValue();
+
+        // The top mantissa bit is a sign bit in the compact form, so shift it into the exponent instead.
+        if ((mantissa & 0x00800000) != 0) {
+            mantissa >>>= 8;
+            size++;
+        }
+
+        return size << 24 | (int) mantissa;
+    }
+
+    /**
+     * Returns the compact target requiring a hash to start with at least the given number of zero bits.
+     * @param zeroBits The number of leading zero bits, where each leading hexadecimal zero is four bits.
+     * @return The compact target.
+     */
+    public static int fromLeadingZeroBits(int zeroBits) {
+        return encode(BigInteger.ONE.shiftLeft(256 - zeroBits).subtract(BigInteger.ONE));
+    }
+
+    /**
+     * Expands compact bits into the target as 32 big-endian bytes, for comparing digests without BigInteger.
+     * @param bits The compact target.
+     * @return The target bytes.
+     */
+    public static byte[] toBytes(int bits) {
+        byte[] magnitude = decode(bits).toByteArray();
+        byte[] target = new byte[Digest.SIZE];
+        int length = Math.min(magnitude.length, Digest.SIZE);
+        System.arraycopy(magnitude, magnitude.length - length, target, Digest.SIZE - length, length);
+        return target;
+    }
+
+    /**
+     * Checks if a hash meets a target.
+     * @param hash The block hash.
+     * @param bits The compact target.
+     * @return True if the hash is at most the target, false otherwise.
+     */
+    public static boolean meets(Digest hash, int bits) {
+        return HeaderHasher.meetsTarget(hash.toByteArray(), toBytes(bits));
+    }
+
+    /**
+     * Returns the expected number of hashes needed to meet a target.
+     * @param bits The compact target.
+     * @return The work, 2^256 / (target + 1).
+     */
+    public static BigInteger getWork(int bits) {
+        return TWO_POW_256.divide(decode(bits).add(BigInteger.ONE));
+    }
+}
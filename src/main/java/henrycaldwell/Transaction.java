@@ -11,11 +11,10 @@ import java.security.PrivateKey;
  */
 public class Transaction {
 
-    private String transactionId; // The unique identifier of the transaction.
+    private Digest transactionId; // The unique identifier of the transaction.
     private PublicKey sender; // The public key of the sender.
-    private PublicKey recipient; // The public key of the recipient.
-    private double value; // The value of the transaction.
-    private double fee; // The value of the transaction fee.
+    private ArrayList<Payment> payments; // The payments made by the transaction, one output each.
+    private long fee; // The value of the transaction fee in base units.
     private byte[] signature; // The digital signature of the transaction.
 
     private ArrayList<TransactionInput> inputs; // The list of transaction inputs.
@@ -24,38 +23,83 @@ public class Transaction {
     /**
      * Constructs a Transaction with the specified sender, recipient, value, and inputs.
      * @param sender The public key of the sender.
-     * @param recipient The public key of the recipient.
+     * @param recipient The address of the recipient.
      * @param value The value of the transaction.
-     * @param inputs The list of inputs for the transaction.
+     * @param inputs The list of inputs for the transaction, each referencing the UTXO it spends.
      */
-    public Transaction(PublicKey sender, PublicKey recipient, double value, ArrayList<TransactionInput> inputs) {
+    public Transaction(PublicKey sender, Address recipient, long value, ArrayList<TransactionInput> inputs) {
+        this(sender, recipient, value, estimateFee(inputs.size(), 0), inputs);
+    }
+
+    /**
+     * Constructs a Transaction with the specified sender, recipient, value, fee, and inputs.
+     * Any input value left over after the value and fee is returned to the sender as a change output.
+     * @param sender The public key of the sender.
+     * @param recipient The address of the recipient.
+     * @param value The value of the transaction.
+     * @param fee The transaction fee, as chosen by the CoinSelector.
+     * @param inputs The list of inputs for the transaction, each referencing the UTXO it spends.
+     */
+    public Transaction(PublicKey sender, Address recipient, long value, long fee, ArrayList<TransactionInput> inputs) {
+        this(sender, List.of(new Payment(recipient, value)), fee, inputs);
+    }
+
+    /**
+     * Constructs a Transaction paying several recipients from one set of inputs under one signature.
+     * Any input value left over after the payments and fee is returned to the sender as a change output.
+     * @param sender The public key of the sender.
+     * @param payments The payments to make, in output order.
+     * @param fee The transaction fee, as chosen by the CoinSelector.
+     * @param inputs The list of inputs for the transaction, each referencing the UTXO it spends.
+     */
+    public Transaction(PublicKey sender, List<Payment> payments, long fee, ArrayList<TransactionInput> inputs) {
         this.sender = sender;
-        this.recipient = recipient;
-        this.value = value;
+        this.payments = new ArrayList<>(payments);
         this.inputs = new ArrayList<>(inputs);
         this.outputs = new ArrayList<>();
-        this.fee = calculateTransactionFee();
+        this.fee = fee;
         processTransaction();
     }
 
     /**
-     * Processes the transaction by setting inputs and creating outputs.
+     * Constructs a Transaction from stored fields without reprocessing it against the UTXO set.
+     * @param transactionId The ID of the transaction.
+     * @param sender The public key of the sender.
+     * @param payments The payments made by the transaction.
+     * @param fee The transaction fee.
+     * @param signature The digital signature of the transaction.
+     * @param inputs The list of inputs, with their referenced UTXOs set.
+     * @param outputs The list of outputs.
      */
-    public void processTransaction() {
-        for (TransactionInput input : inputs) {
-            input.setUTXO(Blockchain.UTXOs.get(input.getTransactionOutputId()));
-        }
+    public Transaction(Digest transactionId, PublicKey sender, ArrayList<Payment> payments, long fee, byte[] signature, ArrayList<TransactionInput> inputs, ArrayList<TransactionOutput> outputs) {
+        this.transactionId = transactionId;
+        this.sender = sender;
+        this.payments = payments;
+        this.fee = fee;
+        this.signature = signature;
+        this.inputs = inputs;
+        this.outputs = outputs;
+    }
 
-        Double totalValue = value + fee;
-        Double leftOver = getInputsValue() - totalValue;
+    /**
+     * Processes the transaction by creating its outputs from the payments and the change left over by its inputs.
+     * Each input must already reference the UTXO it spends.
+     * The transaction ID covers only the outputs' recipients and values, so it is computed from the payments and change
+     * first, and each output is then created once with its ID.
+     */
+    public void processTransaction() {
+        long leftOver = Math.subtractExact(getInputsValue(), Math.addExact(getValue(), fee));
+        ByteWriter data = BlockCodec.writer();
+        BlockCodec.encodeHashData(this, leftOver, data);
+        transactionId = SecurityUtil.hash(data.getBuffer(), 0, data.size());
 
-        outputs.add(new TransactionOutput(recipient, value, transactionId));
+        for (Payment payment : payments) {
+            outputs.add(new TransactionOutput(payment.getRecipient(), payment.getValue(), transactionId, outputs.size()));
+        }
 
         if (leftOver > 0) {
-            outputs.add(new TransactionOutput(sender, leftOver, transactionId));
+            outputs.add(new TransactionOutput(Address.of(sender), leftOver, transactionId, outputs.size()));
         }
-
-        transactionId = calculateHash();
     }
 
     /**
@@ -63,24 +107,62 @@ public class Transaction {
      * @return True if the transaction is verified, false otherwise.
      */
     public boolean verifyTransaction() {
-        if (!verifySignature()) {
-            System.out.println(StringUtil.formatText("TRX001: Transaction Signature Verification Failed - Transaction Failed to Verify", StringUtil.ANSI_RED));
-            return false;
+        ChainEvents.TransactionVerified event = new ChainEvents.TransactionVerified();
+        event.begin();
+        String error = findError();
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.transactionId = String.valueOf(transactionId);
+            event.inputs = inputs.size();
+            event.outputs = outputs.size();
+            event.valid = error == null;
+            event.error = error == null ? null : error.substring(0, error.indexOf(':'));
+            event.commit();
         }
 
-        if (getInputsValue() < Blockchain.minimumTransaction) {
-            System.out.println(StringUtil.formatText("TRX002: Transaction Inputs Too Small for Minimum Transaction - Transaction Failed to Verify", StringUtil.ANSI_RED));
+        if (error != null) {
+            EventLog.error(error);
             return false;
         }
 
-        Double totalValue = value + fee;
+        return true;
+    }
 
-        if (getInputsValue() < totalValue) {
-            System.out.println(StringUtil.formatText("TRX003: Transaction Inputs Too Small for Value and Fee - Transaction Failed to Verify", StringUtil.ANSI_RED));
-            return false;
+    /**
+     * Checks the signature and the input values, stopping at the first failed check.
+     * @return The failed check's error, or null if the transaction is valid.
+     */
+    private String findError() {
+        if (!verifySignature()) {
+            return "TRX001: Transaction Signature Verification Failed - Transaction Failed to Verify";
         }
 
-        return true;
+        long inputsValue;
+        long totalValue;
+
+        try {
+            inputsValue = getInputsValue();
+            totalValue = Math.addExact(getValue(), fee);
+        } catch (ArithmeticException e) {
+            return "TRX004: Transaction Amount Overflow - Transaction Failed to Verify";
+        }
+
+        for (Payment payment : payments) {
+            if (payment.getValue() <= 0) {
+                return "TRX005: Non-Positive Payment Value - Transaction Failed to Verify";
+            }
+        }
+
+        if (inputsValue < Blockchain.minimumTransaction) {
+            return "TRX002: Transaction Inputs Too Small for Minimum Transaction - Transaction Failed to Verify";
+        }
+
+        if (inputsValue < totalValue) {
+            return "TRX003: Transaction Inputs Too Small for Value and Fee - Transaction Failed to Verify";
+        }
+
+        return null;
     }
 
     /**
@@ -88,31 +170,26 @@ public class Transaction {
      * @param privateKey The private key of the sender.
      */
     public void generateSignature(PrivateKey privateKey) {
-        String data = SecurityUtil.getStringFromKey(sender) +
-                SecurityUtil.getStringFromKey(recipient) +
-                Double.toString(value) +
-                Double.toString(fee);
-        signature = SecurityUtil.applyECDSASig(privateKey, data);
+        ByteWriter data = BlockCodec.writer();
+        BlockCodec.encodeSignatureData(this, data);
+        signature = SecurityUtil.applyECDSASig(privateKey, data.getBuffer(), 0, data.size());
     }
 
     /**
-     * Verifies the digital signature of the transaction.
+     * Verifies the digital signature of the transaction, skipping the check if the same signature was already verified.
      * @return True if the signature is valid, false otherwise.
      */
     public boolean verifySignature() {
-        String data = SecurityUtil.getStringFromKey(sender) +
-                SecurityUtil.getStringFromKey(recipient) +
-                Double.toString(value) +
-                Double.toString(fee);
-        return SecurityUtil.verifyECDSASig(sender, data, signature);
+        return Blockchain.signatureVerifier.verify(this);
     }
 
+
     /**
      * Calculates the transaction fee based on the size of the transaction and the fee rate.
      * @return The transaction fee.
      */
-    public double calculateTransactionFee() {
-        return calculateTransactionSize() * Blockchain.feeRate;
+    public long calculateTransactionFee() {
+        return Math.multiplyExact(calculateTransactionSize(), Blockchain.feeRate);
     }
     
     /**
@@ -120,64 +197,61 @@ public class Transaction {
      * @return The size of the transaction.
      */
     public int calculateTransactionSize() {
+        return estimateSize(inputs == null ? 0 : inputs.size(), outputs == null ? 0 : outputs.size());
+    }
+
+    /**
+     * Estimates the size of a transaction from its number of inputs and outputs, without building it.
+     * @param inputCount The number of inputs.
+     * @param outputCount The number of outputs.
+     * @return The size of the transaction in bytes.
+     */
+    public static int estimateSize(int inputCount, int outputCount) {
         int size = 0;
 
         // size += 4; // Version (not included yet)
         // size += 4; // Locktime (not included yet)
 
         // Inputs
-        if (inputs != null) {
-            for (@SuppressWarnings("unused")
-            TransactionInput input : inputs) {
-                size += 32; // Previous Transaction Hash
-                size += 4; // Previous Transaction Output Index
-                size += 1; // ScriptSig Size
-                size += 72; // Signature
-                size += 33; // Public Key (Compressed)
-            }
-        }
+        size += inputCount * (32 // Previous Transaction Hash
+                + 4 // Previous Transaction Output Index
+                + 1 // ScriptSig Size
+                + 72 // Signature
+                + 33); // Public Key (Compressed)
 
         // Outputs
-        if (outputs != null) {
-            for (@SuppressWarnings("unused")
-            TransactionOutput output : outputs) {
-                size += 8; // Value
-                size += 1; // ScriptPubKey Size
-                size += 25; // ScriptPubKey
-            }
-        }
+        size += outputCount * (8 // Value
+                + 1 // ScriptPubKey Size
+                + 25); // ScriptPubKey
 
         return size;
     }
 
     /**
-     * Calculates the hash of the transaction.
-     * @return The calculated hash.
+     * Estimates the fee of a transaction from its number of inputs and outputs at the current fee rate.
+     * @param inputCount The number of inputs.
+     * @param outputCount The number of outputs.
+     * @return The fee in base units.
      */
-    public String calculateHash() {
-        StringBuilder data = new StringBuilder();
-
-        data.append(SecurityUtil.getStringFromKey(sender))
-                .append(SecurityUtil.getStringFromKey(recipient))
-                .append(Double.toString(value))
-                .append(Double.toString(fee));
-
-        for (TransactionInput input : inputs) {
-            data.append(input.getTransactionOutputId());
-        }
-
-        for (TransactionOutput output : outputs) {
-            data.append(output.getId());
-        }
+    public static long estimateFee(int inputCount, int outputCount) {
+        return Math.multiplyExact(estimateSize(inputCount, outputCount), Blockchain.feeRate);
+    }
 
-        return SecurityUtil.applySha256(data.toString());
+    /**
+     * Calculates the hash of the transaction over its canonical binary encoding.
+     * @return The calculated hash.
+     */
+    public Digest calculateHash() {
+        ByteWriter data = BlockCodec.writer();
+        BlockCodec.encodeHashData(this, data);
+        return SecurityUtil.hash(data.getBuffer(), 0, data.size());
     }
 
     /**
      * Returns the transaction ID.
      * @return The transaction ID.
      */
-    public String getTransactionId() {
+    public Digest getTransactionId() {
         return transactionId;
     }
 
@@ -190,26 +264,33 @@ public class Transaction {
     }
 
     /**
-     * Returns the recipient's public key.
-     * @return The recipient's public key.
+     * Returns the payments made by the transaction, in output order.
+     * @return The list of payments.
      */
-    public PublicKey getRecipient() {
-        return recipient;
+    public List<Payment> getPayments() {
+        return payments;
     }
 
     /**
-     * Returns the value of the transaction.
+     * Returns the total value paid to the recipients in base units, excluding change and fee.
      * @return The value of the transaction.
+     * @throws ArithmeticException If the total overflows.
      */
-    public double getValue() {
-        return value;
+    public long getValue() {
+        long total = 0;
+
+        for (Payment payment : payments) {
+            total = Math.addExact(total, payment.getValue());
+        }
+
+        return total;
     }
 
     /**
-     * Returns the transaction fee.
+     * Returns the transaction fee in base units.
      * @return The transaction fee.
      */
-    public double getFee() {
+    public long getFee() {
         return fee;
     }
 
@@ -230,18 +311,19 @@ public class Transaction {
     }
 
     /**
-     * Returns the total value of the transaction inputs.
+     * Returns the total value of the transaction inputs in base units.
      * @return The total value of the transaction inputs.
+     * @throws ArithmeticException If the total overflows.
      */
-    public double getInputsValue() {
-        double total = 0;
+    public long getInputsValue() {
+        long total = 0;
 
         for (TransactionInput input : inputs) {
             if (input.getUTXO() == null) {
                 continue;
             }
 
-            total += input.getUTXO().getValue();
+            total = Math.addExact(total, input.getUTXO().getValue());
         }
 
         return total;
@@ -256,14 +338,15 @@ public class Transaction {
     }
 
     /**
-     * Returns the total value of the transaction outputs.
+     * Returns the total value of the transaction outputs in base units.
      * @return The total value of the transaction outputs.
+     * @throws ArithmeticException If the total overflows.
      */
-    public double getOutputsValue() {
-        double total = 0;
+    public long getOutputsValue() {
+        long total = 0;
 
         for (TransactionOutput output : outputs) {
-            total += output.getValue();
+            total = Math.addExact(total, output.getValue());
         }
 
         return total;
@@ -272,14 +355,56 @@ public class Transaction {
     @Override
     public String toString() {
         return "Transaction{" +
-                "transactionId='" + transactionId + '\'' +
+                "transactionId=" + transactionId +
                 ", sender=" + sender +
-                ", recipient=" + recipient +
-                ", value=" + value +
+                ", payments=" + payments +
                 ", fee=" + fee +
                 ", signature=" + new String(signature) +
                 ", inputs=" + inputs +
                 ", outputs=" + outputs +
                 '}';
     }
+
+    /**
+     * Represents one payment of a transaction: a value sent to a recipient.
+     */
+    public static class Payment {
+
+        private Address recipient; // The address of the recipient.
+        private long value; // The value paid in base units.
+
+        /**
+         * Constructs a Payment.
+         * @param recipient The address of the recipient.
+         * @param value The value paid in base units.
+         */
+        public Payment(Address recipient, long value) {
+            this.recipient = recipient;
+            this.value = value;
+        }
+
+        /**
+         * Returns the recipient's address.
+         * @return The recipient's address.
+         */
+        public Address getRecipient() {
+            return recipient;
+        }
+
+        /**
+         * Returns the value paid.
+         * @return The value in base units.
+         */
+        public long getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "Payment{" +
+                    "recipient=" + recipient +
+                    ", value=" + value +
+                    '}';
+        }
+    }
 }
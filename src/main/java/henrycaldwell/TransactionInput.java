@@ -5,14 +5,14 @@ package henrycaldwell;
  */
 public class TransactionInput {
 
-    private String transactionOutputId; // The ID of the transaction output.
+    private Digest transactionOutputId; // The ID of the transaction output.
     private TransactionOutput UTXO; // The unspent transaction output (UTXO) that this input references.
 
     /**
      * Constructs a TransactionInput with the specified transaction output ID.
      * @param transactionOutputId The ID of the transaction output to be used.
      */
-    public TransactionInput(String transactionOutputId) {
+    public TransactionInput(Digest transactionOutputId) {
         this.transactionOutputId = transactionOutputId;
     }
 
@@ -20,7 +20,7 @@ public class TransactionInput {
      * Returns the ID of the transaction output.
      * @return The ID of the transaction output.
      */
-    public String getTransactionOutputId() {
+    public Digest getTransactionOutputId() {
         return transactionOutputId;
     }
 
@@ -43,7 +43,7 @@ public class TransactionInput {
     @Override
     public String toString() {
         return "TransactionInput{" +
-                "transactionOutputId='" + transactionOutputId + '\'' +
+                "transactionOutputId=" + transactionOutputId +
                 ", UTXO=" + UTXO +
                 '}';
     }
@@ -1,52 +1,68 @@
 package henrycaldwell;
 
-import java.security.PublicKey;
-
 /**
  * Represents an output in a blockchain transaction.
  */
 public class TransactionOutput {
 
-    private String id; // The unique identifier of the transaction output.
-    private PublicKey recipient; // The public key of the recipient.
-    private double value; // The value of the output.
-    private String parentTransactionId; // The ID of the transaction this output belongs to.
+    private Digest id; // The unique identifier of the transaction output.
+    private Address recipient; // The address of the recipient.
+    private long value; // The value of the output in base units.
+    private Digest parentTransactionId; // The ID of the transaction this output belongs to.
+
+    /**
+     * Constructs a TransactionOutput with the specified recipient and value, at a position of its parent transaction.
+     * The ID is derived from the parent transaction ID and the index, so equal payments to one address stay distinct.
+     * @param recipient The address of the recipient.
+     * @param value The value that was transfered.
+     * @param parentTransactionId The ID of the parent transaction.
+     * @param index The position of the output in its parent transaction.
+     */
+    public TransactionOutput(Address recipient, long value, Digest parentTransactionId, int index) {
+        this.recipient = recipient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
+        ByteWriter data = BlockCodec.writer();
+        BlockCodec.encodeOutputHashData(parentTransactionId, index, data);
+        this.id = SecurityUtil.hash(data.getBuffer(), 0, data.size());
+    }
 
     /**
-     * Constructs a TransactionOutput with the specified recipient, value, and ids.
-     * @param recipient The public key of the recipient.
+     * Constructs a TransactionOutput from stored fields without recomputing its ID.
+     * @param id The unique identifier of the output.
+     * @param recipient The address of the recipient.
      * @param value The value that was transfered.
      * @param parentTransactionId The ID of the parent transaction.
      */
-    public TransactionOutput(PublicKey recipient, double value, String parentTransactionId) {
+    public TransactionOutput(Digest id, Address recipient, long value, Digest parentTransactionId) {
+        this.id = id;
         this.recipient = recipient;
         this.value = value;
         this.parentTransactionId = parentTransactionId;
-        this.id = SecurityUtil.applySha256(SecurityUtil.getStringFromKey(recipient) + Double.toString(value) + parentTransactionId);
     }
 
     /**
-     * Checks if the provided public key matches the recipient's public key.
-     * @param publicKey The public key to check.
-     * @return True if the public key matches, false otherwise.
+     * Checks if the provided address is the recipient's address.
+     * @param address The address to check.
+     * @return True if the address matches, false otherwise.
      */
-    public boolean isMine(PublicKey publicKey) {
-        return publicKey == recipient;
+    public boolean isMine(Address address) {
+        return recipient.equals(address);
     }
 
     /**
      * Returns the unique identifier of the transaction output.
      * @return The unique identifier of the transaction output.
      */
-    public String getId() {
+    public Digest getId() {
         return id;
     }
 
     /**
-     * Returns the public key of the recipient.
-     * @return The public key of the recipient.
+     * Returns the address of the recipient.
+     * @return The address of the recipient.
      */
-    public PublicKey getRecipient() {
+    public Address getRecipient() {
         return recipient;
     }
 
@@ -54,7 +70,7 @@ public class TransactionOutput {
      * Returns the value of the output.
      * @return The value of the output.
      */
-    public double getValue() {
+    public long getValue() {
         return value;
     }
 
@@ -62,17 +78,35 @@ public class TransactionOutput {
      * Returns the ID of the transaction this output belongs to.
      * @return The ID of the parent transaction.
      */
-    public String getParentTransactionId() {
+    public Digest getParentTransactionId() {
         return parentTransactionId;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof TransactionOutput)) {
+            return false;
+        }
+
+        return id.equals(((TransactionOutput) other).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
     @Override
     public String toString() {
         return "TransactionOutput{" +
-                "id='" + id + '\'' +
+                "id=" + id +
                 ", recipient='" + recipient + '\'' +
                 ", value=" + value +
-                ", parentTransactionId='" + parentTransactionId + '\'' +
+                ", parentTransactionId=" + parentTransactionId +
                 '}';
     }
 }
@@ -0,0 +1,75 @@
+package henrycaldwell;
+
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Represents the spends and creations of a block, applied to the UTXO set as one atomic change.
+ */
+public class UTXOBatch {
+
+    private ArrayList<Digest> spent = new ArrayList<>(); // The IDs of the outputs spent by the batch.
+    private ArrayList<TransactionOutput> created = new ArrayList<>(); // The outputs created by the batch.
+
+    /**
+     * Constructs an empty UTXOBatch.
+     */
+    public UTXOBatch() {
+    }
+
+    /**
+     * Constructs a UTXOBatch holding the spends and creations of all transactions in a block.
+     * @param block The block whose transactions are applied.
+     */
+    public UTXOBatch(Block block) {
+        for (Transaction transaction : block.getTransactions()) {
+            for (TransactionInput input : transaction.getInputs()) {
+                spend(input.getTransactionOutputId());
+            }
+
+            for (TransactionOutput output : transaction.getOutputs()) {
+                create(output);
+            }
+        }
+    }
+
+    /**
+     * Records an output as spent.
+     * @param id The ID of the spent output.
+     */
+    public void spend(Digest id) {
+        spent.add(id);
+    }
+
+    /**
+     * Records a newly created output.
+     * @param output The created output.
+     */
+    public void create(TransactionOutput output) {
+        created.add(output);
+    }
+
+    /**
+     * Returns the IDs of the spent outputs, in the order they were recorded.
+     * @return The spent output IDs.
+     */
+    public List<Digest> getSpent() {
+        return spent;
+    }
+
+    /**
+     * Returns the created outputs, in the order they were recorded.
+     * @return The created outputs.
+     */
+    public List<TransactionOutput> getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "UTXOBatch{" +
+                "spent=" + spent +
+                ", created=" + created +
+                '}';
+    }
+}
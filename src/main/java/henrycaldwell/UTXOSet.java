@@ -0,0 +1,380 @@
+package henrycaldwell;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * Represents the set of unspent transaction outputs (UTXOs), indexed both by output ID and by recipient.
+ * The outputs and the recipient index live in a UTXOStore, either on the heap or off-heap.
+ * For off-heap stores an on-heap LRU cache keeps recently created and looked-up outputs as objects. The cache is split
+ * into stripes by output ID, each with its own monitor, so concurrent readers rarely contend on it.
+ * The set is safe for concurrent use. Reads are optimistic and only lock when they overlap a write, writes are serialized,
+ * and a whole block's spends and creations are applied as one batch that readers observe either entirely or not at all.
+ */
+public class UTXOSet {
+
+    private static final int CACHE_STRIPES = 64; // The number of independently locked cache stripes.
+
+    private UTXOStore store; // The UTXOs by output ID and by recipient.
+    private CacheStripe[] cache; // The stripes of the hot UTXO cache, or null without a cache.
+    private StampedLock lock = new StampedLock(); // Serializes writers and lets reads detect a concurrent write.
+
+    /**
+     * Constructs an empty UTXOSet holding its outputs on the heap.
+     */
+    public UTXOSet() {
+        this(new HeapUTXOStore(), 0);
+    }
+
+    /**
+     * Constructs an empty UTXOSet over a store with an LRU cache of hot outputs.
+     * Each stripe evicts its own least recently used output, so eviction is LRU per stripe rather than overall.
+     * @param store The store holding the outputs, which must be empty.
+     * @param cacheSize The maximum number of cached outputs, or 0 for no cache.
+     */
+    public UTXOSet(UTXOStore store, int cacheSize) {
+        this.store = store;
+
+        if (cacheSize > 0) {
+            this.cache = new CacheStripe[CACHE_STRIPES];
+
+            for (int i = 0; i < CACHE_STRIPES; i++) {
+                cache[i] = new CacheStripe(Math.max(1, cacheSize / CACHE_STRIPES));
+            }
+        }
+    }
+
+    /**
+     * Returns the UTXO with the given ID, from the cache if it is hot.
+     * @param id The ID of the output.
+     * @return The UTXO, or null if it is not unspent.
+     */
+    public TransactionOutput get(Digest id) {
+        TransactionOutput output = cached(id);
+
+        if (output != null) {
+            return output;
+        }
+
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                output = store.get(id);
+
+                if (lock.validate(stamp)) {
+                    cache(id, output, stamp);
+                    return output;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        stamp = lock.readLock();
+
+        try {
+            output = store.get(id);
+            cache(id, output, stamp);
+            return output;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Checks if an output is unspent.
+     * @param id The ID of the output.
+     * @return True if the output is in the set, false otherwise.
+     */
+    public boolean containsKey(Digest id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Adds an unspent output to the set and to its recipient's index.
+     * @param id The ID of the output.
+     * @param output The output.
+     */
+    public void put(Digest id, TransactionOutput output) {
+        long stamp = lock.writeLock();
+
+        try {
+            add(id, output);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a spent output from the set and from its recipient's index.
+     * @param id The ID of the output.
+     * @return The removed output, or null if it was not in the set.
+     */
+    public TransactionOutput remove(Digest id) {
+        long stamp = lock.writeLock();
+
+        try {
+            return delete(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Applies the spends and then the creations of a batch so that they become visible atomically.
+     * @param batch The batch to apply.
+     * @return The undo batch, which spends the created outputs and recreates the spent ones when applied.
+     */
+    public UTXOBatch apply(UTXOBatch batch) {
+        ChainEvents.UTXOBatchApplied event = new ChainEvents.UTXOBatchApplied();
+        event.begin();
+        long stamp = lock.writeLock();
+
+        try {
+            UTXOBatch undo = new UTXOBatch();
+
+            for (Digest id : batch.getSpent()) {
+                TransactionOutput spent = delete(id);
+
+                if (spent != null) {
+                    undo.create(spent);
+                }
+            }
+
+            for (TransactionOutput output : batch.getCreated()) {
+                add(output.getId(), output);
+                undo.spend(output.getId());
+            }
+
+            event.end();
+
+            if (event.shouldCommit()) {
+                event.spent = batch.getSpent().size();
+                event.created = batch.getCreated().size();
+                event.size = store.size();
+                event.commit();
+            }
+
+            return undo;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Runs a read-only function against a consistent snapshot of the set.
+     * The function first runs without locking and is re-run under the read lock if a write happened meanwhile.
+     * An optimistic run that overlaps a write may see a half-updated table, so any exception it throws is treated as a failed validation.
+     * @param reader The side-effect free function reading the set.
+     * @return The function's result.
+     */
+    public <T> T read(Function<UTXOSet, T> reader) {
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                T result = reader.apply(this);
+
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        stamp = lock.readLock();
+
+        try {
+            return reader.apply(this);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns a consistent copy of the UTXOs owned by an address without scanning the whole set.
+     * @param owner The address of the recipient.
+     * @return The owner's UTXOs.
+     */
+    public List<TransactionOutput> getOwned(Address owner) {
+        return read(set -> {
+            List<TransactionOutput> outputs = new ArrayList<>();
+            set.store.forEachOwned(owner, outputs::add);
+            return outputs;
+        });
+    }
+
+    /**
+     * Returns the total value of the UTXOs owned by an address, as of a single consistent snapshot.
+     * @param owner The address of the recipient.
+     * @return The balance of the owner.
+     */
+    public long getBalance(Address owner) {
+        long total = 0;
+
+        for (TransactionOutput output : getOwned(owner)) {
+            total = Math.addExact(total, output.getValue());
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns a consistent copy of all UTXOs.
+     * @return All UTXOs.
+     */
+    public List<TransactionOutput> values() {
+        return read(set -> {
+            List<TransactionOutput> outputs = new ArrayList<>(set.store.size());
+            set.store.forEach(outputs::add);
+            return outputs;
+        });
+    }
+
+    /**
+     * Returns the number of UTXOs.
+     * @return The number of UTXOs.
+     */
+    public int size() {
+        return read(set -> set.store.size());
+    }
+
+    /**
+     * Removes all UTXOs.
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+
+        try {
+            store.clear();
+
+            if (cache != null) {
+                for (CacheStripe stripe : cache) {
+                    synchronized (stripe) {
+                        stripe.clear();
+                    }
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns a cached output.
+     * @param id The ID of the output.
+     * @return The output, or null if it is not cached.
+     */
+    private TransactionOutput cached(Digest id) {
+        if (cache == null) {
+            return null;
+        }
+
+        CacheStripe stripe = stripe(id);
+
+        synchronized (stripe) {
+            return stripe.get(id);
+        }
+    }
+
+    /**
+     * Caches an output read from the store, unless a writer has taken the lock since the read.
+     * Writers update the cache only while holding the write lock, so the check under the stripe's monitor keeps a stale
+     * output from being cached after its spend.
+     * @param id The ID of the output.
+     * @param output The output, or null if it was not found.
+     * @param stamp The stamp the read was validated against.
+     */
+    private void cache(Digest id, TransactionOutput output, long stamp) {
+        if (cache == null || output == null) {
+            return;
+        }
+
+        CacheStripe stripe = stripe(id);
+
+        synchronized (stripe) {
+            if (lock.validate(stamp)) {
+                stripe.put(id, output);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache stripe an output ID belongs to.
+     * @param id The ID of the output.
+     * @return The stripe.
+     */
+    private CacheStripe stripe(Digest id) {
+        return cache[(int) (id.getWord(1) & (CACHE_STRIPES - 1))];
+    }
+
+    /**
+     * Adds an output to the store and the cache. The caller must hold the write lock.
+     * @param id The ID of the output.
+     * @param output The output.
+     */
+    private void add(Digest id, TransactionOutput output) {
+        store.put(id, output);
+
+        if (cache != null) {
+            CacheStripe stripe = stripe(id);
+
+            synchronized (stripe) {
+                stripe.put(id, output);
+            }
+        }
+    }
+
+    /**
+     * Removes an output from the store and the cache. The caller must hold the write lock.
+     * @param id The ID of the output.
+     * @return The removed output, or null if it was not in the set.
+     */
+    private TransactionOutput delete(Digest id) {
+        TransactionOutput output = store.remove(id);
+
+        if (cache != null) {
+            CacheStripe stripe = stripe(id);
+
+            synchronized (stripe) {
+                stripe.remove(id);
+            }
+        }
+
+        return output;
+    }
+
+    /**
+     * Represents one stripe of the hot UTXO cache, least recently used first, guarded by its own monitor.
+     */
+    private static class CacheStripe extends LinkedHashMap<Digest, TransactionOutput> {
+
+        private static final long serialVersionUID = 1L; // The serialized form version; stripes are never serialized.
+
+        private int capacity; // The maximum number of outputs in the stripe.
+
+        /**
+         * Constructs an empty CacheStripe.
+         * @param capacity The maximum number of outputs in the stripe.
+         */
+        private CacheStripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Digest, TransactionOutput> eldest) {
+            return size() > capacity;
+        }
+    }
+}
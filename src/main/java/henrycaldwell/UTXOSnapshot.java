@@ -0,0 +1,194 @@
+package henrycaldwell;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+/**
+ * Represents a checkpoint of the UTXO set tied to the block it was taken after.
+ * The file holds a magic number, format version, block hash, block height, output count and the BlockCodec encoding of every output,
+ * followed by a CRC32 checksum of all preceding bytes.
+ */
+public class UTXOSnapshot {
+
+    private static final int MAGIC = 0x55545853; // The magic number "UTXS" leading every snapshot file.
+    private static final int FORMAT_VERSION = 3; // The version of the snapshot format.
+    private static final String PREFIX = "utxo-", SUFFIX = ".snap"; // The snapshot file name parts around the zero-padded height.
+
+    private Digest blockHash; // The hash of the last block applied to the snapshot.
+    private int height; // The height of the last block applied to the snapshot.
+    private List<TransactionOutput> outputs; // The unspent outputs at that block.
+
+    /**
+     * Constructs a UTXOSnapshot with the specified block and outputs.
+     * @param blockHash The hash of the last block applied.
+     * @param height The height of the last block applied.
+     * @param outputs The unspent outputs at that block.
+     */
+    public UTXOSnapshot(Digest blockHash, int height, List<TransactionOutput> outputs) {
+        this.blockHash = blockHash;
+        this.height = height;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Writes a snapshot into a directory, replacing the file atomically once it is complete.
+     * @param directory The directory holding the snapshots.
+     * @param blockHash The hash of the last block applied.
+     * @param height The height of the last block applied.
+     * @param outputs The unspent outputs at that block.
+     * @return The path of the written snapshot.
+     */
+    public static Path write(Path directory, Digest blockHash, int height, Collection<TransactionOutput> outputs) {
+        Path file = directory.resolve(String.format("%s%010d%s", PREFIX, height, SUFFIX));
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        CRC32 checksum = new CRC32();
+        ByteWriter writer = new ByteWriter();
+
+        try (OutputStream stream = Files.newOutputStream(temporary)) {
+            DataOutputStream data = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16), checksum));
+            data.writeInt(MAGIC);
+            data.writeByte(FORMAT_VERSION);
+            writer.writeHash(blockHash);
+            data.write(writer.getBuffer(), 0, writer.size());
+            data.writeInt(height);
+            data.writeInt(outputs.size());
+
+            for (TransactionOutput output : outputs) {
+                writer.reset();
+                BlockCodec.encodeOutput(output, writer);
+                data.write(writer.getBuffer(), 0, writer.size());
+            }
+
+            data.flush();
+            new DataOutputStream(stream).writeLong(checksum.getValue());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a snapshot file after checking its checksum.
+     * @param file The snapshot file.
+     * @return The snapshot, or null if the file is truncated, corrupt or of an unknown format.
+     */
+    public static UTXOSnapshot read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 8) {
+                return null;
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.slice(0, buffer.capacity() - 8));
+
+            if (checksum.getValue() != buffer.getLong(buffer.capacity() - 8)) {
+                return null;
+            }
+
+            ByteReader reader = new ByteReader(buffer.slice(0, buffer.capacity() - 8));
+
+            if (reader.readInt() != MAGIC || reader.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+
+            Digest blockHash = reader.readHash();
+            int height = reader.readInt();
+            int count = reader.readInt();
+            List<TransactionOutput> outputs = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                outputs.add(BlockCodec.decodeOutput(reader));
+            }
+
+            return new UTXOSnapshot(blockHash, height, outputs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Lists the snapshot files in a directory, latest first.
+     * @param directory The directory holding the snapshots.
+     * @return The snapshot files ordered by descending height.
+     */
+    public static List<Path> list(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(PREFIX) && path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted((a, b) -> b.getFileName().compareTo(a.getFileName()))
+                    .toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes all but the given number of latest snapshots in a directory.
+     * @param directory The directory holding the snapshots.
+     * @param keep The number of snapshots to keep.
+     */
+    public static void prune(Path directory, int keep) {
+        List<Path> files = list(directory);
+
+        for (int i = keep; i < files.size(); i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of the last block applied to the snapshot.
+     * @return The block hash.
+     */
+    public Digest getBlockHash() {
+        return blockHash;
+    }
+
+    /**
+     * Returns the height of the last block applied to the snapshot.
+     * @return The block height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the unspent outputs at the snapshot's block.
+     * @return The unspent outputs.
+     */
+    public List<TransactionOutput> getOutputs() {
+        return outputs;
+    }
+
+    @Override
+    public String toString() {
+        return "UTXOSnapshot{" +
+                "blockHash='" + blockHash + '\'' +
+                ", height=" + height +
+                ", outputs=" + outputs.size() +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package henrycaldwell;
+
+import java.util.function.Consumer;
+
+/**
+ * Storage engine holding unspent transaction outputs by output ID, indexed by recipient.
+ * Implementations are not thread-safe; UTXOSet serializes writers and validates optimistic readers around them,
+ * so a read that overlaps a write may return garbage or throw, but must not loop forever or corrupt the store.
+ */
+public interface UTXOStore {
+
+    /**
+     * Returns the output with the given ID.
+     * @param id The ID of the output.
+     * @return The output, or null if it is not stored.
+     */
+    TransactionOutput get(Digest id);
+
+    /**
+     * Stores an output, replacing any output with the same ID.
+     * @param id The ID of the output.
+     * @param output The output.
+     */
+    void put(Digest id, TransactionOutput output);
+
+    /**
+     * Removes the output with the given ID.
+     * @param id The ID of the output.
+     * @return The removed output, or null if it was not stored.
+     */
+    TransactionOutput remove(Digest id);
+
+    /**
+     * Calls an action for every stored output paid to an address, without scanning the whole store.
+     * @param owner The address of the recipient.
+     * @param action The action receiving each output.
+     */
+    void forEachOwned(Address owner, Consumer<TransactionOutput> action);
+
+    /**
+     * Calls an action for every stored output.
+     * @param action The action receiving each output.
+     */
+    void forEach(Consumer<TransactionOutput> action);
+
+    /**
+     * Returns the number of stored outputs.
+     * @return The number of outputs.
+     */
+    int size();
+
+    /**
+     * Removes all outputs.
+     */
+    void clear();
+}
@@ -1,7 +1,7 @@
 package henrycaldwell;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -15,15 +15,17 @@ import java.security.spec.ECGenParameterSpec;
  */
 public class Wallet {
 
+    private Blockchain chain; // The blockchain whose UTXO set the wallet spends from.
     private PublicKey publicKey; // The public key of the wallet.
     private PrivateKey privateKey; // The private key of the wallet.
-
-    private HashMap<String, TransactionOutput> ownedUTXOs = new HashMap<String, TransactionOutput>(); // The UTXOs owned by this wallet.
+    private Address address; // The address of the public key, which the wallet's outputs are paid to.
 
     /**
      * Constructs a Wallet and generates a new key pair.
+     * @param chain The blockchain whose UTXO set the wallet spends from.
      */
-    public Wallet() {
+    public Wallet(Blockchain chain) {
+        this.chain = chain;
         generateKeys();
     }
 
@@ -39,54 +41,102 @@ public class Wallet {
             KeyPair keyPair = keyGen.generateKeyPair();
             privateKey = keyPair.getPrivate();
             publicKey = keyPair.getPublic();
+            address = Address.of(publicKey);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Creates and signs a new transaction to send funds to a recipient, selecting inputs by branch and bound.
+     * @param recipient The address of the recipient.
+     * @param value The amount to send in base units.
+     * @return The new transaction if successful, or null if failed.
+     */
+    public Transaction sendFunds(Address recipient, long value) {
+        return sendFunds(recipient, value, CoinSelector.Strategy.BRANCH_AND_BOUND);
+    }
+
     /**
      * Creates and signs a new transaction to send funds to a recipient.
-     * @param recipient The public key of the recipient.
-     * @param value The amount to send.
+     * The inputs and fee are chosen before the transaction is built, so exactly one transaction is built and signed.
+     * @param recipient The address of the recipient.
+     * @param value The amount to send in base units.
+     * @param strategy The coin selection strategy.
      * @return The new transaction if successful, or null if failed.
      */
-    public Transaction sendFunds(PublicKey recipient, double value) {
+    public Transaction sendFunds(Address recipient, long value, CoinSelector.Strategy strategy) {
         if (recipient == null) {
-            System.out.println(StringUtil.formatText("WAL001: Recipient is Null - Transaction Discarded", StringUtil.ANSI_RED));
+            EventLog.error("WAL001: Recipient is Null - Transaction Discarded");
             return null;
         }
 
-        ArrayList<TransactionInput> inputs = new ArrayList<>();
-        double total = 0;
+        return sendBatch(List.of(new Transaction.Payment(recipient, value)), strategy);
+    }
 
-        double requiredAmount = value;
-        double fee = 0;
+    /**
+     * Creates and signs one transaction paying many recipients, selecting inputs by branch and bound.
+     * @param payments The payments to make.
+     * @return The new transaction if successful, or null if failed.
+     */
+    public Transaction sendBatch(List<Transaction.Payment> payments) {
+        return sendBatch(payments, CoinSelector.Strategy.BRANCH_AND_BOUND);
+    }
 
-        getBalance();
+    /**
+     * Creates and signs one transaction paying many recipients from a single set of inputs.
+     * Each payment becomes one output, followed by the change output if any, so the batch shares one signature and
+     * pays for its inputs once instead of once per recipient.
+     * Callers paying more recipients than fit in one block should split them into several batches.
+     * @param payments The payments to make.
+     * @param strategy The coin selection strategy.
+     * @return The new transaction if successful, or null if failed.
+     */
+    public Transaction sendBatch(List<Transaction.Payment> payments, CoinSelector.Strategy strategy) {
+        if (payments.isEmpty()) {
+            EventLog.error("WAL004: No Payments in Transaction - Transaction Discarded");
+            return null;
+        }
 
-        for (TransactionOutput output : ownedUTXOs.values()) {
-            total += output.getValue();
-            inputs.add(new TransactionInput(output.getId()));
+        long value = 0;
 
-            Transaction tempTransaction = new Transaction(publicKey, recipient, value, inputs);
-            fee = tempTransaction.getFee();
-            requiredAmount = value + fee;
+        for (Transaction.Payment payment : payments) {
+            if (payment.getRecipient() == null) {
+                EventLog.error("WAL001: Recipient is Null - Transaction Discarded");
+                return null;
+            }
+        }
 
-            if (total >= requiredAmount) {
-                break;
+        CoinSelector.Selection selection;
+
+        try {
+            for (Transaction.Payment payment : payments) {
+                value = Math.addExact(value, payment.getValue());
             }
+
+            selection = CoinSelector.select(chain.getUTXOs().getOwned(address), value, payments.size(), strategy);
+        } catch (ArithmeticException e) {
+            selection = null;
         }
 
-        if (total < requiredAmount) {
-            System.out.println(StringUtil.formatText("WAL002: Insufficient Funds for Transaction - Transaction Discarded", StringUtil.ANSI_RED));
+        if (selection == null) {
+            EventLog.error("WAL002: Insufficient Funds for Transaction - Transaction Discarded");
             return null;
         }
 
-        Transaction newTransaction = new Transaction(publicKey, recipient, value, inputs);
+        ArrayList<TransactionInput> inputs = new ArrayList<>(selection.getInputs().size());
+
+        for (TransactionOutput output : selection.getInputs()) {
+            TransactionInput input = new TransactionInput(output.getId());
+            input.setUTXO(output);
+            inputs.add(input);
+        }
+
+        Transaction newTransaction = new Transaction(publicKey, payments, selection.getFee(), inputs);
         newTransaction.generateSignature(privateKey);
 
         if (!newTransaction.verifyTransaction()) {
-            System.out.println(StringUtil.formatText("WAL003: Transaction Verification Failed - Transaction Discarded", StringUtil.ANSI_RED));
+            EventLog.error("WAL003: Transaction Verification Failed - Transaction Discarded");
             return null;
         }
 
@@ -101,6 +151,14 @@ public class Wallet {
         return publicKey;
     }
 
+    /**
+     * Returns the address the wallet is paid at.
+     * @return The address.
+     */
+    public Address getAddress() {
+        return address;
+    }
+
     /**
      * Returns the private key.
      * @return The private key.
@@ -110,29 +168,20 @@ public class Wallet {
     }
 
     /**
-     * Returns the total balance and updates ownedUTXOs.
-     * @return The total balance.
+     * Returns the total balance from the wallet's entries in the UTXO owner index.
+     * @return The total balance in base units.
      */
-    public double getBalance() {
-        ownedUTXOs.clear();
-        double total = 0;
-
-        for (TransactionOutput output : Blockchain.UTXOs.values()) {
-            if (output.isMine(publicKey)) {
-                ownedUTXOs.put(output.getId(), output);
-                total += output.getValue();
-            }
-        }
-
-        return total;
+    public long getBalance() {
+        return chain.getUTXOs().getBalance(address);
     }
 
     @Override
     public String toString() {
         return "Wallet{" +
-                "publicKey=" + publicKey +
+                "address=" + address +
+                ", publicKey=" + publicKey +
                 ", privateKey=" + privateKey +
-                ", UTXOs=" + ownedUTXOs +
+                ", UTXOs=" + chain.getUTXOs().getOwned(address) +
                 '}';
     }
 }
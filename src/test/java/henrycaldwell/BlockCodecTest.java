@@ -0,0 +1,162 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.security.PublicKey;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that blocks, headers and transactions survive an encoding round trip and that signatures cover the inputs.
+ */
+public class BlockCodecTest {
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @Test
+    public void blockRoundTripKeepsEveryField() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 2, 10 * Blockchain.COIN);
+        Block block = ChainFixtures.mine(chain, wallets.get(0).sendFunds(wallets.get(1).getAddress(), Blockchain.COIN));
+
+        byte[] encoded = encode(block);
+        Block decoded = BlockCodec.decodeBlock(new ByteReader(encoded));
+
+        assertEquals(block.getHash(), decoded.getHash());
+        assertEquals(block.getPreviousBlockHash(), decoded.getPreviousBlockHash());
+        assertEquals(block.getMerkleRoot(), decoded.getMerkleRoot());
+        assertEquals(block.getTimestamp(), decoded.getTimestamp());
+        assertEquals(block.getBits(), decoded.getBits());
+        assertEquals(block.getNonce(), decoded.getNonce());
+        assertEquals(block.getHash(), new BlockHeader(decoded).calculateHash());
+        assertArrayEquals(encoded, encode(decoded));
+        assertTrue(SyncPipeline.isWellFormed(decoded));
+
+        Transaction original = block.getTransactions().get(0);
+        Transaction copy = decoded.getTransactions().get(0);
+        assertEquals(original.getTransactionId(), copy.getTransactionId());
+        assertEquals(original.getOutputs(), copy.getOutputs());
+        assertEquals(original.getInputs().get(0).getUTXO(), copy.getInputs().get(0).getUTXO());
+        assertEquals(Address.of(original.getSender()), Address.of(copy.getSender()));
+        assertTrue(copy.verifySignature());
+    }
+
+    @Test
+    public void decodedKeyOwnsTheSameAddress() {
+        Wallet wallet = new Wallet(new Blockchain());
+        byte[] encoded = KeyRegistry.getEncoded(wallet.getPublicKey());
+        PublicKey decoded = BlockCodec.decodeKey(encoded.clone());
+
+        assertEquals(wallet.getPublicKey(), decoded);
+        assertEquals(wallet.getAddress(), Address.of(decoded));
+        assertArrayEquals(encoded, KeyRegistry.getEncoded(decoded));
+        assertEquals(decoded, BlockCodec.decodeKey(encoded.clone()));
+    }
+
+    @Test
+    public void headerDecodesFromHeaderOrBlock() {
+        Blockchain chain = new Blockchain();
+        Block block = ChainFixtures.genesis(chain, new Wallet(chain), Blockchain.COIN);
+        BlockHeader header = new BlockHeader(block);
+        ByteWriter writer = new ByteWriter();
+        BlockCodec.encodeHeader(header, writer);
+
+        for (byte[] encoded : List.of(writer.toByteArray(), encode(block))) {
+            BlockHeader decoded = BlockCodec.decodeHeader(new ByteReader(encoded));
+            assertEquals(header.getHash(), decoded.getHash());
+            assertEquals(header.getPreviousBlockHash(), decoded.getPreviousBlockHash());
+            assertEquals(header.getMerkleRoot(), decoded.getMerkleRoot());
+            assertEquals(header.getTimestamp(), decoded.getTimestamp());
+            assertEquals(header.getBits(), decoded.getBits());
+            assertEquals(header.getNonce(), decoded.getNonce());
+        }
+    }
+
+    @Test
+    public void signatureDoesNotTransferToOtherInputs() {
+        Blockchain chain = new Blockchain();
+        Wallet payer = new Wallet(chain);
+        Wallet owner = new Wallet(chain);
+        ChainFixtures.genesis(chain, payer, 100 * Blockchain.COIN);
+        ChainFixtures.mine(chain, payer.sendBatch(List.of(new Transaction.Payment(owner.getAddress(), Blockchain.COIN), new Transaction.Payment(owner.getAddress(), Blockchain.COIN))));
+
+        Transaction signed = owner.sendFunds(payer.getAddress(), Blockchain.COIN / 2);
+        assertEquals(1, signed.getInputs().size());
+        assertTrue(signed.verifySignature());
+
+        TransactionOutput other = null;
+
+        for (TransactionOutput output : chain.getUTXOs().getOwned(owner.getAddress())) {
+            if (!output.getId().equals(signed.getInputs().get(0).getTransactionOutputId())) {
+                other = output;
+            }
+        }
+
+        TransactionInput input = new TransactionInput(other.getId());
+        input.setUTXO(other);
+        ArrayList<TransactionInput> inputs = new ArrayList<>(List.of(input));
+        Transaction unsigned = new Transaction(null, signed.getSender(), new ArrayList<>(signed.getPayments()), signed.getFee(), null, inputs, new ArrayList<>(signed.getOutputs()));
+        Transaction repointed = new Transaction(unsigned.calculateHash(), signed.getSender(), new ArrayList<>(signed.getPayments()), signed.getFee(), signed.getSignature(), inputs, new ArrayList<>(signed.getOutputs()));
+
+        assertNotEquals(signed.getTransactionId(), repointed.getTransactionId());
+        assertFalse(repointed.verifySignature());
+    }
+
+    @Test
+    public void oversizedCountsAreRejectedBeforeAllocating() {
+        Blockchain chain = new Blockchain();
+        Block block = ChainFixtures.genesis(chain, new Wallet(chain), Blockchain.COIN);
+        ByteWriter writer = new ByteWriter();
+        BlockCodec.encodeHeader(new BlockHeader(block), writer);
+        writer.writeInt(Integer.MAX_VALUE - 8);
+        byte[] hugeBlock = writer.toByteArray();
+
+        assertThrows(IllegalStateException.class, () -> BlockCodec.decodeBlock(new ByteReader(hugeBlock)));
+
+        writer = new ByteWriter();
+        writer.writeHash(block.getHash());
+        writer.writeInt(Integer.MAX_VALUE - 8);
+        byte[] hugeKey = writer.toByteArray();
+
+        assertThrows(IllegalStateException.class, () -> BlockCodec.decodeTransaction(new ByteReader(hugeKey)));
+    }
+
+    @Test
+    public void outputIdsDependOnTheirTransaction() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 2, 10 * Blockchain.COIN);
+        Transaction transaction = wallets.get(0).sendFunds(wallets.get(1).getAddress(), Blockchain.COIN);
+
+        assertEquals(transaction.calculateHash(), transaction.getTransactionId());
+
+        for (int i = 0; i < transaction.getOutputs().size(); i++) {
+            TransactionOutput output = transaction.getOutputs().get(i);
+            assertEquals(new TransactionOutput(output.getRecipient(), output.getValue(), transaction.getTransactionId(), i).getId(), output.getId());
+        }
+
+        assertNotEquals(Blockchain.mint(wallets.get(0).getAddress()).getId(), Blockchain.mint(wallets.get(1).getAddress()).getId());
+    }
+
+    /**
+     * Encodes a block into a new array.
+     * @param block The block.
+     * @return The encoding.
+     */
+    private static byte[] encode(Block block) {
+        ByteWriter writer = new ByteWriter();
+        BlockCodec.encodeBlock(block, writer);
+        return writer.toByteArray();
+    }
+}
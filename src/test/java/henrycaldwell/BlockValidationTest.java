@@ -0,0 +1,235 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that blocks breaking a transaction or timestamp rule are rejected and that verification agrees.
+ */
+public class BlockValidationTest {
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @Test
+    public void thiefCannotSpendAnotherWalletsOutput() {
+        Blockchain chain = new Blockchain();
+        Wallet victim = new Wallet(chain);
+        Wallet thief = new Wallet(chain);
+        ChainFixtures.genesis(chain, victim, 10 * Blockchain.COIN);
+        TransactionOutput stolen = chain.getUTXOs().getOwned(victim.getAddress()).get(0);
+        long fee = Transaction.estimateFee(1, 2);
+
+        // Pays the thief a million coins, balanced by negative change.
+        Transaction theft = forge(thief, stolen, List.of(new Transaction.Payment(thief.getAddress(), 1000000 * Blockchain.COIN)), stolen.getValue() - 1000000 * Blockchain.COIN - fee, fee);
+        assertRejected(chain, theft);
+
+        // Pays the thief the victim's value with positive change, so only ownership is broken.
+        Transaction spend = forge(thief, stolen, List.of(new Transaction.Payment(thief.getAddress(), Blockchain.COIN)), stolen.getValue() - Blockchain.COIN - fee, fee);
+        assertRejected(chain, spend);
+
+        assertEquals(10 * Blockchain.COIN, victim.getBalance());
+        assertEquals(0, thief.getBalance());
+    }
+
+    @Test
+    public void ownerCannotInflateWithNegativeChange() {
+        Blockchain chain = new Blockchain();
+        Wallet owner = new Wallet(chain);
+        ChainFixtures.genesis(chain, owner, 10 * Blockchain.COIN);
+        TransactionOutput output = chain.getUTXOs().getOwned(owner.getAddress()).get(0);
+        long fee = Transaction.estimateFee(1, 2);
+
+        Transaction inflated = forge(owner, output, List.of(new Transaction.Payment(new Wallet(chain).getAddress(), 1000 * Blockchain.COIN)), output.getValue() - 1000 * Blockchain.COIN - fee, fee);
+        assertRejected(chain, inflated);
+    }
+
+    @Test
+    public void changeMustReturnToSender() {
+        Blockchain chain = new Blockchain();
+        Wallet owner = new Wallet(chain);
+        Wallet other = new Wallet(chain);
+        ChainFixtures.genesis(chain, owner, 10 * Blockchain.COIN);
+        TransactionOutput output = chain.getUTXOs().getOwned(owner.getAddress()).get(0);
+        long fee = Transaction.estimateFee(1, 2);
+
+        Transaction misdirected = forge(owner, output, List.of(new Transaction.Payment(other.getAddress(), Blockchain.COIN)), output.getValue() - Blockchain.COIN - fee, fee, other.getAddress());
+        assertRejected(chain, misdirected);
+    }
+
+    @Test
+    public void validChainVerifiesAfterSpendingGenesisChange() {
+        Blockchain chain = new Blockchain();
+        Wallet coinbase = new Wallet(chain);
+        Wallet recipient = new Wallet(chain);
+        chain.mineGenesis(coinbase, recipient.getAddress(), 10 * Blockchain.COIN);
+
+        Block block = ChainFixtures.mine(chain, coinbase.sendFunds(recipient.getAddress(), 5 * Blockchain.COIN), recipient.sendFunds(coinbase.getAddress(), Blockchain.COIN));
+
+        assertEquals(block.getHash(), chain.getChainIndex().getTip().getHash());
+        assertTrue(chain.verifyBlockchain());
+    }
+
+    @Test
+    public void equalPaymentsToOneAddressKeepDistinctOutputs() {
+        Blockchain chain = new Blockchain();
+        Wallet payer = new Wallet(chain);
+        Wallet payee = new Wallet(chain);
+        ChainFixtures.genesis(chain, payer, 100 * Blockchain.COIN);
+
+        Transaction twice = payer.sendBatch(List.of(new Transaction.Payment(payee.getAddress(), Blockchain.COIN), new Transaction.Payment(payee.getAddress(), Blockchain.COIN)));
+        assertTrue(SyncPipeline.isWellFormed(twice));
+        ChainFixtures.mine(chain, twice);
+        ChainFixtures.mine(chain, payer.sendFunds(payee.getAddress(), Blockchain.COIN));
+
+        assertEquals(3, chain.getUTXOs().getOwned(payee.getAddress()).size());
+        assertEquals(3 * Blockchain.COIN, payee.getBalance());
+        assertTrue(chain.verifyBlockchain());
+    }
+
+    @Test
+    public void zeroChangeIsRejected() {
+        Blockchain chain = new Blockchain();
+        Wallet owner = new Wallet(chain);
+        ChainFixtures.genesis(chain, owner, 10 * Blockchain.COIN);
+        TransactionOutput output = chain.getUTXOs().getOwned(owner.getAddress()).get(0);
+        long fee = output.getValue() - Blockchain.COIN;
+
+        Transaction zeroChange = forge(owner, output, List.of(new Transaction.Payment(new Wallet(chain).getAddress(), Blockchain.COIN)), 0, fee);
+        assertRejected(chain, zeroChange);
+    }
+
+    @Test
+    public void timestampMustFollowMedianAndClock() {
+        Blockchain chain = new Blockchain();
+        ChainFixtures.genesis(chain, new Wallet(chain), Blockchain.COIN);
+
+        for (int i = 0; i < 3; i++) {
+            ChainFixtures.mine(chain);
+        }
+
+        BlockTree.Node tip = chain.getChainIndex().getTipNode();
+        long median = Blockchain.getMedianTimePast(tip);
+        int bits = Blockchain.getNextBits(tip);
+
+        assertFalse(chain.acceptBlock(mineAt(tip.getHeader().getHash(), median, bits)));
+        assertFalse(chain.acceptBlock(mineAt(tip.getHeader().getHash(), System.currentTimeMillis() + Blockchain.maxFutureDrift + 60000, bits)));
+        assertTrue(chain.acceptBlock(mineAt(tip.getHeader().getHash(), median + 1, bits)));
+    }
+
+    @Test
+    public void badSignatureDoesNotBanTheHeader() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 1, 10 * Blockchain.COIN);
+        BlockTree.Node tip = chain.getChainIndex().getTipNode();
+        Transaction payment = wallets.get(0).sendFunds(new Wallet(chain).getAddress(), Blockchain.COIN);
+        Block block = new Block(tip.getHash());
+        assertTrue(block.addTransaction(payment));
+        block.mineBlock(Blockchain.getNextBits(tip), Blockchain.getMedianTimePast(tip) + 1);
+
+        // Another key's signature keeps the transaction ID, so the header still matches the body.
+        Transaction resigned = new Transaction(payment.getTransactionId(), payment.getSender(), new ArrayList<>(payment.getPayments()), payment.getFee(), null, new ArrayList<>(payment.getInputs()), new ArrayList<>(payment.getOutputs()));
+        resigned.generateSignature(new Wallet(chain).getPrivateKey());
+        Block malleated = new Block(block.getHash(), block.getPreviousBlockHash(), block.getMerkleRoot(), block.getTimestamp(), block.getBits(), block.getNonce(), new ArrayList<>(List.of(resigned)));
+
+        assertFalse(chain.acceptBlock(malleated));
+        assertFalse(chain.getBlockTree().get(block.getHash()).isInvalid());
+        assertTrue(chain.acceptBlock(block));
+        assertEquals(block.getHash(), chain.getChainIndex().getTip().getHash());
+    }
+
+    @Test
+    public void emptyChainVerifies() {
+        assertTrue(new Blockchain().verifyBlockchain());
+    }
+
+    @Test
+    public void retargetOverEmptyIntervalKeepsTarget() {
+        Blockchain chain = new Blockchain();
+        Block genesis = ChainFixtures.genesis(chain, new Wallet(chain), Blockchain.COIN);
+        BlockHeader header = new BlockHeader(genesis);
+
+        assertEquals(genesis.getBits(), Blockchain.retarget(header, 0, header, 0));
+    }
+
+    /**
+     * Mines an empty block with a given timestamp, without the minimum addBlock applies.
+     * @param previousBlockHash The hash of the parent.
+     * @param timestamp The timestamp.
+     * @param bits The compact target.
+     * @return The mined block.
+     */
+    private static Block mineAt(Digest previousBlockHash, long timestamp, int bits) {
+        Block block = new Block(null, previousBlockHash, null, timestamp, 0, 0, new ArrayList<>());
+        block.mineBlock(bits);
+        return block;
+    }
+
+    /**
+     * Builds and signs a transaction spending one output with the given outputs, bypassing the wallet's checks.
+     * @param signer The wallet signing as the sender.
+     * @param spent The output spent.
+     * @param payments The payments, paid in order.
+     * @param change The change value, returned to the signer.
+     * @param fee The fee.
+     * @return The signed transaction.
+     */
+    private static Transaction forge(Wallet signer, TransactionOutput spent, List<Transaction.Payment> payments, long change, long fee) {
+        return forge(signer, spent, payments, change, fee, signer.getAddress());
+    }
+
+    /**
+     * Builds and signs a transaction spending one output with the given outputs, bypassing the wallet's checks.
+     * @param signer The wallet signing as the sender.
+     * @param spent The output spent.
+     * @param payments The payments, paid in order.
+     * @param change The change value.
+     * @param fee The fee.
+     * @param changeRecipient The address the change is paid to.
+     * @return The signed transaction.
+     */
+    private static Transaction forge(Wallet signer, TransactionOutput spent, List<Transaction.Payment> payments, long change, long fee, Address changeRecipient) {
+        TransactionInput input = new TransactionInput(spent.getId());
+        input.setUTXO(spent);
+        ArrayList<TransactionInput> inputs = new ArrayList<>(List.of(input));
+        ArrayList<TransactionOutput> outputs = new ArrayList<>();
+
+        for (Transaction.Payment payment : payments) {
+            outputs.add(new TransactionOutput(payment.getRecipient(), payment.getValue(), null, outputs.size()));
+        }
+
+        outputs.add(new TransactionOutput(changeRecipient, change, null, outputs.size()));
+        Digest transactionId = new Transaction(null, signer.getPublicKey(), new ArrayList<>(payments), fee, null, inputs, outputs).calculateHash();
+
+        for (int i = 0; i < outputs.size(); i++) {
+            outputs.set(i, new TransactionOutput(outputs.get(i).getRecipient(), outputs.get(i).getValue(), transactionId, i));
+        }
+
+        Transaction transaction = new Transaction(transactionId, signer.getPublicKey(), new ArrayList<>(payments), fee, null, inputs, outputs);
+        transaction.generateSignature(signer.getPrivateKey());
+        return transaction;
+    }
+
+    /**
+     * Mines a block holding a transaction directly, as a decoded peer block would be, and checks the chain rejects it.
+     * @param chain The chain.
+     * @param transaction The invalid transaction.
+     */
+    private static void assertRejected(Blockchain chain, Transaction transaction) {
+        Digest tip = chain.getChainIndex().getTip().getHash();
+        ArrayList<Transaction> transactions = new ArrayList<>(List.of(transaction));
+        Block block = new Block(null, tip, SecurityUtil.getMerkleRoot(transactions), System.currentTimeMillis(), 0, 0, transactions);
+
+        assertFalse(chain.addBlock(block));
+        assertEquals(tip, chain.getChainIndex().getTip().getHash());
+    }
+}
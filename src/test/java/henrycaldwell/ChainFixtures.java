@@ -0,0 +1,76 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.security.Security;
+
+/**
+ * Builds the chains, wallets and funded outputs the tests run against.
+ */
+public class ChainFixtures {
+
+    /**
+     * Registers the Bouncy Castle provider and lowers the target so blocks mine in a few hundred hashes.
+     * Retargeting is disabled so every block of a test uses the same target.
+     */
+    public static void setUp() {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        }
+
+        Blockchain.genesisBits = Target.fromLeadingZeroBits(8);
+        Blockchain.retargetInterval = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a chain whose genesis block pays a wallet.
+     * @param chain The empty chain.
+     * @param recipient The wallet the genesis transaction pays.
+     * @param value The value paid in base units.
+     * @return The genesis block.
+     */
+    public static Block genesis(Blockchain chain, Wallet recipient, long value) {
+        return chain.mineGenesis(new Wallet(chain), recipient.getAddress(), value);
+    }
+
+    /**
+     * Creates a chain funding several wallets, each with one output of the given value, from a batch in block 1.
+     * @param chain The empty chain.
+     * @param count The number of wallets.
+     * @param value The value of each wallet's output in base units.
+     * @return The funded wallets.
+     */
+    public static List<Wallet> fundedWallets(Blockchain chain, int count, long value) {
+        Wallet treasury = new Wallet(chain);
+        genesis(chain, treasury, 500 * Blockchain.COIN);
+        List<Wallet> wallets = new ArrayList<>();
+        List<Transaction.Payment> payments = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            Wallet wallet = new Wallet(chain);
+            wallets.add(wallet);
+            payments.add(new Transaction.Payment(wallet.getAddress(), value));
+        }
+
+        mine(chain, treasury.sendBatch(payments));
+        return wallets;
+    }
+
+    /**
+     * Mines a block on the active tip holding the given transactions.
+     * @param chain The chain.
+     * @param transactions The transactions.
+     * @return The mined block, whether or not the chain accepted it.
+     */
+    public static Block mine(Blockchain chain, Transaction... transactions) {
+        Block block = new Block(chain.getChainIndex().getTip().getHash());
+
+        for (Transaction transaction : transactions) {
+            block.addTransaction(transaction);
+        }
+
+        chain.addBlock(block);
+        return block;
+    }
+}
@@ -0,0 +1,116 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the mempool resolves inputs from the confirmed UTXO set and evicts stale entries, so every template it
+ * builds can be connected.
+ */
+public class MempoolTest {
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @Test
+    public void inflatedInputValueIsRejected() {
+        Blockchain chain = new Blockchain();
+        Wallet owner = new Wallet(chain);
+        ChainFixtures.genesis(chain, owner, 10 * Blockchain.COIN);
+        TransactionOutput output = chain.getUTXOs().getOwned(owner.getAddress()).get(0);
+
+        TransactionOutput inflated = new TransactionOutput(output.getId(), output.getRecipient(), 1000 * Blockchain.COIN, output.getParentTransactionId());
+        Transaction transaction = sign(owner, inflated, new Wallet(chain).getAddress(), 500 * Blockchain.COIN);
+
+        assertTrue(transaction.verifyTransaction());
+        assertFalse(chain.getMempool().add(transaction));
+        assertEquals(0, chain.getMempool().size());
+    }
+
+    @Test
+    public void anotherWalletsOutputIsRejected() {
+        Blockchain chain = new Blockchain();
+        Wallet victim = new Wallet(chain);
+        Wallet thief = new Wallet(chain);
+        ChainFixtures.genesis(chain, victim, 10 * Blockchain.COIN);
+        TransactionOutput output = chain.getUTXOs().getOwned(victim.getAddress()).get(0);
+
+        assertFalse(chain.getMempool().add(sign(thief, output, thief.getAddress(), Blockchain.COIN)));
+        assertEquals(0, chain.getMempool().size());
+    }
+
+    @Test
+    public void templateOfPendingTransactionsConnects() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 3, 10 * Blockchain.COIN);
+        Wallet recipient = new Wallet(chain);
+
+        for (Wallet wallet : wallets) {
+            assertTrue(chain.getMempool().add(wallet.sendFunds(recipient.getAddress(), Blockchain.COIN)));
+        }
+
+        TransactionOutput output = chain.getUTXOs().getOwned(wallets.get(0).getAddress()).get(0);
+        assertFalse(chain.getMempool().add(sign(wallets.get(1), output, recipient.getAddress(), Blockchain.COIN)));
+
+        Block block = chain.getMempool().buildBlock(chain.getChainIndex().getTip().getHash(), Integer.MAX_VALUE);
+        assertEquals(3, block.getTransactions().size());
+        assertTrue(chain.addBlock(block));
+        assertEquals(0, chain.getMempool().size());
+        assertEquals(3 * Blockchain.COIN, recipient.getBalance());
+    }
+
+    @Test
+    public void staleEntryIsEvictedWhileBuilding() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 2, 10 * Blockchain.COIN);
+        Wallet recipient = new Wallet(chain);
+        Transaction stale = wallets.get(0).sendFunds(recipient.getAddress(), Blockchain.COIN);
+        Transaction fresh = wallets.get(1).sendFunds(recipient.getAddress(), Blockchain.COIN);
+        assertTrue(chain.getMempool().add(stale));
+        assertTrue(chain.getMempool().add(fresh));
+
+        // Spend the input behind the pool's back, as a block connecting between add's check and its claim would.
+        chain.getUTXOs().remove(stale.getInputs().get(0).getTransactionOutputId());
+
+        Block block = chain.getMempool().buildBlock(chain.getChainIndex().getTip().getHash(), Integer.MAX_VALUE);
+        assertEquals(List.of(fresh), block.getTransactions());
+        assertFalse(chain.getMempool().contains(stale.getTransactionId()));
+        assertTrue(chain.addBlock(block));
+    }
+
+    @Test
+    public void dependentsOfDisconnectedBlockAreEvicted() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 1, 10 * Blockchain.COIN);
+        Block funding = chain.getBlock(chain.getChainIndex().size() - 1);
+        assertTrue(chain.getMempool().add(wallets.get(0).sendFunds(new Wallet(chain).getAddress(), Blockchain.COIN)));
+
+        chain.getMempool().removeDependents(funding);
+        assertEquals(0, chain.getMempool().size());
+    }
+
+    /**
+     * Builds and signs a transaction spending one output as given, without resolving it from the UTXO set.
+     * @param signer The wallet signing as the sender.
+     * @param spent The output spent, as the input claims it.
+     * @param recipient The address paid.
+     * @param value The value paid.
+     * @return The signed transaction.
+     */
+    private static Transaction sign(Wallet signer, TransactionOutput spent, Address recipient, long value) {
+        TransactionInput input = new TransactionInput(spent.getId());
+        input.setUTXO(spent);
+        Transaction transaction = new Transaction(signer.getPublicKey(), recipient, value, new ArrayList<>(List.of(input)));
+        transaction.generateSignature(signer.getPrivateKey());
+        return transaction;
+    }
+}
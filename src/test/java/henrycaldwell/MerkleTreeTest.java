@@ -0,0 +1,113 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the incremental Merkle tree against the full computation, its inclusion proofs, duplicate leaf handling and
+ * blocks restored from storage.
+ */
+public class MerkleTreeTest {
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @Test
+    public void incrementalRootMatchesFullComputation() {
+        MerkleTree tree = new MerkleTree();
+        List<Transaction> transactions = new ArrayList<>();
+
+        for (int i = 0; i < 33; i++) {
+            Digest id = new Digest(0, 0, 0, i);
+            tree.add(id);
+            transactions.add(new Transaction(id, null, new ArrayList<>(), 0, null, new ArrayList<>(), new ArrayList<>()));
+            assertEquals(SecurityUtil.getMerkleRoot(transactions), tree.getRoot());
+        }
+    }
+
+    @Test
+    public void proofsVerifyOnlyAgainstTheirRoot() {
+        MerkleTree tree = new MerkleTree();
+
+        for (int i = 0; i < 13; i++) {
+            tree.add(new Digest(0, 0, 0, i));
+        }
+
+        Digest otherRoot = SecurityUtil.hashPair(tree.getRoot(), tree.getRoot());
+
+        for (int i = 0; i < 13; i++) {
+            MerkleProof proof = tree.getProof(new Digest(0, 0, 0, i));
+            assertEquals(i, proof.getIndex());
+            assertTrue(proof.verify(tree.getRoot()));
+            assertFalse(proof.verify(otherRoot));
+
+
+            if (i < 12) {
+                MerkleProof moved = new MerkleProof(proof.getTransactionId(), i ^ 1, proof.getSiblings());
+                assertFalse(moved.verify(tree.getRoot()));
+            }
+        }
+
+        assertNull(tree.getProof(new Digest(1, 0, 0, 0)));
+    }
+
+    @Test
+    public void repeatedLastLeafKeepsTheRoot() {
+        MerkleTree three = new MerkleTree();
+        MerkleTree four = new MerkleTree();
+
+        for (int i = 0; i < 3; i++) {
+            three.add(new Digest(0, 0, 0, i));
+            four.add(new Digest(0, 0, 0, i));
+        }
+
+        four.add(new Digest(0, 0, 0, 2));
+        assertEquals(three.getRoot(), four.getRoot());
+    }
+
+    @Test
+    public void bodyWithRepeatedTransactionIsNotWellFormed() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 3, 10 * Blockchain.COIN);
+        Wallet recipient = new Wallet(chain);
+        Block block = new Block(chain.getChainIndex().getTip().getHash());
+
+        for (Wallet wallet : wallets) {
+            assertTrue(block.addTransaction(wallet.sendFunds(recipient.getAddress(), Blockchain.COIN)));
+        }
+
+        chain.addBlock(block);
+        assertTrue(SyncPipeline.isWellFormed(block));
+
+        ArrayList<Transaction> repeated = new ArrayList<>(block.getTransactions());
+        repeated.add(repeated.get(2));
+        Block forged = new Block(block.getHash(), block.getPreviousBlockHash(), block.getMerkleRoot(), block.getTimestamp(), block.getBits(), block.getNonce(), repeated);
+
+        assertEquals(block.getMerkleRoot(), SecurityUtil.getMerkleRoot(forged.getTransactions()));
+        assertFalse(SyncPipeline.isWellFormed(forged));
+    }
+
+    @Test
+    public void transactionAddedToRestoredBlockIsCountedOnce() {
+        Blockchain chain = new Blockchain();
+        List<Wallet> wallets = ChainFixtures.fundedWallets(chain, 2, 10 * Blockchain.COIN);
+        Wallet recipient = new Wallet(chain);
+        Transaction first = wallets.get(0).sendFunds(recipient.getAddress(), Blockchain.COIN);
+        Transaction second = wallets.get(1).sendFunds(recipient.getAddress(), Blockchain.COIN);
+
+        Block restored = new Block(null, chain.getChainIndex().getTip().getHash(), SecurityUtil.getMerkleRoot(List.of(first)), 0, 0, 0, new ArrayList<>(List.of(first)));
+        assertTrue(restored.addTransaction(second));
+
+        assertEquals(SecurityUtil.getMerkleRoot(List.of(first, second)), restored.getMerkleRoot());
+    }
+}
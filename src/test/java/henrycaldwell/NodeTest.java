@@ -0,0 +1,129 @@
+package henrycaldwell;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs several nodes on localhost in one JVM, each with its own chain.
+ */
+public class NodeTest {
+
+    private static final long TIMEOUT = 30000; // The time a node is given to converge, in miliseconds.
+
+    private List<Node> nodes = new ArrayList<>(); // The nodes started by the test, closed after it.
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (Node node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void syncsAndRelaysBetweenNodes() {
+        Blockchain chainA = new Blockchain();
+        Blockchain chainB = new Blockchain();
+        Blockchain chainC = new Blockchain();
+        Node nodeA = start(chainA);
+        Node nodeB = start(chainB);
+        Node nodeC = start(chainC);
+
+        Wallet miner = new Wallet(chainA);
+        Wallet payee = new Wallet(chainA);
+        nodeA.announce(ChainFixtures.genesis(chainA, miner, 500 * Blockchain.COIN));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(nodeA.mine(miner, payee.getAddress()) != null);
+        }
+
+        nodeB.connect("localhost", nodeA.getPort());
+        nodeC.connect("localhost", nodeB.getPort());
+        awaitTip(chainB, chainA);
+        awaitTip(chainC, chainA);
+        assertTrue(chainC.verifyBlockchain());
+
+        // A block mined after the handshake reaches C through B.
+        nodeA.mine(miner, payee.getAddress());
+        awaitTip(chainB, chainA);
+        awaitTip(chainC, chainA);
+
+        // A payment made on C reaches A's mempool through B.
+        Wallet spender = new Wallet(chainC);
+        nodeA.mine(miner, spender.getAddress());
+        awaitTip(chainC, chainA);
+        assertEquals(Blockchain.COIN, spender.getBalance());
+
+        Transaction transaction = spender.sendFunds(new Wallet(chainC).getAddress(), Blockchain.COIN / 2);
+        assertTrue(chainC.getMempool().add(transaction));
+        nodeC.announce(transaction);
+        await(() -> chainA.getMempool().contains(transaction.getTransactionId()));
+        await(() -> chainB.getMempool().contains(transaction.getTransactionId()));
+    }
+
+    /**
+     * Starts a node on a free port.
+     * @param chain The chain of the node.
+     * @return The started node.
+     */
+    private Node start(Blockchain chain) {
+        Node node = new Node(chain, freePort());
+        node.start();
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Waits until a chain's tip matches another chain's tip.
+     * @param chain The syncing chain.
+     * @param source The chain synced from.
+     */
+    private static void awaitTip(Blockchain chain, Blockchain source) {
+        await(() -> chain.getChainIndex().getTip() != null && chain.getChainIndex().getTip().getHash().equals(source.getChainIndex().getTip().getHash()));
+        assertEquals(source.getChainIndex().size(), chain.getChainIndex().size());
+    }
+
+    /**
+     * Polls a condition until it holds or the timeout passes.
+     * @param condition The condition.
+     */
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for nodes to converge");
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Finds a port no socket is bound to.
+     * @return The port.
+     */
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
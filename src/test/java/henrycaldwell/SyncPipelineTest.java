@@ -0,0 +1,175 @@
+package henrycaldwell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the sync pipeline's header targets, its bound on pending headers, its handling of the genesis block and of
+ * bodies that fail to verify.
+ */
+public class SyncPipelineTest {
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @Test
+    public void headerWithUnexpectedTargetIsRejected() {
+        Blockchain source = new Blockchain();
+        ChainFixtures.fundedWallets(source, 1, Blockchain.COIN);
+
+        Block easier = new Block(source.getChainIndex().getTip().getHash());
+        easier.mineBlock(Target.fromLeadingZeroBits(4));
+
+        Blockchain target = new Blockchain();
+        SyncPipeline pipeline = new SyncPipeline(target, 16, 100, 1, block -> { });
+        ArrayList<BlockHeader> headers = headersOf(source);
+        headers.add(new BlockHeader(easier));
+
+        assertFalse(pipeline.addHeaders(headers));
+    }
+
+    @Test
+    public void pendingHeadersFollowRetargeting() {
+        int retargetInterval = Blockchain.retargetInterval;
+        Blockchain.retargetInterval = 4;
+
+        try {
+            Blockchain source = new Blockchain();
+            Wallet wallet = new Wallet(source);
+            ChainFixtures.genesis(source, wallet, Blockchain.COIN);
+
+            for (int i = 0; i < 9; i++) {
+                ChainFixtures.mine(source);
+            }
+
+            ArrayList<BlockHeader> headers = headersOf(source);
+            assertTrue(headers.get(4).getBits() != headers.get(3).getBits());
+
+            SyncPipeline pipeline = new SyncPipeline(new Blockchain(), 16, 100, 1, block -> { });
+            assertTrue(pipeline.addHeaders(headers));
+            assertEquals(headers.get(headers.size() - 1).getHash(), pipeline.getLastHash());
+        } finally {
+            Blockchain.retargetInterval = retargetInterval;
+        }
+    }
+
+    @Test
+    public void pendingHeadersAreBounded() {
+        Blockchain source = new Blockchain();
+        ChainFixtures.genesis(source, new Wallet(source), Blockchain.COIN);
+
+        for (int i = 0; i < 5; i++) {
+            ChainFixtures.mine(source);
+        }
+
+        ArrayList<BlockHeader> headers = headersOf(source);
+        SyncPipeline pipeline = new SyncPipeline(new Blockchain(), 16, 3, 1, block -> { });
+
+        assertTrue(pipeline.addHeaders(headers));
+        assertEquals(headers.get(2).getHash(), pipeline.getLastHash());
+        assertFalse(pipeline.contains(headers.get(3).getHash()));
+        assertFalse(pipeline.hasRoom(1));
+    }
+
+    @Test
+    public void genesisSpendsOnlyTheMintedSupply() throws InterruptedException {
+        Blockchain source = new Blockchain();
+        Wallet coinbase = new Wallet(source);
+        Block genesis = source.mineGenesis(coinbase, new Wallet(source).getAddress(), Blockchain.COIN);
+
+        Blockchain forgedSource = new Blockchain();
+        Wallet forger = new Wallet(forgedSource);
+        TransactionOutput minted = Blockchain.mint(forger.getAddress());
+        TransactionInput input = new TransactionInput(minted.getId());
+        input.setUTXO(new TransactionOutput(forger.getAddress(), 2 * Blockchain.GENESIS_SUPPLY, null, 0));
+        Transaction doubled = new Transaction(forger.getPublicKey(), forger.getAddress(), Blockchain.COIN, new ArrayList<>(List.of(input)));
+        doubled.generateSignature(forger.getPrivateKey());
+        Block forged = new Block(Digest.ZERO);
+        assertTrue(forged.addTransaction(doubled));
+        forged.mineBlock(Blockchain.genesisBits);
+
+        Blockchain target = new Blockchain();
+        assertFalse(sync(target, forged));
+        assertEquals(0, target.getBlockTree().size());
+        assertEquals(0, target.getUTXOs().size());
+
+        assertTrue(sync(target, genesis));
+        assertEquals(genesis.getHash(), target.getChainIndex().getTip().getHash());
+        assertEquals(Blockchain.GENESIS_SUPPLY - Blockchain.COIN - genesis.getTransactions().get(0).getFee(), target.getUTXOs().getBalance(coinbase.getAddress()));
+    }
+
+    @Test
+    public void bodiesThatFailToVerifyAreDropped() throws InterruptedException {
+        Blockchain source = new Blockchain();
+        Block genesis = source.mineGenesis(new Wallet(source), new Wallet(source).getAddress(), Blockchain.COIN);
+        Transaction original = genesis.getTransactions().get(0);
+
+        Transaction malformed = new Transaction(original.getTransactionId(), original.getSender(), new ArrayList<>(original.getPayments()), original.getFee(), new byte[] { 1, 2, 3 }, new ArrayList<>(original.getInputs()), new ArrayList<>(original.getOutputs()));
+        Transaction unnamed = new Transaction(null, original.getSender(), new ArrayList<>(original.getPayments()), original.getFee(), original.getSignature(), new ArrayList<>(original.getInputs()), new ArrayList<>(original.getOutputs()));
+
+        Blockchain target = new Blockchain();
+
+        for (Transaction transaction : List.of(malformed, unnamed)) {
+            Block body = new Block(genesis.getHash(), genesis.getPreviousBlockHash(), genesis.getMerkleRoot(), genesis.getTimestamp(), genesis.getBits(), genesis.getNonce(), new ArrayList<>(List.of(transaction)));
+            assertFalse(sync(target, body));
+            assertEquals(0, target.getBlockTree().size());
+        }
+
+        assertTrue(sync(target, genesis));
+    }
+
+    /**
+     * Returns the headers of a chain's active chain, from the genesis block.
+     * @param chain The chain.
+     * @return The headers.
+     */
+    private static ArrayList<BlockHeader> headersOf(Blockchain chain) {
+        ArrayList<BlockHeader> headers = new ArrayList<>();
+
+        for (int height = 0; height < chain.getChainIndex().size(); height++) {
+            headers.add(chain.getChainIndex().getHeader(height));
+        }
+
+        return headers;
+    }
+
+    /**
+     * Syncs one block through a new pipeline and waits until it is applied or dropped.
+     * @param chain The chain synced into.
+     * @param block The block.
+     * @return True if the block was applied, false if it was dropped.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static boolean sync(Blockchain chain, Block block) throws InterruptedException {
+        CountDownLatch applied = new CountDownLatch(1);
+        SyncPipeline pipeline = new SyncPipeline(chain, 16, 100, 1, accepted -> applied.countDown());
+        pipeline.start();
+
+        try {
+            assertTrue(pipeline.addHeaders(List.of(new BlockHeader(block))));
+            assertEquals(block.getHash(), pipeline.nextDownload());
+            assertTrue(pipeline.offerBody(block));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+            while (pipeline.contains(block.getHash()) && System.nanoTime() < deadline) {
+                applied.await(10, TimeUnit.MILLISECONDS);
+            }
+
+            return applied.await(1, TimeUnit.SECONDS);
+        } finally {
+            pipeline.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package henrycaldwell;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks applying and undoing batches and the recipient index over the heap, direct and mapped stores.
+ */
+public class UTXOSetTest {
+
+    @TempDir
+    Path directory; // The directory of the mapped store.
+
+    @BeforeAll
+    public static void setUpClass() {
+        ChainFixtures.setUp();
+    }
+
+    @Test
+    public void applyAndUndoOnHeap() {
+        checkApplyAndUndo(new UTXOSet());
+    }
+
+    @Test
+    public void applyAndUndoOffHeap() {
+        checkApplyAndUndo(new UTXOSet(new OffHeapUTXOStore(16), 8));
+    }
+
+    @Test
+    public void applyAndUndoMapped() {
+        checkApplyAndUndo(new UTXOSet(new OffHeapUTXOStore(directory, 16), 8));
+    }
+
+    /**
+     * Applies batches to a set and checks that each undo batch restores the set and every owner's outputs exactly.
+     * The outputs are spread over few owners and the stores start small, so owner lists and table resizes are exercised.
+     * @param set The empty set.
+     */
+    private static void checkApplyAndUndo(UTXOSet set) {
+        Random random = new Random(1);
+        Address[] owners = new Address[5];
+
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Address(new Digest(0, 0, i, 0));
+        }
+
+        HashMap<Digest, TransactionOutput> expected = new HashMap<>();
+        ArrayList<UTXOBatch> undos = new ArrayList<>();
+        ArrayList<HashMap<Digest, TransactionOutput>> states = new ArrayList<>();
+
+        for (int round = 0; round < 40; round++) {
+            UTXOBatch batch = new UTXOBatch();
+            ArrayList<Digest> ids = new ArrayList<>(expected.keySet());
+
+            for (int i = 0; i < ids.size() && i < random.nextInt(8); i++) {
+                Digest id = ids.get(random.nextInt(ids.size()));
+
+                if (!batch.getSpent().contains(id)) {
+                    batch.spend(id);
+                }
+            }
+
+            for (int i = 0; i < 10; i++) {
+                Address owner = owners[random.nextInt(owners.length)];
+                batch.create(new TransactionOutput(owner, 1 + random.nextInt(1000), round == 0 && i == 0 ? null : new Digest(round, 0, 0, 1), i));
+            }
+
+            states.add(new HashMap<>(expected));
+            undos.add(set.apply(batch));
+            batch.getSpent().forEach(expected::remove);
+            batch.getCreated().forEach(output -> expected.put(output.getId(), output));
+            assertMatches(expected, set, owners);
+        }
+
+        for (int round = undos.size() - 1; round >= 0; round--) {
+            set.apply(undos.get(round));
+            assertMatches(states.get(round), set, owners);
+        }
+
+        assertEquals(0, set.size());
+        assertNull(set.get(new TransactionOutput(owners[0], 1, new Digest(0, 0, 0, 1), 0).getId()));
+    }
+
+    /**
+     * Checks that a set holds exactly the expected outputs, and that each owner's outputs and balance match them.
+     * @param expected The expected outputs by ID.
+     * @param set The set.
+     * @param owners The owners the outputs are paid to.
+     */
+    private static void assertMatches(HashMap<Digest, TransactionOutput> expected, UTXOSet set, Address[] owners) {
+        assertEquals(expected.size(), set.size());
+
+        for (TransactionOutput output : expected.values()) {
+            TransactionOutput stored = set.get(output.getId());
+            assertEquals(output.getValue(), stored.getValue());
+            assertEquals(output.getRecipient(), stored.getRecipient());
+            assertEquals(output.getParentTransactionId(), stored.getParentTransactionId());
+        }
+
+        for (Address owner : owners) {
+            HashSet<Digest> ownedIds = new HashSet<>();
+            long balance = 0;
+
+            for (TransactionOutput output : expected.values()) {
+                if (output.getRecipient().equals(owner)) {
+                    ownedIds.add(output.getId());
+                    balance += output.getValue();
+                }
+            }
+
+            List<TransactionOutput> owned = set.getOwned(owner);
+            HashSet<Digest> storedIds = new HashSet<>();
+            owned.forEach(output -> storedIds.add(output.getId()));
+
+            assertEquals(ownedIds.size(), owned.size());
+            assertEquals(ownedIds, storedIds);
+            assertEquals(balance, set.getBalance(owner));
+        }
+    }
+}